@@ -4,21 +4,29 @@ import java.io.Serializable;
 
 /**
  * Associates a unique account ID (the address) with its balance.
+ * The ledger stores balances in its primitive account table; Account objects are immutable copies of an address
+ * and balance returned by the table's map view.
  */
 public class Account implements Serializable {
     private final String address;
-    private int balance;
-    public Account(String address, int balance) {
+    private final long balance;
+    public Account(String address, long balance) {
         this.address = address;
         this.balance = balance;
     }
 
-    public int getBalance() {
+    public long getBalance() {
         return balance;
     }
 
-    public void setBalance(int balance) {
-        this.balance = balance;
+    /**
+     * @deprecated  Accounts are copies, so a change would never reach the ledger; balances only change through
+     *              transactions. Always throws UnsupportedOperationException.
+     */
+    @Deprecated
+    public void setBalance(long balance) {
+        throw new UnsupportedOperationException("Account " + address + " is a read-only copy of the ledger's " +
+                "account; balances only change through transactions.");
     }
 
     public String getAddress() {
@@ -0,0 +1,82 @@
+package com.cscie97.ledger;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps each account address to the transactions it paid or received, in the order they were accepted. Each
+ * account has an append-only posting list of block numbers and slots, stored in primitive arrays. Postings are
+ * added in block and slot order, so the first posting at or after a block and slot is found by binary search and
+ * a query takes time proportional to the size of its result rather than the length of the chain.
+ * The index is thread-safe.
+ */
+public class AccountHistoryIndex {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Map<String, Postings> postings = new ConcurrentHashMap<>();
+
+    /**
+     * Records that a transaction paid or received by an account was added to a block.
+     * @param address       The account address.
+     * @param blockNumber   The number of the block the transaction was added to.
+     * @param slot          The position of the transaction in the block's transaction list.
+     */
+    void add(String address, int blockNumber, int slot) {
+        postings.computeIfAbsent(address, key -> new Postings()).add(blockNumber, slot);
+    }
+
+    /**
+     * Finds an account's postings from a block and slot up to a block, in the order they were added.
+     * @param address   The account address.
+     * @param from      The location of the first posting to include, packed as by TransactionIndex.
+     * @param toBlock   The last block number to include.
+     * @param limit     The maximum number of postings to return.
+     * @return          The locations of the postings, packed as by TransactionIndex.
+     */
+    public long[] find(String address, long from, int toBlock, int limit) {
+        Postings list = postings.get(address);
+        return list == null ? new long[0] : list.find(from, toBlock, limit);
+    }
+
+    /**
+     * Posting list of one account.
+     */
+    private static final class Postings {
+        private int[] blocks = new int[INITIAL_CAPACITY];
+        private int[] slots = new int[INITIAL_CAPACITY];
+        private int size;
+
+        synchronized void add(int blockNumber, int slot) {
+            if (size == blocks.length) {
+                blocks = Arrays.copyOf(blocks, size * 2);
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            blocks[size] = blockNumber;
+            slots[size] = slot;
+            size++;
+        }
+
+        synchronized long[] find(long from, int toBlock, int limit) {
+            // Binary search for the first posting at or after the location; locations order by block, then slot
+            int low = 0, high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (TransactionIndex.location(blocks[middle], slots[middle]) < from) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            int end = low;
+            while (end < size && end - low < limit && blocks[end] <= toBlock) {
+                end++;
+            }
+            long[] locations = new long[end - low];
+            for (int i = low; i < end; i++) {
+                locations[i - low] = TransactionIndex.location(blocks[i], slots[i]);
+            }
+            return locations;
+        }
+    }
+}
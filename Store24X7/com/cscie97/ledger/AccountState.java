@@ -0,0 +1,562 @@
+package com.cscie97.ledger;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent (structurally shared) account table mapping account addresses to long balances. Each block holds
+ * its own AccountState; when a block is added to the chain the next candidate block forks the state instead of
+ * copying it. The fork shares every trie node with its predecessor, and a node is only copied the first time the
+ * new candidate block changes it. Sealing a block therefore costs O(changed accounts) rather than O(accounts).
+ * Addresses are dictionary-encoded: a directory shared by all versions of the state assigns them dense ordinals
+ * in creation order. Balances are stored by ordinal in a 32-way trie whose leaves are primitive long arrays, so an
+ * account costs 8 bytes in its leaf instead of a boxed Account object, and sums over all balances scan the leaves
+ * sequentially. The table is also a read-only map of addresses to Account copies.
+ * The trie is also a 32-way Merkle tree over the accounts: its state root authenticates every address and
+ * balance, and a BalanceProof of one account only needs the account's leaf and the child hashes of the nodes on
+ * its path. Node hashes are cached once a node can no longer change, so a new version only rehashes the nodes it
+ * copied, O(changed accounts * log32(accounts)) per sealed block.
+ * Balances are read and changed without locking: the caller serializes the reads and changes of each account, as
+ * the ledger does with its account lock stripes, and a change whose path is already owned by the version only
+ * writes the account's slot in its leaf. Copying the nodes on the path the first time they change after a fork,
+ * and creating accounts, are synchronized on the version. Copied nodes are filled in their constructor, so a
+ * reader that finds one without locking sees its contents. Frozen versions never change.
+ */
+public class AccountState extends AbstractMap<String, Account> implements Serializable {
+    static final int BITS = 5;
+    static final int WIDTH = 1 << BITS;
+    static final int MASK = WIDTH - 1;
+
+    private final Directory directory;
+    private Node root;
+    private int shift;
+    private int size;
+    // Token identifying the nodes this version may change in place. Null once the state is frozen.
+    private transient volatile Object edit;
+
+    public AccountState() {
+        this(new Directory(), null, 0, 0);
+    }
+
+    private AccountState(Directory directory, Node root, int shift, int size) {
+        this.directory = directory;
+        this.shift = shift;
+        this.size = size;
+        this.edit = new Object();
+        this.root = root == null ? new Node(edit, 0, null) : root;
+    }
+
+    /**
+     * Freezes this state and returns a new editable version that shares all of its nodes.
+     * Changes made to the returned version are never visible through this one.
+     * @return  The new editable version of the account state.
+     */
+    public synchronized AccountState fork() {
+        edit = null;
+        return new AccountState(directory, root, shift, size);
+    }
+
+    /**
+     * Returns true if this version of the state can no longer be changed.
+     */
+    public boolean isFrozen() {
+        return edit == null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object address) {
+        return ordinalOf(address) >= 0;
+    }
+
+    /**
+     * Returns a copy of the account with the given address, or null if it does not exist in this version.
+     */
+    @Override
+    public Account get(Object address) {
+        int ordinal = ordinalOf(address);
+        return ordinal < 0 ? null : new Account(directory.addressOf(ordinal), balance(ordinal));
+    }
+
+    /**
+     * Returns the ordinal of an account address.
+     * @param address   The account address.
+     * @return          The ordinal, or -1 if the account does not exist in this version of the state.
+     */
+    public int ordinalOf(Object address) {
+        int ordinal = directory.ordinalOf(address);
+        // The account may have been created after this version of the state.
+        return ordinal < size ? ordinal : -1;
+    }
+
+    /**
+     * Returns the address of the account with the given ordinal.
+     */
+    public String addressOf(int ordinal) {
+        return directory.addressOf(ordinal);
+    }
+
+    /**
+     * Returns the balance of the account with the given ordinal. For an editable version, the caller must hold the
+     * lock it changes the account's balance under.
+     */
+    public long balance(int ordinal) {
+        return leafOf(ordinal).balances[ordinal & MASK];
+    }
+
+    /**
+     * Creates a new account with a balance of 0 and adds it to this version of the state.
+     * @param address   The unique account address.
+     * @return          The ordinal of the new account.
+     */
+    synchronized int create(String address) {
+        checkEditable();
+        if (directory.ordinalOf(address) >= 0) {
+            throw new IllegalArgumentException("Account " + address + " already exists.");
+        }
+        int ordinal = directory.add(address);
+        if (ordinal != size) {
+            // Ordinals are shared by every version, so only the newest version may create accounts.
+            throw new IllegalStateException("Account state is not the newest version.");
+        }
+        append(0);
+        return ordinal;
+    }
+
+    /**
+     * Returns a frozen version of the state with the given balances, for the accounts with ordinals 0 to
+     * balances.length - 1. Used to restore the state of an archived block.
+     * @param balances  The balances, by ordinal.
+     * @return          The frozen state.
+     */
+    AccountState restore(long[] balances) {
+        AccountState state = new AccountState(directory, null, 0, 0);
+        for (long balance : balances) {
+            state.append(balance);
+        }
+        state.edit = null;
+        return state;
+    }
+
+    /**
+     * Returns a frozen version of this frozen state with some balances changed. Accounts are added with a balance
+     * of 0 until the new version has the given size, then the balances are set. Used to restore the state of an
+     * archived block from the state of the block before it.
+     * @param size      The number of accounts in the new version.
+     * @param ordinals  The ordinals of the changed accounts.
+     * @param balances  The new balances, in the same order.
+     * @return          The frozen state.
+     */
+    AccountState apply(int size, int[] ordinals, long[] balances) {
+        if (!isFrozen()) {
+            throw new IllegalStateException("Only a frozen account state can be the base of another version.");
+        }
+        AccountState state = fork();
+        while (state.size < size) {
+            state.append(0);
+        }
+        for (int i = 0; i < ordinals.length; i++) {
+            state.setBalance(ordinals[i], balances[i]);
+        }
+        state.edit = null;
+        return state;
+    }
+
+    /**
+     * Adds the account with the next ordinal to the trie, adding a level above the root if the trie is full.
+     */
+    private void append(long balance) {
+        if (size == 1 << (shift + BITS)) {
+            // The trie is full; add a level above the current root.
+            Node newRoot = new Node(edit, shift + BITS, null);
+            newRoot.children[0] = root;
+            root = newRoot;
+            shift += BITS;
+        }
+        size++;
+        setBalance(size - 1, balance);
+    }
+
+    /**
+     * Sets the balance of the account with the given ordinal in this version of the state. The trie nodes on the
+     * account's path are copied the first time they are changed after the state was forked; after that, the
+     * balance is written without locking. Changes to the same account must be serialized by the caller.
+     * @param ordinal   The account ordinal.
+     * @param balance   The new balance.
+     */
+    void setBalance(int ordinal, long balance) {
+        Object token = edit;
+        if (token == null) {
+            throw new IllegalStateException("Account state is frozen.");
+        }
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("No account with ordinal " + ordinal);
+        }
+        // Nodes owned by this version are never replaced, so a path owned from the root down stays the account's
+        Node node = root;
+        for (int level = shift; level > 0 && node != null && node.owner == token; level -= BITS) {
+            node = node.children[(ordinal >>> level) & MASK];
+        }
+        if (node != null && node.owner == token) {
+            node.balances[ordinal & MASK] = balance;
+        } else {
+            copyPath(ordinal, balance);
+        }
+    }
+
+    /**
+     * Copies the nodes on an account's path that this version does not own yet, then sets its balance.
+     * Helper function to setBalance().
+     */
+    private synchronized void copyPath(int ordinal, long balance) {
+        checkEditable();
+        // Copy on write; the original nodes are still referenced by earlier blocks.
+        root = editable(root);
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            int index = (ordinal >>> level) & MASK;
+            Node child = node.children[index];
+            child = child == null ? new Node(edit, level - BITS, null) : editable(child);
+            node.children[index] = child;
+            node = child;
+        }
+        node.balances[ordinal & MASK] = balance;
+    }
+
+    /**
+     * Returns the authenticated root hash of this version of the state. Nodes that can no longer change, because
+     * they belong to a frozen version, keep their hash once it is computed, so only the nodes changed since the
+     * state was forked are hashed again.
+     * @return  The state root.
+     */
+    public byte[] stateRoot() {
+        if (edit == null) {
+            return hashRoot(size, hash(root, shift, 0, true));
+        }
+        synchronized (this) {
+            return hashRoot(size, hash(root, shift, 0, true));
+        }
+    }
+
+    /**
+     * Computes the state root from the balances alone, ignoring cached node hashes. Used to validate blocks, so
+     * that balances changed after their nodes were hashed are detected.
+     * @return  The state root.
+     */
+    public byte[] computeStateRoot() {
+        if (edit == null) {
+            return hashRoot(size, hash(root, shift, 0, false));
+        }
+        synchronized (this) {
+            return hashRoot(size, hash(root, shift, 0, false));
+        }
+    }
+
+    /**
+     * Hashes a node. A leaf hashes the addresses and balances of its accounts; an inner node hashes the hashes of
+     * its children. Only the accounts in this version are included, so a node shared with a version that has more
+     * accounts hashes the same in both.
+     * @param node      The node.
+     * @param level     The node's level; 0 for a leaf.
+     * @param base      The ordinal of the node's first account.
+     * @param cached    True to use and store the hashes of nodes that can no longer change.
+     * @return          The node's hash.
+     */
+    private byte[] hash(Node node, int level, int base, boolean cached) {
+        // Nodes owned by this version may still be changed in place
+        boolean immutable = cached && (edit == null || node.owner != edit);
+        if (immutable && node.hash != null) {
+            return node.hash;
+        }
+        int count = Math.min(WIDTH, ((size - base - 1) >>> level) + 1);
+        byte[] hash;
+        if (node.balances != null) {
+            Digester digester = Digester.get();
+            digester.putByte(Encoder.STATE_NODE).putByte(Encoder.VERSION).putInt(0).putInt(count);
+            for (int i = 0; i < count; i++) {
+                digester.writeAccount(directory.addressOf(base + i), node.balances[i]);
+            }
+            hash = digester.digest();
+        } else {
+            byte[][] children = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                children[i] = hash(node.children[i], level - BITS, base + (i << level), cached);
+            }
+            hash = hashNode(level, children);
+        }
+        if (immutable) {
+            node.hash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the child hashes of the inner nodes on the path to an account, from the leaf's parent up. The path
+     * node's own slot in each level is null; a verifier fills it with the hash it computes from the level below.
+     * Helper function to BalanceProof.build().
+     * @param ordinal   The account ordinal.
+     * @return          The child hashes of each inner node on the path.
+     */
+    byte[][][] proofPath(int ordinal) {
+        synchronized (this) {
+            byte[][][] levels = new byte[shift / BITS][][];
+            Node node = root;
+            int base = 0;
+            for (int level = shift; level > 0; level -= BITS) {
+                int index = (ordinal >>> level) & MASK;
+                int count = Math.min(WIDTH, ((size - base - 1) >>> level) + 1);
+                byte[][] children = new byte[count][];
+                for (int i = 0; i < count; i++) {
+                    if (i != index) {
+                        children[i] = hash(node.children[i], level - BITS, base + (i << level), true);
+                    }
+                }
+                levels[level / BITS - 1] = children;
+                node = node.children[index];
+                base += index << level;
+            }
+            return levels;
+        }
+    }
+
+    /**
+     * Hashes a leaf from the addresses and balances of its accounts, the same way the state root's leaves are
+     * hashed. Used to verify balance proofs.
+     */
+    static byte[] hashLeaf(String[] addresses, long[] balances) {
+        Digester digester = Digester.get();
+        digester.putByte(Encoder.STATE_NODE).putByte(Encoder.VERSION).putInt(0).putInt(addresses.length);
+        for (int i = 0; i < addresses.length; i++) {
+            digester.writeAccount(addresses[i], balances[i]);
+        }
+        return digester.digest();
+    }
+
+    /**
+     * Hashes an inner node from the hashes of its children.
+     * @param level     The node's level; a multiple of 5 above 0.
+     * @param children  The hashes of the node's children, in order.
+     * @return          The node's hash.
+     */
+    static byte[] hashNode(int level, byte[][] children) {
+        Digester digester = Digester.get();
+        digester.putByte(Encoder.STATE_NODE).putByte(Encoder.VERSION).putInt(level).putInt(children.length);
+        for (byte[] child : children) {
+            digester.putBytes(child);
+        }
+        return digester.digest();
+    }
+
+    /**
+     * Hashes the number of accounts and the hash of the trie's root node into the state root.
+     */
+    static byte[] hashRoot(int size, byte[] rootNode) {
+        Digester digester = Digester.get();
+        digester.putByte(Encoder.STATE_ROOT).putByte(Encoder.VERSION).putInt(size).putBytes(rootNode);
+        return digester.digest();
+    }
+
+    /**
+     * Returns the sum of all balances, scanning the leaves in order.
+     */
+    public long sumBalances() {
+        return sum(root);
+    }
+
+    private static long sum(Node node) {
+        long sum = 0;
+        if (node.balances != null) {
+            for (long balance : node.balances) {
+                sum += balance;
+            }
+        } else {
+            for (Node child : node.children) {
+                if (child != null) {
+                    sum += sum(child);
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the ordinal of the first account with a negative balance, or -1 if there is none.
+     */
+    public int firstNegative() {
+        return firstNegative(root, shift, 0);
+    }
+
+    private static int firstNegative(Node node, int level, int base) {
+        if (node.balances != null) {
+            for (int i = 0; i < WIDTH; i++) {
+                if (node.balances[i] < 0) {
+                    return base + i;
+                }
+            }
+            return -1;
+        }
+        for (int i = 0; i < WIDTH; i++) {
+            if (node.children[i] != null) {
+                int ordinal = firstNegative(node.children[i], level - BITS, base + (i << level));
+                if (ordinal >= 0) {
+                    return ordinal;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Set<Entry<String, Account>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Account>> iterator() {
+                return new Iterator<>() {
+                    private int ordinal = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return ordinal < size;
+                    }
+
+                    @Override
+                    public Entry<String, Account> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        String address = directory.addressOf(ordinal);
+                        Account account = new Account(address, balance(ordinal++));
+                        return new SimpleImmutableEntry<>(address, account);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private Node leafOf(int ordinal) {
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = node.children[(ordinal >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Node editable(Node node) {
+        if (node.owner == edit) {
+            return node;
+        }
+        return new Node(edit, node.balances != null ? 0 : BITS, node);
+    }
+
+    private void checkEditable() {
+        if (edit == null) {
+            throw new IllegalStateException("Account state is frozen.");
+        }
+    }
+
+    /**
+     * Serializes the state as the addresses and balances of its accounts, so that the serialized form only
+     * depends on the accounts in this version.
+     */
+    private Object writeReplace() {
+        return new SerializedState(this);
+    }
+
+    /**
+     * Serialized form of a version of the state: its accounts' addresses and balances in ordinal order. It is
+     * read back as a frozen state with a directory of its own.
+     */
+    private static final class SerializedState implements Serializable {
+        private final String[] addresses;
+        private final long[] balances;
+
+        SerializedState(AccountState state) {
+            synchronized (state) {
+                addresses = new String[state.size];
+                balances = new long[state.size];
+                for (int ordinal = 0; ordinal < state.size; ordinal++) {
+                    addresses[ordinal] = state.directory.addressOf(ordinal);
+                    balances[ordinal] = state.balance(ordinal);
+                }
+            }
+        }
+
+        private Object readResolve() {
+            AccountState state = new AccountState();
+            for (int ordinal = 0; ordinal < addresses.length; ordinal++) {
+                state.setBalance(state.create(addresses[ordinal]), balances[ordinal]);
+            }
+            state.edit = null;
+            return state;
+        }
+    }
+
+    /**
+     * Trie node. Leaves hold the balances of WIDTH consecutive ordinals; inner nodes hold child nodes.
+     * The owner is the edit token of the only version allowed to change the node in place. A copy is filled in the
+     * constructor, so its contents are visible through its final fields to threads that read it without locking.
+     */
+    private static final class Node {
+        final Object owner;
+        final Node[] children;
+        final long[] balances;
+        // Merkle hash of the node, set once the node can no longer change
+        volatile byte[] hash;
+
+        /**
+         * @param source    The node to copy, or null for an empty node.
+         */
+        Node(Object owner, int level, Node source) {
+            this.owner = owner;
+            if (level == 0) {
+                this.children = null;
+                this.balances = source == null ? new long[WIDTH] : source.balances.clone();
+            } else {
+                this.children = source == null ? new Node[WIDTH] : source.children.clone();
+                this.balances = null;
+            }
+        }
+    }
+
+    /**
+     * Append-only dictionary of addresses and their dense ordinals, shared by all versions of an account state.
+     * Read concurrently by all versions: lookups by address go through a ConcurrentHashMap, and an address is
+     * stored in the array before its ordinal is published in the map.
+     */
+    private static final class Directory {
+        private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+        private volatile String[] addresses = new String[WIDTH];
+
+        int ordinalOf(Object address) {
+            if (address == null) {
+                return -1;
+            }
+            Integer ordinal = ordinals.get(address);
+            return ordinal == null ? -1 : ordinal;
+        }
+
+        String addressOf(int ordinal) {
+            return addresses[ordinal];
+        }
+
+        synchronized int add(String address) {
+            int ordinal = ordinals.size();
+            if (ordinal == addresses.length) {
+                addresses = Arrays.copyOf(addresses, ordinal * 2);
+            }
+            addresses[ordinal] = address;
+            ordinals.put(address, ordinal);
+            return ordinal;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.util.Arrays;
+
+/**
+ * Proof of an account's balance as of a block: the addresses and balances of the accounts in the account's leaf
+ * of the state trie, the child hashes of the trie nodes on the path from the leaf to the block's state root, and
+ * the block header fields. A balance can be verified with verify() in O(log32(accounts)) node hashes, without the
+ * block's other accounts or transactions. As with a MerkleProof, the verifier must trust the proof's block hash,
+ * for example by comparing it to the chain.
+ */
+public class BalanceProof {
+    private final String address;
+    private final long balance;
+    private final int blockNumber;
+    private final String previousHash;
+    private final byte[] merkleRoot;
+    private final byte[] stateHash;
+    private final SealingPolicy policy;
+    private final String blockHash;
+    // Number of accounts in the block's state
+    private final int accounts;
+    // The account's ordinal, which gives its position in each node on the path
+    private final int ordinal;
+    // The accounts in the leaf holding the account
+    private final String[] leafAddresses;
+    private final long[] leafBalances;
+    // Child hashes of the inner nodes on the path, from the leaf's parent up; the path's own slot is null
+    private final byte[][][] levels;
+
+    private BalanceProof(String address, long balance, Block block, int accounts, int ordinal, String[] leafAddresses,
+                         long[] leafBalances, byte[][][] levels) {
+        this.address = address;
+        this.balance = balance;
+        this.blockNumber = block.getBlockNumber();
+        this.previousHash = block.getPreviousHash();
+        this.merkleRoot = block.getMerkleRoot();
+        this.stateHash = block.getStateHash();
+        this.policy = block.getSealingPolicy();
+        this.blockHash = block.getHash();
+        this.accounts = accounts;
+        this.ordinal = ordinal;
+        this.leafAddresses = leafAddresses;
+        this.leafBalances = leafBalances;
+        this.levels = levels;
+    }
+
+    /**
+     * Builds the proof of an account's balance in a sealed block. Throws a LedgerException if the account is not
+     * in the block.
+     * @param block     The sealed block.
+     * @param address   The account address.
+     * @return          The balance proof.
+     */
+    public static BalanceProof build(Block block, String address) {
+        AccountState state = block.accountBalanceMap;
+        int ordinal = state.ordinalOf(address);
+        if (ordinal < 0) {
+            throw new LedgerException("get balance proof", "Account " + address +
+                    " does not exist or has not been added to the ledger yet.");
+        }
+        int base = ordinal & ~AccountState.MASK;
+        int count = Math.min(AccountState.WIDTH, state.size() - base);
+        String[] leafAddresses = new String[count];
+        long[] leafBalances = new long[count];
+        for (int i = 0; i < count; i++) {
+            leafAddresses[i] = state.addressOf(base + i);
+            leafBalances[i] = state.balance(base + i);
+        }
+        return new BalanceProof(address, leafBalances[ordinal - base], block, state.size(), ordinal, leafAddresses,
+                leafBalances, state.proofPath(ordinal));
+    }
+
+    /**
+     * Verifies that an account had the proof's balance in the block described by the proof: hashes the leaf,
+     * combines it with the child hashes up the path into the state root, and checks that the state root and the
+     * header fields hash to the proof's block hash.
+     * @param proof The balance proof.
+     * @param seed  The seed of the ledger.
+     * @return      True if the proof shows the account had the balance in the block.
+     */
+    public static boolean verify(BalanceProof proof, String seed) {
+        int leafIndex = proof.ordinal & AccountState.MASK;
+        if (leafIndex >= proof.leafAddresses.length || !proof.address.equals(proof.leafAddresses[leafIndex])
+                || proof.balance != proof.leafBalances[leafIndex]) {
+            return false;
+        }
+        byte[] node = AccountState.hashLeaf(proof.leafAddresses, proof.leafBalances);
+        for (int i = 0; i < proof.levels.length; i++) {
+            int level = AccountState.BITS * (i + 1);
+            int index = (proof.ordinal >>> level) & AccountState.MASK;
+            byte[][] children = proof.levels[i].clone();
+            if (index >= children.length) {
+                return false;
+            }
+            children[index] = node;
+            node = AccountState.hashNode(level, children);
+        }
+        if (!Arrays.equals(AccountState.hashRoot(proof.accounts, node), proof.stateHash)) {
+            return false;
+        }
+        Digester header = Digester.get();
+        header.writeHeader(proof.blockNumber, proof.previousHash, proof.merkleRoot, proof.stateHash, proof.policy,
+                seed);
+        return Digester.toHex(header.digest()).equals(proof.blockHash);
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    public int getBlockNumber() {
+        return blockNumber;
+    }
+
+    public String getPreviousHash() {
+        return previousHash;
+    }
+
+    public String getMerkleRoot() {
+        return Digester.toHex(merkleRoot);
+    }
+
+    public String getStateHash() {
+        return Digester.toHex(stateHash);
+    }
+
+    public String getBlockHash() {
+        return blockHash;
+    }
+
+    /**
+     * Returns the number of accounts in the leaf the proof carries, at most 32.
+     */
+    public int getLeafSize() {
+        return leafAddresses.length;
+    }
+
+    /**
+     * Returns the number of inner trie levels between the account's leaf and the state root.
+     */
+    public int getPathLength() {
+        return levels.length;
+    }
+}
@@ -1,50 +1,176 @@
 package com.cscie97.ledger;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Fundamental unit of the blockchain. Blocks have a unique block number, contain a list of Transaction
- * objects of size <transactions per block>, the hash of the previous block in the blockchain, a pointer
- * to the previous block, and a map of account balances that represents the balances and accounts as they
- * were at the time the block reached its transaction limit and was added to the blockchain. Each block
- * is hashed when it is added to the chain and its hash field is updated, making the transactions and account
- * balances stored in the block immutable.
+ * Fundamental unit of the blockchain. Blocks have a unique block number, contain a list of transactions, the
+ * hash of the previous block in the blockchain, a pointer to the previous block, the sealing policy that decided
+ * when the block was full, and a map of account balances that represents the balances and accounts as they were
+ * at the time the block was sealed and added to the blockchain. The account map is an AccountState forked from
+ * the previous block's, so unchanged accounts are shared between blocks. Each block is hashed when it is added to
+ * the chain and its hash field is updated, making the transactions and account balances stored in the block
+ * immutable. Once sealed, the block's transactions are packed off the heap into a read-only PackedTransactions,
+ * read through TransactionViews.
  */
 public class Block implements Serializable {
     private final int blockNumber;
-    private final String previousHash;
+    // Set by the sealer once the previous block has been hashed
+    private String previousHash;
     private String hash;
-    List<Transaction> transactionList;
-    public Map<String, Account> accountBalanceMap;
-    public final Block previousBlock;
-    public Block (int blockNumber, String previousHash, String hash, List<Transaction> transactionList,
-                  Map<String, Account> accountBalanceMap, Block previousBlock) {
+    // Packed off the heap when the block is sealed; see pack()
+    volatile List<TransactionView> transactionList;
+    public final AccountState accountBalanceMap;
+    // Decides when the block is full; part of the block's hash
+    private final SealingPolicy policy;
+    // Encoded size of the transactions, in bytes
+    private long bytes;
+    // Totals of the transactions' amounts and fees, and the smallest and largest amount, kept as they are added
+    private long totalAmount;
+    private long totalFees;
+    private int minAmount = Integer.MAX_VALUE;
+    private int maxAmount = Integer.MIN_VALUE;
+    // Summary of the block recorded when it was sealed
+    transient volatile BlockSummary summary;
+    // System.nanoTime() when the first transaction was added, for the policy's time limit
+    transient long openedAt;
+    // Policy of the block after this one, in effect when this block was committed; kept for snapshots
+    transient SealingPolicy nextPolicy;
+    // Link to the previous block; cut when the previous block is archived so that it can be garbage collected
+    private volatile Block previousBlock;
+    // Merkle tree of the transactions added so far; each transaction is hashed as it is added. Released when the
+    // block is packed
+    private transient MerkleAccumulator merkleTree = new MerkleAccumulator();
+    // Hash of the account balances, kept from sealing for inclusion proofs
+    private transient byte[] stateHash;
+    // Merkle root of the transactions, kept from sealing for block notifications; computed when first needed for
+    // blocks read back from an archive
+    private transient volatile byte[] merkleRoot;
+    // Fees owed to the master account by the block's transactions; added to master's balance when the block
+    // is committed, so that concurrent transactions do not all contend for the master account
+    final transient LongAdder pendingFees = new LongAdder();
+    // Journal position just after the block's last transaction record; set when the block is full
+    transient long journalPosition;
+    // Completed with the block once it has been sealed and added to the chain
+    final transient CompletableFuture<Block> sealed = new CompletableFuture<>();
+    public Block (int blockNumber, String previousHash, String hash, List<TransactionView> transactionList,
+                  AccountState accountBalanceMap, Block previousBlock) {
+        this(blockNumber, previousHash, hash, transactionList, accountBalanceMap, previousBlock,
+                SealingPolicy.DEFAULT);
+    }
+
+    public Block (int blockNumber, String previousHash, String hash, List<TransactionView> transactionList,
+                  AccountState accountBalanceMap, Block previousBlock, SealingPolicy policy) {
 
         this.blockNumber = blockNumber;
         this.previousHash = previousHash;
         this.hash = hash;
         this.transactionList = transactionList;
-        this.accountBalanceMap = new HashMap<>();
-        // Create deep copy of accountBalanceMap so the previous block's map is not altered in future transactions
-        for (Map.Entry<String, Account> entry : accountBalanceMap.entrySet()) {
-            String address = entry.getKey();
-            Account originalAccount = entry.getValue();
-            Account copiedAccount = new Account(originalAccount.getAddress(), originalAccount.getBalance());
-            this.accountBalanceMap.put(address, copiedAccount);
+        this.policy = policy;
+        for (TransactionView transaction : transactionList) {
+            merkleTree.add(Digester.hash(transaction));
+            count(transaction);
         }
+        // Fork the account state so the previous block's accounts are not altered in future transactions
+        this.accountBalanceMap = accountBalanceMap.fork();
         this.previousBlock = previousBlock;
     }
 
+    /**
+     * Creates a sealed block read back from a block archive. The account state is used as is, and the block is
+     * not linked to its previous block.
+     * @param stateHash The hash of the account balances computed when the block was sealed.
+     */
+    Block(int blockNumber, String previousHash, String hash, List<TransactionView> transactionList, byte[] stateHash,
+          SealingPolicy policy, AccountState accountBalanceMap) {
+        this.blockNumber = blockNumber;
+        this.previousHash = previousHash;
+        this.hash = hash;
+        this.transactionList = transactionList;
+        this.policy = policy;
+        for (TransactionView transaction : transactionList) {
+            count(transaction);
+        }
+        this.accountBalanceMap = accountBalanceMap;
+        this.stateHash = stateHash;
+        this.sealed.complete(this);
+    }
+
     void add (Transaction transaction) {
+        add(transaction, Digester.hash(transaction));
+    }
+    void add (Transaction transaction, byte[] transactionHash) {
+        if (transactionList.isEmpty()) {
+            openedAt = System.nanoTime();
+        }
         transactionList.add(transaction);
+        merkleTree.add(transactionHash);
+        count(transaction);
     }
     void delete(Transaction transaction) {
         transactionList.remove(transaction);
+        // Leaves cannot be removed from the accumulator, so rebuild it from the remaining transactions
+        merkleTree = new MerkleAccumulator();
+        bytes = 0;
+        totalAmount = 0;
+        totalFees = 0;
+        minAmount = Integer.MAX_VALUE;
+        maxAmount = Integer.MIN_VALUE;
+        for (TransactionView remaining : transactionList) {
+            merkleTree.add(Digester.hash(remaining));
+            count(remaining);
+        }
+    }
+
+    /**
+     * Adds a transaction to the block's size and totals.
+     */
+    private void count(TransactionView transaction) {
+        bytes += Encoder.sizeOf(transaction);
+        totalAmount += transaction.getAmount();
+        totalFees += transaction.getFee();
+        minAmount = Math.min(minAmount, transaction.getAmount());
+        maxAmount = Math.max(maxAmount, transaction.getAmount());
+    }
+
+    /**
+     * Returns true if the block holds as many transactions or bytes as its sealing policy allows.
+     */
+    boolean isFull() {
+        return policy.isFull(transactionList.size(), bytes);
+    }
+
+    public SealingPolicy getSealingPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the encoded size of the block's transactions, in bytes.
+     */
+    public long getByteSize() {
+        return bytes;
+    }
+
+    /**
+     * Returns the summary of the block's transactions. For a block that was sealed by this ledger, the summary
+     * holds the time the block was sealed; for a block that was not, such as one still being filled, the seal
+     * time is 0.
+     */
+    public BlockSummary getSummary() {
+        BlockSummary sealedSummary = summary;
+        return sealedSummary != null ? sealedSummary : summarize(0);
+    }
+
+    /**
+     * Summarizes the block's transactions from the totals kept as they were added.
+     * @param sealedAt  The time the block was sealed, in milliseconds since the epoch.
+     * @return          The summary.
+     */
+    BlockSummary summarize(long sealedAt) {
+        return new BlockSummary(blockNumber, blockNumber, transactionList.size(), totalAmount, totalFees,
+                minAmount, maxAmount, sealedAt, sealedAt);
     }
 
     public int getBlockNumber() {
@@ -55,127 +181,106 @@ public class Block implements Serializable {
         return previousHash;
     }
 
+    void setPreviousHash(String previousHash) {
+        this.previousHash = previousHash;
+    }
+
     public String getHash() {
         return hash;
     }
 
+    /**
+     * Returns the previous block, or null for the genesis block, the block a ledger was restored from, and
+     * blocks whose previous block has been archived.
+     */
+    public Block getPreviousBlock() {
+        return previousBlock;
+    }
+
+    void detachPreviousBlock() {
+        this.previousBlock = null;
+    }
+
     public void setHash(String hash) {
         this.hash = hash;
     }
 
     /**
-     * Hashes the block that calls it. The hash is formatted into a hex string.
-     * The hash is computed using all the fields and associations of the block, and the seed
-     * of the ledger. Because the previous block's hash is one of the block's fields, changes
-     * made to any previous block will cascade along the chain.
+     * Computes the block's hash from the Merkle root accumulated as transactions were added, and sets it.
+     * Called when the block is added to the chain; only the final log2(n) Merkle combines are left to do, and
+     * only the account trie nodes changed since the previous block are hashed for the state root.
      * @param seed  The seed used when the ledger was created.
      * @return      The hash string in hex format.
      */
-    public String hashBlock(String seed) {
-        List<String> hashList = new ArrayList<>();
-        // Iterate through the transaction list and hash all the Transaction objects.
-        for (Transaction transaction : this.transactionList) {
-            hashList.add(computeHash(transaction));
-        }
-
-        // Get the Merkle hash of the transactions and the hashes for the other block fields.
-        String transactionHash = merkleTree(hashList).toString();
-        String accountHash = computeHash(this.accountBalanceMap);
-        String prevBlockHash = computeHash(this.previousBlock);
-        String seedHash = computeHash(seed);
-        // Concatenate the hash strings and hash them all together.
-        String combinedString = this.getBlockNumber() + this.getPreviousHash()
-                + transactionHash + accountHash + prevBlockHash + seedHash;
-        return computeHash(combinedString);
+    public String seal(String seed) {
+        this.stateHash = accountBalanceMap.stateRoot();
+        this.merkleRoot = merkleTree.root();
+        this.hash = hashHeader(merkleRoot, stateHash, seed);
+        return hash;
     }
 
     /**
-     * Hashes the given object by serializing it. Uses the SHA-256 algorithm.
-     * Helper function to hashBlock().
-     * Referenced: https://www.tutorialspoint.com/java/java_serialization.htm,
-     *             https://www.tutorialspoint.com/java_cryptography/java_cryptography_message_digest.htm
-     * @param object    A serializable object.
-     * @return          The hash of the object formatted as a hex string.
+     * Replaces the sealed block's transaction list with a read-only PackedTransactions, which keeps the
+     * transactions off the heap, and releases the Merkle accumulator. The block's hash and totals are not
+     * changed; transactions read from the block afterwards are flyweight views of the packed records.
      */
-    public <T> String computeHash(T object) {
-        // Try to create the message digest object instance
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
-
-        // Serialize the object into a byte array using the helper function
-        md.update(getByteArray(object));
-        byte[] hash = md.digest();
-        // format the hash as a hex string and return it
-        HexFormat format = HexFormat.of();
-        return format.formatHex(hash);
+    void pack() {
+        transactionList = PackedTransactions.pack(transactionList, accountBalanceMap);
+        merkleTree = null;
     }
 
     /**
-     * Serializes the input object into a byte array.
-     * Helper function to hashBlock().
-     * Referenced: https://www.tutorialspoint.com/java/java_serialization.htm,
-     *             https://www.tutorialspoint.com/java_cryptography/java_cryptography_message_digest.htm
-     * @param object    Any serializable object.
-     * @return          The object in byte array form.
+     * Returns the number of off-heap bytes holding the block's transactions, or 0 if they have not been packed.
      */
-    public <T> byte[] getByteArray(T object) {
-        try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(bos);
-            oos.writeObject(object);
-            oos.flush();
-            oos.close();
-            byte[] byteArray = bos.toByteArray();
-            bos.close();
-            return byteArray;
-        } catch (java.io.IOException e) {
-            System.out.println("Serialization error");
-            System.exit(1);
-            return null; // Should never reach here
-        }
+    public long getPackedByteSize() {
+        List<TransactionView> transactions = transactionList;
+        return transactions instanceof PackedTransactions ? ((PackedTransactions) transactions).getByteSize() : 0;
     }
 
     /**
-     * Hashes transactions (that were already hashed and put into the hashesList) together in pairs where pairs
-     * are adjacent list members. For example, hashesList[0] + hashesList[1] are concatenated and the resulting string
-     * is then hashed again. This is repeated until all the list members have been hashed together into one root hash,
-     * forming a Merkle tree.
-     * Helper function to hashBlock().
-     * Adapted from Vinay Prabhu's article on Merkel trees, Medium, 2019
-     *   https://medium.com/@vinayprabhu19/merkel-tree-in-java-b45093c8c6bd#:~:text=Merkel%20Tree%20is%20built%20by,the%20transaction%20has%20been%20modified.
-     * @param hashesList    A list of strings representing hashed Transaction objects.
-     * @return              The root node hash of the Merkle tree.
+     * Returns the Merkle root of the sealed block's transactions.
      */
-
-    public List<String> merkleTree(List<String> hashesList) {
-        // Base case; the tree has been constructed so return the root node
-        if (hashesList.size() == 1) {
-            return hashesList;
+    byte[] getMerkleRoot() {
+        byte[] root = merkleRoot;
+        if (root == null) {
+            root = MerkleAccumulator.root(transactionList);
+            merkleRoot = root;
         }
+        return root;
+    }
 
-        // Concatenate pairs of adjacent hashes and hash the resulting string
-        // After the loop executes the tree will have a new layer closer to the root
-        List<String> combinedHashes = new ArrayList<>();
-        for (int i = 0; i < hashesList.size(); i += 2) {
-            try {
-                String combinedHash = computeHash(hashesList.get(i) + hashesList.get(i + 1));
-                combinedHashes.add(combinedHash);
-            } catch (IndexOutOfBoundsException e) {
-                break;
-            }
-        }
+    /**
+     * Returns the state root of the account balances computed when the block was sealed, or null if it has not
+     * been.
+     */
+    byte[] getStateHash() {
+        return stateHash;
+    }
 
-        // When there are an odd number of hashes in the list we carry the odd hash out
-        // on to the next layer in the tree to be concatenated and re-hashed later on
-        if (hashesList.size() % 2 == 1) {
-            combinedHashes.add(hashesList.get(hashesList.size() - 1));
-        }
+    /**
+     * Hashes the block that calls it. The hash is formatted into a hex string.
+     * The hash is computed over the block header: the block number, the previous block's hash, the Merkle root
+     * of the transactions, the state root of the account balances, the sealing policy, and the seed of the ledger.
+     * Because the previous block's hash is part of the header, changes made to any previous block will cascade
+     * along the chain, while the cost of hashing a block does not depend on the length of the chain behind it.
+     * Unlike seal(), every transaction and account is re-hashed, so the result reflects the block's current
+     * contents.
+     * @param seed  The seed used when the ledger was created.
+     * @return      The hash string in hex format.
+     */
+    public String hashBlock(String seed) {
+        // Hash all the transactions into a new Merkle tree; the leaves of large blocks are hashed in parallel.
+        return hashHeader(MerkleAccumulator.root(this.transactionList), accountBalanceMap.computeStateRoot(), seed);
+    }
 
-        // Recursively construct the Merkle tree
-        return merkleTree(combinedHashes);
+    /**
+     * Hashes the header fields together: the block number, previous hash, Merkle root, hash of the
+     * account balances, sealing policy, and seed.
+     * Helper function to hashBlock() and seal().
+     */
+    private String hashHeader(byte[] merkleRoot, byte[] accountHash, String seed) {
+        Digester header = Digester.get();
+        header.writeHeader(this.getBlockNumber(), this.getPreviousHash(), merkleRoot, accountHash, policy, seed);
+        return Digester.toHex(header.digest());
     }
 }
@@ -0,0 +1,21 @@
+package com.cscie97.ledger;
+
+/**
+ * Receives notifications of sealed blocks from a BlockSubscription. Each subscription calls its listener from its
+ * own delivery thread, one block at a time in chain order, so a slow listener only delays its own subscription.
+ */
+public interface BlockListener {
+    /**
+     * Called once for each sealed block, in chain order.
+     * @param notice    The block's header, Merkle root, transactions, and changed account balances.
+     */
+    void blockSealed(BlockNotice notice);
+
+    /**
+     * Called instead of blockSealed() for blocks that could no longer be read when the subscription reached them,
+     * such as blocks restored from a snapshot rather than replayed.
+     * @param fromBlock The first block number skipped.
+     * @param toBlock   The last block number skipped.
+     */
+    void blocksSkipped(int fromBlock, int toBlock);
+}
@@ -0,0 +1,98 @@
+package com.cscie97.ledger;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Notification of a sealed block delivered to a BlockListener: the block header, the Merkle root of its
+ * transactions, the transactions themselves, and the balances, as of the block, of the accounts the block changed.
+ * An account is changed by a block if it paid or received one of the block's transactions, or was created in it;
+ * the master account is changed by every block with transactions, since it receives their fees.
+ */
+public class BlockNotice {
+    private final int blockNumber;
+    private final String hash;
+    private final String previousHash;
+    private final String merkleRoot;
+    private final List<TransactionView> transactions;
+    private final long byteSize;
+    private final Map<String, Long> changedBalances;
+
+    /**
+     * Creates the notice of a sealed block.
+     * @param block             The sealed block.
+     * @param previousAccounts  The number of accounts in the previous block, or -1 if it is not known, in which case
+     *                          accounts created in the block are only included if a transaction changed them.
+     */
+    BlockNotice(Block block, int previousAccounts) {
+        this.blockNumber = block.getBlockNumber();
+        this.hash = block.getHash();
+        this.previousHash = block.getPreviousHash();
+        this.merkleRoot = Digester.toHex(block.getMerkleRoot());
+        this.transactions = Collections.unmodifiableList(block.transactionList);
+        this.byteSize = block.getByteSize();
+
+        // Collect the changed accounts by ordinal, so they are listed in creation order without sorting
+        AccountState accounts = block.accountBalanceMap;
+        BitSet changed = new BitSet(accounts.size());
+        for (TransactionView transaction : transactions) {
+            changed.set(accounts.ordinalOf(transaction.getPayerAddress()));
+            changed.set(accounts.ordinalOf(transaction.getReceiverAddress()));
+        }
+        if (!transactions.isEmpty()) {
+            changed.set(accounts.ordinalOf(Ledger.MASTER));
+        }
+        if (previousAccounts >= 0) {
+            changed.set(previousAccounts, accounts.size());
+        }
+        Map<String, Long> balances = new LinkedHashMap<>();
+        for (int ordinal = changed.nextSetBit(0); ordinal >= 0; ordinal = changed.nextSetBit(ordinal + 1)) {
+            balances.put(accounts.addressOf(ordinal), accounts.balance(ordinal));
+        }
+        this.changedBalances = Collections.unmodifiableMap(balances);
+    }
+
+    public int getBlockNumber() {
+        return blockNumber;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getPreviousHash() {
+        return previousHash;
+    }
+
+    /**
+     * Returns the Merkle root of the block's transactions in hex format.
+     */
+    public String getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    /**
+     * Returns the block's transactions, in the order they were accepted.
+     */
+    public List<TransactionView> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Returns the encoded size of the block's transactions, in bytes.
+     */
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    /**
+     * Returns the balances of the accounts the block changed, as of the block, in account creation order.
+     * @return  A read-only map of account addresses to balances.
+     */
+    public Map<String, Long> getChangedBalances() {
+        return changedBalances;
+    }
+}
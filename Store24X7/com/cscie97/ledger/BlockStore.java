@@ -0,0 +1,620 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Tiered storage of a ledger's sealed blocks. Recent blocks are kept hot on the heap. Once an archive is enabled,
+ * blocks older than the hot window are encoded to compact segment files and evicted from the heap: the block's
+ * header and sealing policy, its account balances, and its transactions. Balances are stored by ordinal (the
+ * ledger's account directory already holds the addresses), and only the balances the block changed are stored:
+ * those of its payers and receivers and of the master account. Every CHECKPOINT_INTERVAL blocks, and after a gap
+ * in the archive, a block stores all of its balances instead, so the state of an archived block is rebuilt from
+ * the nearest checkpoint, or cached block, before it by applying at most that many sets of changes. Reading an
+ * archived block faults it back in through a size-bounded LRU cache; cache hits and misses are counted.
+ * Segments left by an earlier run are indexed and reused when the archive is enabled again. An archived block
+ * is only written again if the chain has a different block with its number; the new record supersedes it and
+ * every record after it. A torn record at the end of the last segment is discarded.
+ */
+public class BlockStore implements Closeable {
+    public static final byte BLOCK = 'K';
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+    // Every block whose number is a multiple of this stores all of its balances
+    public static final int CHECKPOINT_INTERVAL = 16;
+    private static final int BUFFER_SIZE = 64 << 10;
+    private static final String SEGMENT_PREFIX = "blocks-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Map<Integer, Block> hot = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // State of the newest block; every version of the state shares the ledger's account directory
+    private volatile AccountState newestState;
+    // Number of the oldest block that may still be hot; 0 until a block has been added
+    private volatile int oldestHot;
+
+    // Archive; the directory is null until an archive is enabled
+    private Path directory;
+    private int hotBlocks;
+    private long segmentSize;
+    private Map<Integer, Block> cache;
+    private final Map<Integer, FileChannel> segments = new HashMap<>();
+    private FileChannel channel;
+    private ChannelEncoder writer;
+    private int segmentNumber;
+    // Number of the block in the first slot of the archive, and the position and length of the record of each
+    // slot's block; a length of 0 marks a block that is not archived
+    private int firstArchived;
+    private long[] positions = new long[0];
+    private int[] lengths = new int[0];
+    private int slots;
+    // Number of slots that hold a record
+    private int archived;
+
+    /**
+     * Adds a sealed block to the hot tier.
+     */
+    void put(Block block) {
+        hot.put(block.getBlockNumber(), block);
+        newestState = block.accountBalanceMap;
+        if (oldestHot == 0) {
+            oldestHot = block.getBlockNumber();
+        }
+    }
+
+    /**
+     * Sets the account state archived blocks are read with before any block has been added: the state of the
+     * snapshot a ledger was restored from.
+     */
+    void setNewestState(AccountState state) {
+        newestState = state;
+    }
+
+    /**
+     * Returns the sealed block with the given number, reading it from the archive if it is cold.
+     * @param blockNumber   The block number.
+     * @return              The block, or null if there is no such sealed block.
+     */
+    public Block get(int blockNumber) {
+        Block block = hot.get(blockNumber);
+        if (block != null) {
+            return block;
+        }
+        synchronized (this) {
+            if (slot(blockNumber) < 0) {
+                return null;
+            }
+        }
+        synchronized (cache) {
+            block = cache.get(blockNumber);
+        }
+        if (block != null) {
+            hits.increment();
+            return block;
+        }
+        misses.increment();
+        block = read(blockNumber);
+        if (block == null) {
+            // Superseded while it was being looked up
+            return null;
+        }
+        synchronized (cache) {
+            cache.put(blockNumber, block);
+        }
+        return block;
+    }
+
+    /**
+     * Enables the archive: blocks more than hotBlocks behind the newest sealed block are written to segment
+     * files in the given directory and evicted from the heap. Segment files already in the directory are indexed,
+     * and their blocks are reused as far as they match the chain.
+     * @param directory     The directory to write archive segments to.
+     * @param hotBlocks     The number of most recent blocks kept on the heap; at least 1.
+     * @param cacheSize     The maximum number of archived blocks kept in the LRU cache.
+     * @param segmentSize   Segments are closed and a new one started once they reach this size in bytes.
+     */
+    synchronized void enableArchive(Path directory, int hotBlocks, int cacheSize, long segmentSize) {
+        if (this.directory != null) {
+            throw new LedgerException("enable archive", "The block archive is already enabled.");
+        }
+        if (hotBlocks < 1 || cacheSize < 0) {
+            throw new LedgerException("enable archive", "At least one block must be kept hot.");
+        }
+        try {
+            Files.createDirectories(directory);
+            this.directory = directory;
+            this.hotBlocks = hotBlocks;
+            this.segmentSize = segmentSize;
+            this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+            List<Path> files = segmentFiles(directory);
+            if (files.isEmpty()) {
+                segmentNumber = 1;
+                openSegment();
+            } else {
+                long end = 0;
+                for (int i = 0; i < files.size(); i++) {
+                    segmentNumber = segmentNumber(files.get(i));
+                    end = index(files.get(i));
+                    if (end < Files.size(files.get(i))) {
+                        // A record was torn by a crash; drop it and everything after it
+                        for (Path later : files.subList(i + 1, files.size())) {
+                            Files.delete(later);
+                        }
+                        break;
+                    }
+                }
+                channel = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.WRITE);
+                channel.truncate(end);
+                channel.position(end);
+            }
+            writer = new ChannelEncoder(channel, BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new LedgerException("enable archive", e.getMessage());
+        }
+        if (oldestHot == 0) {
+            oldestHot = hot.keySet().stream().min(Integer::compare).orElse(0);
+        }
+    }
+
+    /**
+     * Archives the blocks that have fallen out of the hot window behind the given newest sealed block.
+     * Does nothing if the archive is not enabled.
+     * @param newestBlock   The number of the newest sealed block.
+     */
+    synchronized void evict(int newestBlock) {
+        if (directory == null || oldestHot == 0) {
+            // Nothing to archive
+            return;
+        }
+        for (int next = oldestHot; next <= newestBlock - hotBlocks; next = oldestHot) {
+            Block block = hot.get(next);
+            if (block == null) {
+                return;
+            }
+            archive(block);
+            hot.remove(next);
+            oldestHot = next + 1;
+            // Cut the link from the next block, so the archived block can be garbage collected
+            Block following = hot.get(next + 1);
+            if (following != null) {
+                following.detachPreviousBlock();
+            }
+        }
+    }
+
+    /**
+     * Encodes a block to the current segment and records its position, unless the archive already holds it.
+     */
+    private void archive(Block block) {
+        int blockNumber = block.getBlockNumber();
+        int slot = blockNumber - firstArchived;
+        if (slots > 0 && slot >= 0 && slot < slots) {
+            if (lengths[slot] > 0 && header(slot).getHash().equals(block.getHash())) {
+                // Archived by an earlier run
+                return;
+            }
+            // The record, and every record after it, belongs to a different chain
+            truncate(slot);
+        }
+        // Without the previous block's record, the block's balances cannot be stored as changes
+        boolean checkpoint = slots == 0 || slot != slots || lengths[slot - 1] == 0 ||
+                blockNumber % CHECKPOINT_INTERVAL == 0;
+        try {
+            long offset = channel.position();
+            long start = writer.written();
+            writer.beginChecksum();
+            writer.putByte(BLOCK).putByte(Encoder.VERSION);
+            writer.putInt(blockNumber).putString(block.getPreviousHash()).putString(block.getHash());
+            writer.putBytes(block.getStateHash());
+            block.getSealingPolicy().writeTo(writer);
+            AccountState accounts = block.accountBalanceMap;
+            writer.putInt(accounts.size());
+            if (checkpoint) {
+                writer.putInt(-1);
+                for (int ordinal = 0; ordinal < accounts.size(); ordinal++) {
+                    writer.putLong(accounts.balance(ordinal));
+                }
+            } else {
+                int[] changed = changedOrdinals(block);
+                writer.putInt(changed.length);
+                for (int ordinal : changed) {
+                    writer.putInt(ordinal).putLong(accounts.balance(ordinal));
+                }
+            }
+            writer.putInt(block.transactionList.size());
+            for (TransactionView transaction : block.transactionList) {
+                writer.writeTransaction(transaction);
+            }
+            writer.putChecksum();
+            // Archived blocks must be readable as soon as they leave the heap
+            writer.flush();
+            add(blockNumber, LedgerJournal.position(segmentNumber, offset), (int) (writer.written() - start));
+
+            if (channel.position() >= segmentSize) {
+                segmentNumber++;
+                openSegment();
+                writer.setChannel(channel);
+            }
+        } catch (IOException e) {
+            throw new LedgerException("archive block", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the ordinals of the accounts whose balances a block changed, in ascending order: its payers and
+     * receivers, and the master account, which is credited the block's fees.
+     */
+    private static int[] changedOrdinals(Block block) {
+        AccountState accounts = block.accountBalanceMap;
+        int[] ordinals = new int[2 * block.transactionList.size() + 1];
+        int count = 0;
+        ordinals[count++] = accounts.ordinalOf(Ledger.MASTER);
+        for (TransactionView transaction : block.transactionList) {
+            int payer = transaction.getPayerOrdinal(), receiver = transaction.getReceiverOrdinal();
+            ordinals[count++] = payer >= 0 ? payer : accounts.ordinalOf(transaction.getPayerAddress());
+            ordinals[count++] = receiver >= 0 ? receiver : accounts.ordinalOf(transaction.getReceiverAddress());
+        }
+        return Arrays.stream(ordinals, 0, count).filter(ordinal -> ordinal >= 0).sorted().distinct().toArray();
+    }
+
+    /**
+     * Records the position and length of a block's record, after any slots it skips. A block before the first
+     * slot starts the index again, and a block in an earlier slot supersedes that slot and all later ones, as a
+     * record written later always wins.
+     */
+    private void add(int blockNumber, long position, int length) {
+        if (slots == 0 || blockNumber < firstArchived) {
+            firstArchived = blockNumber;
+            slots = 0;
+            archived = 0;
+        }
+        int slot = blockNumber - firstArchived;
+        if (slot < slots) {
+            truncate(slot);
+        }
+        while (slots <= slot) {
+            if (slots == positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(16, slots * 2));
+                lengths = Arrays.copyOf(lengths, Math.max(16, slots * 2));
+            }
+            positions[slots] = 0;
+            lengths[slots] = 0;
+            slots++;
+        }
+        positions[slot] = position;
+        lengths[slot] = length;
+        archived++;
+    }
+
+    /**
+     * Drops the slots from the given slot on, and the cached blocks, which may have been read from them.
+     */
+    private void truncate(int slot) {
+        for (int i = slot; i < slots; i++) {
+            if (lengths[i] > 0) {
+                archived--;
+            }
+        }
+        slots = slot;
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the slot of an archived block, or -1 if the block is not archived.
+     */
+    private int slot(int blockNumber) {
+        int slot = blockNumber - firstArchived;
+        return directory == null || slot < 0 || slot >= slots || lengths[slot] == 0 ? -1 : slot;
+    }
+
+    /**
+     * Indexes the records of an existing segment, up to the first one that is torn or corrupt.
+     * Helper function to enableArchive().
+     * @return  The length of the segment up to the end of the last good record.
+     */
+    private long index(Path file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel segment = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = segment.map(FileChannel.MapMode.READ_ONLY, 0, segment.size());
+        }
+        Decoder decoder = new Decoder(mapped);
+        CRC32 crc = new CRC32();
+        while (decoder.hasRemaining()) {
+            int start = decoder.position();
+            try {
+                // Find the end of the record and check its checksum before indexing it
+                int blockNumber = decoder.buffer().getInt(start + 2);
+                skipRecord(decoder);
+                crc.reset();
+                crc.update(mapped.slice(start, decoder.position() - start));
+                if (decoder.getInt() != (int) crc.getValue()) {
+                    return start;
+                }
+                add(blockNumber, LedgerJournal.position(segmentNumber, start), decoder.position() - start);
+            } catch (BufferUnderflowException | IllegalStateException | IndexOutOfBoundsException e) {
+                return start;
+            }
+        }
+        return decoder.position();
+    }
+
+    /**
+     * Reads past a block record, up to its checksum.
+     */
+    private static void skipRecord(Decoder decoder) {
+        readHeader(decoder);
+        readState(decoder);
+        int count = decoder.getInt();
+        for (int i = 0; i < count; i++) {
+            decoder.readTransaction();
+        }
+    }
+
+    /**
+     * Reads an archived block from its segment, and rebuilds its account state.
+     * @return  The block, or null if it is no longer archived.
+     */
+    private Block read(int blockNumber) {
+        Decoder decoder;
+        synchronized (this) {
+            int slot = slot(blockNumber);
+            if (slot < 0) {
+                return null;
+            }
+            decoder = record(slot);
+        }
+        Block header = readHeader(decoder);
+        AccountState accounts = stateOf(blockNumber, readState(decoder));
+        int count = decoder.getInt();
+        List<TransactionView> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Transaction transaction = decoder.readTransaction();
+            transactions.add(transaction.withOrdinals(accounts.ordinalOf(transaction.getPayerAddress()),
+                    accounts.ordinalOf(transaction.getReceiverAddress())));
+        }
+        Block block = new Block(blockNumber, header.getPreviousHash(), header.getHash(), transactions,
+                header.getStateHash(), header.getSealingPolicy(), accounts);
+        // Cached blocks hold their transactions off the heap, like hot ones
+        block.pack();
+        return block;
+    }
+
+    /**
+     * Rebuilds the account state of an archived block from its stored balances. Changes are applied to the state
+     * of the block before it, found by walking back to a cached block or a checkpoint.
+     * @param blockNumber   The archived block.
+     * @param balances      The block's stored balances, as read by readState().
+     */
+    private AccountState stateOf(int blockNumber, Balances balances) {
+        Deque<Balances> changes = new ArrayDeque<>();
+        AccountState state = null;
+        while (state == null) {
+            if (balances.ordinals == null) {
+                state = newestState.restore(balances.balances);
+                break;
+            }
+            changes.push(balances);
+            blockNumber--;
+            Block previous = hot.get(blockNumber);
+            if (previous == null) {
+                synchronized (cache) {
+                    previous = cache.get(blockNumber);
+                }
+            }
+            if (previous != null) {
+                state = previous.accountBalanceMap;
+                break;
+            }
+            Decoder decoder;
+            synchronized (this) {
+                int slot = slot(blockNumber);
+                if (slot < 0) {
+                    throw new LedgerException("read block", "The balances of archived block " + blockNumber +
+                            " are missing.");
+                }
+                decoder = record(slot);
+            }
+            readHeader(decoder);
+            balances = readState(decoder);
+        }
+        while (!changes.isEmpty()) {
+            Balances change = changes.pop();
+            state = state.apply(change.size, change.ordinals, change.balances);
+        }
+        return state;
+    }
+
+    /**
+     * Reads the record in a slot and checks its checksum.
+     * @return  A decoder positioned at the start of the record.
+     */
+    private Decoder record(int slot) {
+        int length = lengths[slot];
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            FileChannel segment = segment(LedgerJournal.segmentOf(positions[slot]));
+            long offset = LedgerJournal.offsetOf(positions[slot]);
+            while (buffer.hasRemaining()) {
+                if (segment.read(buffer, offset + buffer.position()) < 0) {
+                    throw new LedgerException("read block", "Archived block is truncated.");
+                }
+            }
+        } catch (IOException e) {
+            throw new LedgerException("read block", e.getMessage());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, length - 4);
+        if (buffer.getInt(length - 4) != (int) crc.getValue()) {
+            throw new LedgerException("read block", "Archived block is corrupt.");
+        }
+        buffer.flip();
+        return new Decoder(buffer);
+    }
+
+    /**
+     * Reads the header of the record in a slot.
+     */
+    private Block header(int slot) {
+        return readHeader(record(slot));
+    }
+
+    /**
+     * Reads a record's header into a block without transactions or balances.
+     */
+    private static Block readHeader(Decoder decoder) {
+        decoder.expect(BLOCK);
+        int blockNumber = decoder.getInt();
+        String previousHash = decoder.getString(), hash = decoder.getString();
+        byte[] stateHash = decoder.getBytes();
+        SealingPolicy policy = SealingPolicy.readFrom(decoder);
+        return new Block(blockNumber, previousHash, hash, List.of(), stateHash, policy, null);
+    }
+
+    /**
+     * Reads a record's balances: all of them at a checkpoint, or the changed ones.
+     */
+    private static Balances readState(Decoder decoder) {
+        Balances balances = new Balances();
+        balances.size = decoder.getInt();
+        int count = decoder.getInt();
+        if (count < 0) {
+            balances.balances = new long[balances.size];
+            for (int i = 0; i < balances.size; i++) {
+                balances.balances[i] = decoder.getLong();
+            }
+            return balances;
+        }
+        balances.ordinals = new int[count];
+        balances.balances = new long[count];
+        for (int i = 0; i < count; i++) {
+            balances.ordinals[i] = decoder.getInt();
+            balances.balances[i] = decoder.getLong();
+        }
+        return balances;
+    }
+
+    /**
+     * The balances stored in a block record: all balances by ordinal if ordinals is null, otherwise the changed
+     * accounts' ordinals and new balances.
+     */
+    private static final class Balances {
+        private int size;
+        private int[] ordinals;
+        private long[] balances;
+    }
+
+    private synchronized FileChannel segment(int number) throws IOException {
+        FileChannel segment = segments.get(number);
+        if (segment == null) {
+            segment = FileChannel.open(segmentPath(number), StandardOpenOption.READ);
+            segments.put(number, segment);
+        }
+        return segment;
+    }
+
+    private void openSegment() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Lists the segment files in a directory, in the order they were written.
+     */
+    private static List<Path> segmentFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().forEach(files::add);
+        }
+        return files;
+    }
+
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Returns the number of blocks held on the heap.
+     */
+    public int getHotBlocks() {
+        return hot.size();
+    }
+
+    /**
+     * Returns the number of blocks held in the archive.
+     */
+    public synchronized int getArchivedBlocks() {
+        return archived;
+    }
+
+    /**
+     * Returns the number of reads of archived blocks served from the cache.
+     */
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of reads of archived blocks that had to be read from a segment file.
+     */
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Closes the archive's segment files. Archived blocks can no longer be read.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (channel != null) {
+                writer.flush();
+                channel.close();
+            }
+            for (FileChannel segment : segments.values()) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new LedgerException("close archive", e.getMessage());
+        }
+        segments.clear();
+    }
+}
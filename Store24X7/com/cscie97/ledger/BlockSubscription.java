@@ -0,0 +1,226 @@
+package com.cscie97.ledger;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A listener's subscription to the blocks sealed by a Ledger, created by Ledger.subscribe(). The sealer adds
+ * each sealed block to the subscription's bounded queue without waiting for the listener, and a delivery thread
+ * takes the blocks off the queue and notifies the listener. The subscription's cursor is the number of the next
+ * block to deliver: if the queue was full when a block was sealed, the block is dropped from the queue and later
+ * read back from the ledger when the cursor reaches it, so a slow listener falls behind without slowing the sealer
+ * or missing blocks. A subscription can also start from an earlier block and catch up on the chain before
+ * following new blocks.
+ */
+public class BlockSubscription implements AutoCloseable {
+    private final Ledger ledger;
+    private final BlockListener listener;
+    private final int capacity;
+    // Sealed blocks waiting for delivery; guarded by this
+    private final ArrayDeque<Block> queue;
+    private final Thread deliverer;
+    private volatile boolean closed;
+    // Number of the next block to deliver
+    private volatile int cursor;
+    // Number of accounts in the last delivered block, or -1 if it is not known
+    private int accounts = -1;
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Creates a subscription. Delivery starts when the ledger calls start().
+     * @param ledger    The ledger whose blocks are delivered.
+     * @param listener  The listener to notify.
+     * @param fromBlock The first block number to deliver.
+     * @param capacity  The maximum number of sealed blocks queued for delivery.
+     */
+    BlockSubscription(Ledger ledger, BlockListener listener, int fromBlock, int capacity) {
+        this.ledger = ledger;
+        this.listener = listener;
+        this.cursor = fromBlock;
+        this.capacity = capacity;
+        this.queue = new ArrayDeque<>(Math.min(capacity, 1024));
+        deliverer = new Thread(this::deliver, "ledger-subscription-" + ledger.getName());
+        deliverer.setDaemon(true);
+    }
+
+    void start() {
+        deliverer.start();
+    }
+
+    /**
+     * Queues a sealed block for delivery. Called by the ledger as each block is sealed, in chain order; does not
+     * wait for the listener. If the queue is full the block is dropped, and delivered from the ledger's block store
+     * instead.
+     */
+    void publish(Block block) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (queue.size() < capacity) {
+                queue.add(block);
+                notifyAll();
+                return;
+            }
+        }
+        overflowed.increment();
+    }
+
+    /**
+     * Takes the next queued block, first delivering any stored blocks the cursor has not reached if the queue is
+     * empty. Returns null once the subscription is closed.
+     * Helper function to deliver().
+     */
+    private Block take() {
+        synchronized (this) {
+            if (!queue.isEmpty() || closed) {
+                return queue.poll();
+            }
+        }
+        deliverStored(ledger.getView().getBlockNumber());
+        synchronized (this) {
+            while (queue.isEmpty() && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return closed ? null : queue.poll();
+        }
+    }
+
+    /**
+     * Delivers blocks in chain order until the subscription is closed. Queued blocks are delivered as they are;
+     * when the queue is empty, blocks the cursor has not reached yet are read from the ledger before waiting, so
+     * blocks dropped while the queue was full are delivered even if no further block is sealed.
+     */
+    private void deliver() {
+        Block block;
+        while ((block = take()) != null) {
+            if (block.getBlockNumber() < cursor) {
+                // Already read from the ledger while catching up
+                continue;
+            }
+            deliverStored(block.getBlockNumber() - 1);
+            if (!closed) {
+                notify(block);
+            }
+        }
+    }
+
+    /**
+     * Delivers the blocks from the cursor up to the given block number from the ledger's block store. Blocks that
+     * can no longer be read are reported to the listener as skipped.
+     * Helper function to deliver().
+     */
+    private void deliverStored(int toBlock) {
+        while (cursor <= toBlock && !closed) {
+            Block block = ledger.getBlock(cursor);
+            if (block != null) {
+                notify(block);
+                continue;
+            }
+            int from = cursor;
+            while (cursor <= toBlock && ledger.getBlock(cursor) == null) {
+                cursor++;
+            }
+            skipped.add(cursor - from);
+            accounts = -1;
+            try {
+                listener.blocksSkipped(from, cursor - 1);
+            } catch (RuntimeException e) {
+                failed.increment();
+            }
+        }
+    }
+
+    /**
+     * Notifies the listener of a block and advances the cursor past it. A listener that throws does not stop the
+     * subscription; the failure is counted.
+     * Helper function to deliver() and deliverStored().
+     */
+    private void notify(Block block) {
+        int blockNumber = block.getBlockNumber();
+        if (accounts < 0 && blockNumber == 1) {
+            accounts = 0;
+        } else if (accounts < 0) {
+            Block previousBlock = ledger.getBlock(blockNumber - 1);
+            accounts = previousBlock == null ? -1 : previousBlock.accountBalanceMap.size();
+        }
+        BlockNotice notice = new BlockNotice(block, accounts);
+        accounts = block.accountBalanceMap.size();
+        cursor = blockNumber + 1;
+        try {
+            listener.blockSealed(notice);
+            delivered.increment();
+        } catch (RuntimeException e) {
+            failed.increment();
+        }
+    }
+
+    /**
+     * Returns the number of the next block the subscription will deliver.
+     */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Returns the number of blocks delivered to the listener.
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * Returns the number of sealed blocks dropped from the queue because it was full. Dropped blocks are still
+     * delivered, from the ledger's block store.
+     */
+    public long getOverflowed() {
+        return overflowed.sum();
+    }
+
+    /**
+     * Returns the number of blocks reported as skipped because they could no longer be read.
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * Returns the number of notifications the listener threw an exception for.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Cancels the subscription. Blocks not yet delivered are discarded. Waits for a notification in progress to
+     * finish, unless called from the listener itself.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            notifyAll();
+        }
+        ledger.unsubscribe(this);
+        if (Thread.currentThread() != deliverer) {
+            try {
+                deliverer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.cscie97.ledger;
+
+/**
+ * Summary of the transactions in one block or a range of consecutive blocks: the number of transactions, the
+ * total amount and fees, the smallest and largest amount, and the times the first and last block were sealed.
+ * Each sealed block carries its summary, and the ledger's BlockSummaryIndex combines them to answer range
+ * queries without reading any transactions.
+ */
+public class BlockSummary {
+    private final int fromBlock;
+    private final int toBlock;
+    private final long transactionCount;
+    private final long totalAmount;
+    private final long totalFees;
+    private final int minAmount;
+    private final int maxAmount;
+    private final long firstSealedAt;
+    private final long lastSealedAt;
+
+    /**
+     * Creates a summary. The smallest and largest amounts of a range without transactions are given as
+     * Integer.MAX_VALUE and Integer.MIN_VALUE, and are reported as 0.
+     */
+    BlockSummary(int fromBlock, int toBlock, long transactionCount, long totalAmount, long totalFees, int minAmount,
+                 int maxAmount, long firstSealedAt, long lastSealedAt) {
+        this.fromBlock = fromBlock;
+        this.toBlock = toBlock;
+        this.transactionCount = transactionCount;
+        this.totalAmount = totalAmount;
+        this.totalFees = totalFees;
+        this.minAmount = transactionCount == 0 ? 0 : minAmount;
+        this.maxAmount = transactionCount == 0 ? 0 : maxAmount;
+        this.firstSealedAt = firstSealedAt;
+        this.lastSealedAt = lastSealedAt;
+    }
+
+    public int getFromBlock() {
+        return fromBlock;
+    }
+
+    public int getToBlock() {
+        return toBlock;
+    }
+
+    public long getTransactionCount() {
+        return transactionCount;
+    }
+
+    public long getTotalAmount() {
+        return totalAmount;
+    }
+
+    /**
+     * Returns the total of the transaction fees, which is the fee revenue of the master account.
+     */
+    public long getTotalFees() {
+        return totalFees;
+    }
+
+    /**
+     * Returns the smallest transaction amount, or 0 if there are no transactions.
+     */
+    public int getMinAmount() {
+        return minAmount;
+    }
+
+    /**
+     * Returns the largest transaction amount, or 0 if there are no transactions.
+     */
+    public int getMaxAmount() {
+        return maxAmount;
+    }
+
+    /**
+     * Returns the time the first block was sealed, in milliseconds since the epoch.
+     */
+    public long getFirstSealedAt() {
+        return firstSealedAt;
+    }
+
+    /**
+     * Returns the time the last block was sealed, in milliseconds since the epoch.
+     */
+    public long getLastSealedAt() {
+        return lastSealedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "blocks " + fromBlock + "-" + toBlock + ": transactions=" + transactionCount + ", amount=" +
+                totalAmount + ", fees=" + totalFees + ", min=" + minAmount + ", max=" + maxAmount;
+    }
+}
@@ -0,0 +1,197 @@
+package com.cscie97.ledger;
+
+import java.util.Arrays;
+
+/**
+ * Index of the summaries of sealed blocks, for range queries over block numbers or seal times. The summaries are
+ * the leaves of a segment tree stored in primitive arrays: each inner node holds the transaction count, total
+ * amount and fees, and smallest and largest amount of the blocks below it, so any range of blocks is summarized
+ * by combining O(log blocks) nodes. Blocks are added as they are sealed, updating the O(log blocks) nodes above
+ * them; when the tree is full its capacity is doubled and the inner nodes rebuilt, so adding a block takes
+ * amortized O(log blocks). Seal times never decrease along the chain, so a time window is turned into a range
+ * of blocks by binary search.
+ * The index is thread-safe.
+ */
+public class BlockSummaryIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Number of the first block indexed; blocks restored from a snapshot are not indexed
+    private int firstBlock = -1;
+    private int size;
+    private int capacity;
+    // Segment tree nodes; node 1 is the root, the children of node i are 2i and 2i + 1, and the leaf of the
+    // block at index i is node capacity + i
+    private long[] counts;
+    private long[] amounts;
+    private long[] fees;
+    private int[] minAmounts;
+    private int[] maxAmounts;
+    // Seal time of each indexed block, never decreasing
+    private long[] sealedAt;
+
+    public BlockSummaryIndex() {
+        allocate(INITIAL_CAPACITY);
+        sealedAt = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Summarizes a sealed block and adds it to the index. Blocks must be added in chain order.
+     * @param block The sealed block.
+     * @return      The block's summary, with the time it was sealed. The time is not earlier than the seal time
+     *              of the previous block, even if the clock was set back.
+     */
+    synchronized BlockSummary add(Block block) {
+        if (firstBlock < 0) {
+            firstBlock = block.getBlockNumber();
+        } else if (block.getBlockNumber() != firstBlock + size) {
+            throw new IllegalStateException("Block " + block.getBlockNumber() + " is not the next block.");
+        }
+        long now = System.currentTimeMillis();
+        BlockSummary summary = block.summarize(size == 0 ? now : Math.max(now, sealedAt[size - 1]));
+        if (size == capacity) {
+            grow();
+        }
+        int leaf = capacity + size;
+        counts[leaf] = summary.getTransactionCount();
+        amounts[leaf] = summary.getTotalAmount();
+        fees[leaf] = summary.getTotalFees();
+        minAmounts[leaf] = summary.getTransactionCount() == 0 ? Integer.MAX_VALUE : summary.getMinAmount();
+        maxAmounts[leaf] = summary.getTransactionCount() == 0 ? Integer.MIN_VALUE : summary.getMaxAmount();
+        sealedAt[size] = summary.getLastSealedAt();
+        size++;
+        for (int node = leaf >>> 1; node >= 1; node >>>= 1) {
+            combine(node);
+        }
+        return summary;
+    }
+
+    /**
+     * Summarizes a range of blocks. The range is limited to the indexed blocks.
+     * @param fromBlock The first block number to include.
+     * @param toBlock   The last block number to include.
+     * @return          The summary of the indexed blocks in the range, or null if there are none.
+     */
+    public synchronized BlockSummary summarize(int fromBlock, int toBlock) {
+        if (size == 0) {
+            return null;
+        }
+        int from = Math.max(fromBlock, firstBlock) - firstBlock;
+        int to = Math.min(toBlock, firstBlock + size - 1) - firstBlock;
+        return from > to ? null : query(from, to);
+    }
+
+    /**
+     * Summarizes the blocks sealed in a window of time.
+     * @param fromMillis    The start of the window, inclusive, in milliseconds since the epoch.
+     * @param toMillis      The end of the window, exclusive, in milliseconds since the epoch.
+     * @return              The summary of the indexed blocks sealed in the window, or null if there are none.
+     */
+    public synchronized BlockSummary summarizeTime(long fromMillis, long toMillis) {
+        int from = firstSealedAtOrAfter(fromMillis);
+        int to = firstSealedAtOrAfter(toMillis) - 1;
+        return from > to ? null : query(from, to);
+    }
+
+    /**
+     * Returns the number of the first indexed block, or 0 if no block has been indexed.
+     */
+    public synchronized int getFirstBlock() {
+        return Math.max(firstBlock, 0);
+    }
+
+    /**
+     * Returns the number of indexed blocks.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Combines the nodes covering the blocks at the given indexes, walking up from both ends of the range.
+     */
+    private BlockSummary query(int from, int to) {
+        long count = 0, amount = 0, fee = 0;
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int low = from + capacity, high = to + capacity + 1; low < high; low >>>= 1, high >>>= 1) {
+            if ((low & 1) == 1) {
+                count += counts[low];
+                amount += amounts[low];
+                fee += fees[low];
+                min = Math.min(min, minAmounts[low]);
+                max = Math.max(max, maxAmounts[low]);
+                low++;
+            }
+            if ((high & 1) == 1) {
+                high--;
+                count += counts[high];
+                amount += amounts[high];
+                fee += fees[high];
+                min = Math.min(min, minAmounts[high]);
+                max = Math.max(max, maxAmounts[high]);
+            }
+        }
+        return new BlockSummary(firstBlock + from, firstBlock + to, count, amount, fee, min, max, sealedAt[from],
+                sealedAt[to]);
+    }
+
+    /**
+     * Returns the index of the first block sealed at or after the given time, or size if there is none.
+     */
+    private int firstSealedAtOrAfter(long millis) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sealedAt[middle] < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sets an inner node from its two children.
+     */
+    private void combine(int node) {
+        int left = 2 * node, right = left + 1;
+        counts[node] = counts[left] + counts[right];
+        amounts[node] = amounts[left] + amounts[right];
+        fees[node] = fees[left] + fees[right];
+        minAmounts[node] = Math.min(minAmounts[left], minAmounts[right]);
+        maxAmounts[node] = Math.max(maxAmounts[left], maxAmounts[right]);
+    }
+
+    /**
+     * Doubles the capacity, moving the leaves to their new positions and rebuilding the inner nodes.
+     */
+    private void grow() {
+        long[] oldCounts = counts, oldAmounts = amounts, oldFees = fees;
+        int[] oldMins = minAmounts, oldMaxs = maxAmounts;
+        int oldCapacity = capacity;
+        allocate(oldCapacity * 2);
+        System.arraycopy(oldCounts, oldCapacity, counts, capacity, size);
+        System.arraycopy(oldAmounts, oldCapacity, amounts, capacity, size);
+        System.arraycopy(oldFees, oldCapacity, fees, capacity, size);
+        System.arraycopy(oldMins, oldCapacity, minAmounts, capacity, size);
+        System.arraycopy(oldMaxs, oldCapacity, maxAmounts, capacity, size);
+        sealedAt = Arrays.copyOf(sealedAt, capacity);
+        for (int node = capacity - 1; node >= 1; node--) {
+            combine(node);
+        }
+    }
+
+    /**
+     * Allocates an empty tree with the given number of leaves.
+     */
+    private void allocate(int leaves) {
+        capacity = leaves;
+        counts = new long[2 * leaves];
+        amounts = new long[2 * leaves];
+        fees = new long[2 * leaves];
+        minAmounts = new int[2 * leaves];
+        maxAmounts = new int[2 * leaves];
+        Arrays.fill(minAmounts, Integer.MAX_VALUE);
+        Arrays.fill(maxAmounts, Integer.MIN_VALUE);
+    }
+}
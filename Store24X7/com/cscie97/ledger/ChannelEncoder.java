@@ -0,0 +1,87 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Encoder that writes to a FileChannel whenever its buffer fills up. Keeps a running CRC32 of everything
+ * encoded since beginChecksum() was called, across buffer writes, so that records and files can be written
+ * with a trailing checksum without holding them in memory.
+ */
+public class ChannelEncoder extends Encoder {
+    private final CRC32 crc = new CRC32();
+    private int checksumStart;
+    private FileChannel channel;
+    private long written;
+
+    public ChannelEncoder(FileChannel channel, int capacity) {
+        super(capacity);
+        this.channel = channel;
+    }
+
+    /**
+     * Writes any buffered bytes to the current channel, then directs further output to the given channel.
+     */
+    public void setChannel(FileChannel channel) {
+        flush();
+        this.channel = channel;
+    }
+
+    /**
+     * Starts a new checksum at the current position.
+     */
+    public void beginChecksum() {
+        checksumStart = buffer.position();
+        crc.reset();
+    }
+
+    /**
+     * Writes the checksum of everything encoded since beginChecksum().
+     */
+    public void putChecksum() {
+        crc.update(buffer.array(), checksumStart, buffer.position() - checksumStart);
+        checksumStart = buffer.position();
+        putInt((int) crc.getValue());
+        checksumStart = buffer.position();
+    }
+
+    /**
+     * Returns the number of bytes encoded but not yet written to the channel.
+     */
+    public int buffered() {
+        return buffer.position();
+    }
+
+    /**
+     * Returns the total number of bytes written to channels by this encoder.
+     */
+    public long written() {
+        return written;
+    }
+
+    /**
+     * Writes the buffered bytes to the channel.
+     */
+    public void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new LedgerException("write file", e.getMessage());
+        } finally {
+            buffer.clear();
+            checksumStart = 0;
+        }
+    }
+
+    @Override
+    protected void drain() {
+        crc.update(buffer.array(), checksumStart, buffer.position() - checksumStart);
+        flush();
+    }
+}
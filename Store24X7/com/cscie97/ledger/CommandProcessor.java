@@ -4,6 +4,7 @@ import com.cscie97.ledger.Ledger.LedgerException;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
@@ -11,12 +12,48 @@ import java.util.Scanner;
 /**
  * CommandProcessor processes input commands.
  * Commands are strings read from the command line or from a file.
- * Responsible for creating a ledger and calling ledger methods based on command input.
+ * Responsible for creating ledgers and calling LedgerClient methods based on command input; it is a text adapter
+ * over the typed client, which programs should use directly. Ledgers are created in a LedgerRegistry, so one
+ * command processor can host many ledgers; commands are routed to the current ledger, which is the one most
+ * recently created, opened or selected with use-ledger.
  */
 public class CommandProcessor {
-    private Ledger ledger = null;
+    private final LedgerRegistry registry;
+    private LedgerClient client = null;
 
     public CommandProcessor() {
+        this(new LedgerRegistry());
+    }
+
+    /**
+     * Creates a command processor that creates its ledgers in the given registry.
+     * @param registry  The ledger registry.
+     */
+    public CommandProcessor(LedgerRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Creates a command processor for an existing ledger.
+     * @param client    The client of the ledger.
+     */
+    public CommandProcessor(LedgerClient client) {
+        this();
+        this.client = client;
+    }
+
+    /**
+     * Returns the client of the current ledger, or null if no ledger has been created or opened yet.
+     */
+    public LedgerClient getClient() {
+        return client;
+    }
+
+    /**
+     * Returns the registry the command processor creates its ledgers in.
+     */
+    public LedgerRegistry getRegistry() {
+        return registry;
     }
 
     /**
@@ -44,18 +81,42 @@ public class CommandProcessor {
                 String description = map.get("description");
                 String seed = map.get("seed");
 
-                if (ledger != null) {
-                    // CommandProcessor and Ledger have a 1:1 relationship. Throw exception if a ledger already exists.
-                    throw new CommandProcessorException("create-ledger", "A ledger already exists.", lineNumber);
+                if (registry.contains(name)) {
+                    // Ledger names are unique within the registry. Throw exception if the ledger already exists.
+                    throw new CommandProcessorException("create-ledger", "Ledger " + name + " already exists.",
+                            lineNumber);
                 }
 
-                ledger = new Ledger(name, description, seed);
+                client = registry.create(name, description, seed);
+                break;
+
+            case "open-ledger":
+                // open-ledger <name> description <description> seed <seed> journal <directory>
+                // Open a durable ledger, recovering it from the journal directory if one exists.
+                String[] openKeyWords = {"open-ledger", "description", "seed", "journal"};
+                HashMap<String, String> openMap = commandParser(command, openKeyWords);
+
+                if (registry.contains(openMap.get("open-ledger"))) {
+                    // Ledger names are unique within the registry. Throw exception if the ledger already exists.
+                    throw new CommandProcessorException("open-ledger", "Ledger " + openMap.get("open-ledger") +
+                            " already exists.", lineNumber);
+                }
+
+                try {
+                    client = registry.open(Path.of(openMap.get("journal")), openMap.get("open-ledger"),
+                            openMap.get("description"), openMap.get("seed"));
+                    Ledger opened = registry.getLedger(openMap.get("open-ledger"));
+                    System.out.println("Opened ledger " + opened.getName() + " with " + opened.getBlocks() + " blocks");
+                } catch (LedgerException e) {
+                    System.out.println("***ERROR*** \n" + e.getAction());
+                    System.out.println(e.getReason() + "\n***********");
+                }
                 break;
 
             case "create-account":
                // Create a new account. Account names must be unique; catch a LedgerException if the name is already in use.
                try {
-                   Account account = ledger.createAccount(commandList[1]);
+                   Account account = client.createAccount(commandList[1]);
                    System.out.println("Created account " + account.getAddress());
                } catch (LedgerException e) {
                    System.out.println("***ERROR*** \n" + e.getAction());
@@ -65,14 +126,28 @@ public class CommandProcessor {
 
             case "get-account-balance":
                 /*
-                 get-account-balance <account-id>
+                 get-account-balance <account-id> [proof]
                  Get the account balance. Catch a LedgerException if the account does not exist in the ledger
                  (an account may have been created but does not exist in the ledger until its block has been added to the blockchain).
+                 With "proof", also display and verify the proof of the balance against its block's hash.
                 */
                 try {
-                    int balance = ledger.getAccountBalance(commandList[1]);
-                    System.out.println(commandList[1] + ": balance = " + balance);
-                    return balance;
+                    String[] balanceArgs = commandList[1].split(" ");
+                    if (balanceArgs.length > 1 && balanceArgs[1].equals("proof")) {
+                        BalanceProof proof = client.balanceProof(balanceArgs[0]);
+                        System.out.println(balanceArgs[0] + ": balance = " + proof.getBalance());
+                        System.out.println("\tBlock Number: " + proof.getBlockNumber());
+                        System.out.println("\tState Hash: " + proof.getStateHash());
+                        System.out.println("\tBlock Hash: " + proof.getBlockHash());
+                        System.out.println("\tLeaf Accounts: " + proof.getLeafSize() + ", Path Length: " +
+                                proof.getPathLength());
+                        System.out.println("\tVerified: " + client.verify(proof));
+                        return (int) Math.min(proof.getBalance(), Integer.MAX_VALUE);
+                    }
+                    long balance = client.balance(balanceArgs[0]);
+                    System.out.println(balanceArgs[0] + ": balance = " + balance);
+                    // Command results are ints; larger balances are reported as Integer.MAX_VALUE
+                    return (int) Math.min(balance, Integer.MAX_VALUE);
                 } catch (LedgerException e) {
                     System.out.println("***ERROR*** \n" + e.getAction());
                     System.out.println(e.getReason() + "\n***********");
@@ -89,19 +164,17 @@ public class CommandProcessor {
                        payerAddress = transactionMap.get("payer"), receiverAddress = transactionMap.get("receiver");
 
                 // transactionIDs must be unique. Throw an exception if a transaction exists with the same ID.
-                if (ledger.getTransaction(transactionId) != null) {
+                if (client.containsTransaction(transactionId)) {
                     throw new CommandProcessorException("process-transaction", "Transaction " + transactionId + " already exists.", lineNumber);
                 }
 
-                // Instantiate accounts using the candidate block's account balance map because the accounts may not have
-                // been added to the ledger yet (especially problematic for the first TRANSACTION_PER_BLOCK transactions).
-                Account payer = ledger.candidateBlock.accountBalanceMap.get(payerAddress);
-                Account receiver = ledger.candidateBlock.accountBalanceMap.get(receiverAddress);
-                Transaction transaction = new Transaction(transactionId, amount, fee, note, payer, receiver);
+                // The ledger resolves the addresses against the candidate block's accounts, because the accounts may not
+                // have been added to the chain yet (especially problematic for the first TRANSACTION_PER_BLOCK transactions).
                 try {
                     // Try to add the transaction to the candidate block. The transaction is validated by the ledger.
-                    String transactionID = ledger.processTransaction(transaction);
-                    System.out.println("Transaction " + transactionID + " successful");
+                    TransactionResult result = client.transfer(transactionId, payerAddress, receiverAddress, amount, fee,
+                            note);
+                    System.out.println("Transaction " + result.getTransactionId() + " successful");
                 } catch (LedgerException e) {
                     // Transaction was invalid
                     System.out.println("***ERROR*** \n" + e.getAction());
@@ -112,7 +185,7 @@ public class CommandProcessor {
             case "get-block":
                 // get-block <blockNumber>
                 // Attempt to retrieve the specified block and display its fields to std out.
-                Block block = ledger.getBlock(Integer.parseInt(commandList[1]));
+                Block block = client.getBlock(Integer.parseInt(commandList[1]));
                 if (block == null) {
                     System.out.println("Block " + commandList[1] + " does not exist");
                     break;
@@ -123,13 +196,13 @@ public class CommandProcessor {
                 System.out.println("Hash: " + block.getHash());
 
                 System.out.println("Transactions:");
-                for (Transaction t : block.transactionList) {
+                for (TransactionView t : block.transactionList) {
                     System.out.println("\tTransaction ID: " + t.getTransactionId());
                     System.out.println("\tAmount: " + t.getAmount());
                     System.out.println("\tFee: " + t.getFee());
                     System.out.println("\tNote: " + t.getNote());
-                    System.out.println("\tPayer: " + t.getPayer().getAddress());
-                    System.out.println("\tReceiver: " + t.getReceiver().getAddress() + "\n");
+                    System.out.println("\tPayer: " + t.getPayerAddress());
+                    System.out.println("\tReceiver: " + t.getReceiverAddress() + "\n");
                 }
 
                 System.out.println("Account Balances:");
@@ -139,11 +212,11 @@ public class CommandProcessor {
                 }
 
                 System.out.print("Previous Block: ");
-                if (block.previousBlock == null) {
+                if (block.getBlockNumber() == 1) {
                     // The genesis block has no previous block.
                     System.out.println("Genesis Block");
                 } else {
-                    System.out.println(block.previousBlock.getBlockNumber());
+                    System.out.println(block.getBlockNumber() - 1);
                 }
                 break;
 
@@ -151,7 +224,7 @@ public class CommandProcessor {
                 // Retrieve the most recently completed block's map of account balances, if one exists.
                 // Display all account names and their balances to std out.
                 try {
-                    Map<String, Account> accountBalanceMap = ledger.getAccountBalances();
+                    Map<String, Account> accountBalanceMap = client.balances();
                     System.out.println("Account Balances:");
                     for (Map.Entry<String, Account> entry : accountBalanceMap.entrySet()) {
                         Account account = entry.getValue();
@@ -165,13 +238,18 @@ public class CommandProcessor {
 
             case "validate":
                 /*
-                 Validate the blockchain.
+                 Validate the blockchain: validate [all]. Without "all" only blocks committed since the last validation are checked.
                  Ensure all account balances add up to master account starting balance, all blocks
                  have exactly <transactions per block> transactions, and check that each block's previousHash
                  field is consistent with a re-computed hash of the block's previousBlock.
                 */
                 try {
-                    ledger.validate();
+                    // validate all: check every block; otherwise only blocks committed since the last validation
+                    if (commandList.length > 1 && commandList[1].trim().equals("all")) {
+                        client.validateAll();
+                    } else {
+                        client.validate();
+                    }
                 } catch (LedgerException e) {
                     System.out.println("***ERROR*** \n" + e.getAction());
                     System.out.println(e.getReason() + "\n***********");
@@ -181,7 +259,7 @@ public class CommandProcessor {
             case "get-transaction":
                 // get-transaction <transactionId>
                 // Attempt to retrieve the specified transaction. Display the details to std out.
-                Transaction trans = ledger.getTransaction(commandList[1]);
+                TransactionView trans = client.getTransaction(commandList[1]);
                 if (trans == null) {
                     System.out.println("Transaction not found.");
                 } else {
@@ -189,14 +267,90 @@ public class CommandProcessor {
                     System.out.println("\tAmount: " + trans.getAmount());
                     System.out.println("\tFee: " + trans.getFee());
                     System.out.println("\tNote: " + trans.getNote());
-                    System.out.println("\tPayer: " + trans.getPayer().getAddress());
-                    System.out.println("\tReceiver: " + trans.getReceiver().getAddress());
+                    System.out.println("\tPayer: " + trans.getPayerAddress());
+                    System.out.println("\tReceiver: " + trans.getReceiverAddress());
+                }
+                break;
+
+            case "get-account-history":
+                // get-account-history <address> [<from block> [<limit> [<from slot>]]]
+                // Display a page of the transactions the account paid or received.
+                String[] historyArgs = commandList[1].trim().split(" ");
+                int fromBlock = historyArgs.length > 1 ? Integer.parseInt(historyArgs[1]) : 1;
+                int limit = historyArgs.length > 2 ? Integer.parseInt(historyArgs[2]) : 100;
+                int fromSlot = historyArgs.length > 3 ? Integer.parseInt(historyArgs[3]) : 0;
+                HistoryPage page = client.getAccountHistory(historyArgs[0], fromBlock, fromSlot, limit);
+                for (TransactionView t : page.getTransactions()) {
+                    System.out.println("Transaction ID: " + t.getTransactionId() + ", Amount: " + t.getAmount() +
+                            ", Fee: " + t.getFee() + ", Payer: " + t.getPayerAddress() +
+                            ", Receiver: " + t.getReceiverAddress());
+                }
+                if (page.getNextBlock() > 0) {
+                    System.out.println("Next page from block " + page.getNextBlock() + " slot " + page.getNextSlot());
+                }
+                break;
+
+            case "get-inclusion-proof":
+                // get-inclusion-proof <transactionId>
+                // Display the Merkle path and block header proving the transaction is in its block, and verify it.
+                try {
+                    MerkleProof proof = client.getInclusionProof(commandList[1]);
+                    System.out.println("Transaction ID: " + proof.getTransactionId());
+                    System.out.println("\tBlock Number: " + proof.getBlockNumber());
+                    System.out.println("\tPrevious Hash: " + proof.getPreviousHash());
+                    System.out.println("\tMerkle Root: " + proof.getMerkleRoot());
+                    System.out.println("\tState Hash: " + proof.getStateHash());
+                    System.out.println("\tBlock Hash: " + proof.getBlockHash());
+                    for (int i = 0; i < proof.getPathLength(); i++) {
+                        System.out.println("\tSibling " + (proof.isSiblingOnLeft(i) ? "(left): " : "(right): ") +
+                                proof.getSibling(i));
+                    }
+                    boolean verified = client.verify(proof, client.getTransaction(commandList[1]));
+                    System.out.println("\tVerified: " + verified);
+                } catch (LedgerException e) {
+                    System.out.println(e.getReason());
+                }
+                break;
+
+            case "summarize-blocks":
+                // summarize-blocks <from-block> <to-block>
+                // Display the transaction count, total amount and fees, and smallest and largest amount of a range of blocks.
+                String[] range = commandList[1].split(" ");
+                BlockSummary summary = client.summarizeBlocks(Integer.parseInt(range[0]), Integer.parseInt(range[1]));
+                if (summary == null) {
+                    System.out.println("No blocks in range " + range[0] + "-" + range[1]);
+                    break;
                 }
+                System.out.println("Blocks: " + summary.getFromBlock() + "-" + summary.getToBlock());
+                System.out.println("\tTransactions: " + summary.getTransactionCount());
+                System.out.println("\tTotal Amount: " + summary.getTotalAmount());
+                System.out.println("\tTotal Fees: " + summary.getTotalFees());
+                System.out.println("\tMin Amount: " + summary.getMinAmount() + ", Max Amount: " + summary.getMaxAmount());
                 break;
 
             case "get-blocks":
                 // Display the number of blocks that have been committed to the blockchain.
-                System.out.println(ledger.getBlocks());
+                System.out.println(client.getBlocks());
+                break;
+
+            case "use-ledger":
+                // use-ledger <name>
+                // Route the following commands to the named ledger.
+                try {
+                    client = registry.getClient(commandList[1]);
+                    System.out.println("Using ledger " + commandList[1]);
+                } catch (LedgerException e) {
+                    System.out.println("***ERROR*** \n" + e.getAction());
+                    System.out.println(e.getReason() + "\n***********");
+                }
+                break;
+
+            case "list-ledgers":
+                // Display the name and number of blocks of each ledger in the registry.
+                for (String ledgerName : registry.getNames()) {
+                    System.out.println(ledgerName + ": " + registry.getClient(ledgerName).getBlocks() + " blocks" +
+                            (registry.getClient(ledgerName) == client ? " (current)" : ""));
+                }
                 break;
 
             default:
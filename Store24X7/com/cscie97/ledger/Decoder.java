@@ -0,0 +1,103 @@
+package com.cscie97.ledger;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads values written by an Encoder from a ByteBuffer, such as a memory-mapped journal segment.
+ * Reading past the end of the buffer throws a BufferUnderflowException. So does a byte array or string whose
+ * length, read from a torn or corrupt record, is negative or longer than the rest of the buffer; the length is
+ * checked before anything is allocated.
+ */
+public class Decoder {
+    private final ByteBuffer buffer;
+
+    public Decoder(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    public int position() {
+        return buffer.position();
+    }
+
+    public byte getByte() {
+        return buffer.get();
+    }
+
+    public int getInt() {
+        return buffer.getInt();
+    }
+
+    public long getLong() {
+        return buffer.getLong();
+    }
+
+    public byte[] getBytes() {
+        byte[] value = new byte[checkLength(buffer.getInt(), 1)];
+        buffer.get(value);
+        return value;
+    }
+
+    public String getString() {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        char[] chars = new char[checkLength(length, 2)];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Checks that a length read from the buffer is not negative and that the value fits in the rest of the buffer.
+     * @param length    The number of elements.
+     * @param size      The size of an element in bytes.
+     * @return          The length.
+     */
+    private int checkLength(int length, int size) {
+        if (length < 0 || (long) length * size > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    /**
+     * Reads the tag and version that start every record, and checks the version is supported.
+     * @param tag   The expected record tag.
+     */
+    public void expect(byte tag) {
+        byte actual = buffer.get();
+        if (actual != tag) {
+            throw new IllegalStateException("Expected record " + (char) tag + " but found " + (char) actual);
+        }
+        byte version = buffer.get();
+        if (version != Encoder.VERSION) {
+            throw new IllegalStateException("Unsupported encoding version " + version);
+        }
+    }
+
+    /**
+     * Reads a transaction written by Encoder.writeTransaction.
+     * @return  The transaction.
+     */
+    public Transaction readTransaction() {
+        expect(Encoder.TRANSACTION);
+        String transactionId = getString();
+        int amount = getInt();
+        int fee = getInt();
+        String note = getString();
+        String payerAddress = getString();
+        String receiverAddress = getString();
+        return new Transaction(transactionId, amount, fee, note, payerAddress, receiverAddress);
+    }
+}
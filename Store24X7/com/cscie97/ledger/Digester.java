@@ -0,0 +1,84 @@
+package com.cscie97.ledger;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Computes SHA-256 hashes of canonically encoded ledger objects. Each thread reuses one Digester, with its
+ * message digest and encoding buffer, so hashing does not allocate anything but the resulting hash.
+ */
+public final class Digester extends Encoder {
+    private static final int BUFFER_SIZE = 4096;
+    private static final ThreadLocal<Digester> DIGESTERS = ThreadLocal.withInitial(Digester::new);
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final MessageDigest messageDigest;
+
+    private Digester() {
+        super(BUFFER_SIZE);
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the calling thread's digester, reset and ready to encode a new object.
+     */
+    public static Digester get() {
+        Digester digester = DIGESTERS.get();
+        digester.buffer.clear();
+        digester.messageDigest.reset();
+        return digester;
+    }
+
+    /**
+     * Hashes the encoded data and resets the digester.
+     * @return  The SHA-256 hash of everything encoded since get() was called.
+     */
+    public byte[] digest() {
+        drain();
+        return messageDigest.digest();
+    }
+
+    @Override
+    protected void drain() {
+        messageDigest.update(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    /**
+     * Hashes the canonical encoding of a transaction. Used for the leaves of the transaction Merkle tree.
+     */
+    public static byte[] hash(TransactionView transaction) {
+        Digester digester = get();
+        digester.writeTransaction(transaction);
+        return digester.digest();
+    }
+
+    /**
+     * Hashes the concatenation of two hashes. Used to combine the nodes of Merkle trees.
+     */
+    public static byte[] combine(byte[] left, byte[] right) {
+        Digester digester = get();
+        digester.messageDigest.update(left);
+        digester.messageDigest.update(right);
+        return digester.messageDigest.digest();
+    }
+
+    /**
+     * Formats a hash as a hex string.
+     */
+    public static String toHex(byte[] hash) {
+        return HEX.formatHex(hash);
+    }
+
+    /**
+     * Parses a hash formatted by toHex().
+     */
+    public static byte[] fromHex(String hex) {
+        return HEX.parseHex(hex);
+    }
+}
@@ -0,0 +1,157 @@
+package com.cscie97.ledger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the canonical binary encoding of ledger objects into a fixed-size, reusable buffer. Whenever the buffer
+ * fills up it is drained by the subclass (into a message digest, a file, ...), so encoding never allocates.
+ * The encoding is versioned; every record starts with a type tag and the encoding version. Integers are written
+ * big-endian and strings as their length followed by their UTF-16 code units, so the encoding of an object only
+ * depends on its field values.
+ */
+public abstract class Encoder {
+    public static final byte VERSION = 3;
+    public static final byte TRANSACTION = 'T';
+    public static final byte ACCOUNT = 'A';
+    public static final byte HEADER = 'H';
+    public static final byte STATE_NODE = 'N';
+    public static final byte STATE_ROOT = 'S';
+
+    protected final ByteBuffer buffer;
+
+    protected Encoder(int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Empties the buffer. Called when the buffer does not have room for the next value.
+     */
+    protected abstract void drain();
+
+    /**
+     * Writes a transaction: its ID, amount, fee, note and the addresses of the payer and receiver. The view
+     * writes itself; see TransactionView.writeTo().
+     */
+    public Encoder writeTransaction(TransactionView transaction) {
+        return transaction.writeTo(this);
+    }
+
+    /**
+     * Returns the number of bytes writeTransaction() writes for a transaction, without encoding it.
+     */
+    public static int sizeOf(TransactionView transaction) {
+        return transaction.encodedSize();
+    }
+
+    /**
+     * Returns the number of bytes putString() writes for a string.
+     */
+    static int sizeOf(String value) {
+        return 4 + (value == null ? 0 : 2 * value.length());
+    }
+
+    /**
+     * Writes an account: its address and balance.
+     */
+    public Encoder writeAccount(String address, long balance) {
+        putByte(ACCOUNT);
+        putByte(VERSION);
+        putString(address);
+        putLong(balance);
+        return this;
+    }
+
+    /**
+     * Writes a block header. The header refers to the previous block by its hash only, so its size does not
+     * depend on the length of the chain.
+     * @param blockNumber   The block number.
+     * @param previousHash  The hash of the previous block.
+     * @param merkleRoot    The Merkle root of the block's transactions.
+     * @param stateHash     The state root of the block's account balances.
+     * @param policy        The sealing policy the block was sealed under.
+     * @param seed          The seed of the ledger.
+     */
+    public Encoder writeHeader(int blockNumber, String previousHash, byte[] merkleRoot, byte[] stateHash,
+                               SealingPolicy policy, String seed) {
+        putByte(HEADER);
+        putByte(VERSION);
+        putInt(blockNumber);
+        putString(previousHash);
+        putBytes(merkleRoot);
+        putBytes(stateHash);
+        policy.writeTo(this);
+        putString(seed);
+        return this;
+    }
+
+    public Encoder putByte(byte value) {
+        ensure(1);
+        buffer.put(value);
+        return this;
+    }
+
+    public Encoder putInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    public Encoder putLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    /**
+     * Writes a length-prefixed byte array.
+     */
+    public Encoder putBytes(byte[] value) {
+        putInt(value.length);
+        for (int offset = 0; offset < value.length; ) {
+            ensure(1);
+            int length = Math.min(buffer.remaining(), value.length - offset);
+            buffer.put(value, offset, length);
+            offset += length;
+        }
+        return this;
+    }
+
+    /**
+     * Writes a length-prefixed string. Null is written as length -1.
+     */
+    public Encoder putString(String value) {
+        if (value == null) {
+            return putInt(-1);
+        }
+        putInt(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            ensure(2);
+            buffer.putChar(value.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Copies bytes that are already in the canonical encoding, such as a string written by putString(), from
+     * another buffer. The source buffer's position is not changed.
+     * @param source    The buffer holding the encoded bytes.
+     * @param offset    The offset of the first byte in the source buffer.
+     * @param length    The number of bytes to copy.
+     */
+    public Encoder putEncoded(ByteBuffer source, int offset, int length) {
+        for (int end = offset + length; offset < end; ) {
+            ensure(1);
+            int chunk = Math.min(buffer.remaining(), end - offset);
+            buffer.put(buffer.position(), source, offset, chunk);
+            buffer.position(buffer.position() + chunk);
+            offset += chunk;
+        }
+        return this;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.cscie97.ledger;
+
+import java.util.List;
+
+/**
+ * One page of an account's transaction history, returned by Ledger.getAccountHistory(). A page holds up to the
+ * requested number of the account's transactions, in the order they were accepted, and the block number and slot
+ * to request the next page from.
+ */
+public class HistoryPage {
+    private final List<TransactionView> transactions;
+    private final int nextBlock;
+    private final int nextSlot;
+
+    public HistoryPage(List<TransactionView> transactions, int nextBlock, int nextSlot) {
+        this.transactions = transactions;
+        this.nextBlock = nextBlock;
+        this.nextSlot = nextSlot;
+    }
+
+    public List<TransactionView> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Returns the block number to pass as fromBlock to get the next page, or 0 if this is the last page of the
+     * sealed blocks.
+     */
+    public int getNextBlock() {
+        return nextBlock;
+    }
+
+    /**
+     * Returns the slot to pass as fromSlot, with getNextBlock(), to get the next page.
+     */
+    public int getNextSlot() {
+        return nextSlot;
+    }
+}
@@ -1,34 +1,465 @@
 package com.cscie97.ledger;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Processes transactions, maintains account balances, and manages the blockchain. Provides validation
  * to verify that transactions and accounts in the blockchain have not been altered.
+ * The ledger is thread-safe. Transactions lock the stripes of their payer and receiver accounts, so transactions
+ * with disjoint accounts are validated and update their balances in parallel; fees are accumulated per block and
+ * credited to the master account when the block is committed. Duplicate IDs are rejected by the transaction
+ * index's own stripes. Only giving a transaction its slot in the candidate block and appending it to the journal,
+ * which must happen in the same order, is serialized across all transactions, by a short sequencer lock.
+ * Committing a block and creating an account exclude all other writers.
+ * A full block is sealed (hashed and added to the chain) either inline or, with asynchronous sealing, by a
+ * background sealer while new transactions are added to the next candidate block. When a candidate block is full
+ * is decided by the ledger's SealingPolicy.
  */
 public class Ledger {
-    // Candidate blocks are committed to the chain when they reach this number of transactions
+    // Under the default sealing policy, candidate blocks are committed when they reach this number of transactions
     public static final int TRANSACTIONS_PER_BLOCK = 10;
     public static final int MIN_TRANSACTION_FEE = 10; // Transaction fee is paid by transaction payer to MASTER
     public static final String MASTER = "master"; // Master account associated with ledger
+    // Starting balance of the master account; all account balances always sum to it
+    public static final long MASTER_STARTING_BALANCE = Integer.MAX_VALUE;
+    // Number of sealed blocks queued for a block subscription when no capacity is given
+    public static final int DEFAULT_SUBSCRIPTION_CAPACITY = 1024;
     private final String name;
     private final String seed;
     private final String description;
-    private final Block genesisBlock;
-    private final Map<Integer, Block> blockMap = new HashMap<>();
-    Block candidateBlock;
+    // Number of account lock stripes; a power of two
+    private static final int LOCK_STRIPES = 256;
+    // Sealed blocks; old blocks are moved to an archive on disk once one is enabled
+    private final BlockStore blockStore = new BlockStore();
+    private final TransactionIndex transactionIndex;
+    private final AccountHistoryIndex accountHistory = new AccountHistoryIndex();
+    private final BlockSummaryIndex summaryIndex = new BlockSummaryIndex();
+    // Number of the block the ledger was restored from a snapshot at; blocks up to it are not in the block store
+    private final int baseBlockNumber;
+    private LedgerValidator validator = new LedgerValidator(ForkJoinPool.commonPool());
+    private ValidationListener validationListener;
+    // Blocks up to and including this block number passed the last validation
+    private volatile int verifiedUpTo = 0;
+    // Journal that accepted transactions are written to; null if the ledger is not durable
+    private LedgerJournal journal;
+    // Journal position just after the record being replayed by recover(); recorded as the position of the blocks
+    // committed during replay, before the journal is attached
+    private long replayPosition;
+    // A snapshot is written to the journal directory every snapshotInterval blocks; 0 disables snapshots
+    private int snapshotInterval = 0;
+    // Held shared by writers and exclusively while the candidate block is committed to the chain
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+    // Sequences adding transactions to the candidate block and appending them to the journal, so block order
+    // matches journal order
+    private final Object sequencer = new Object();
+    private final ReentrantLock[] accountLocks = new ReentrantLock[LOCK_STRIPES];
+    volatile Block candidateBlock;
+    // View of the most recently sealed block, published atomically when a block is sealed. Balances, blocks and
+    // validation reflect the chain up to this block.
+    private volatile LedgerView view = new LedgerView(null);
+    // Seals full blocks in chain order on a background thread; null if blocks are sealed inline
+    private ExecutorService sealer;
+    // Serializes archiving blocks and writing snapshots
+    private final Object snapshotLock = new Object();
+    // Snapshots have been written up to this block number; guarded by snapshotLock
+    private int snapshotUpTo;
+    // Newest block sealed inline whose archiving and snapshot wait for the commit lock to be released
+    private final AtomicReference<Block> unmaintained = new AtomicReference<>();
+    // Policy given to new candidate blocks
+    private volatile SealingPolicy sealingPolicy = SealingPolicy.DEFAULT;
+    // Seals candidate blocks whose sealing policy's time limit has passed; null until a policy has a time limit
+    private ScheduledExecutorService sealTimer;
+    // Scheduler shared with other ledgers to run the seal timer on, or null to start one for this ledger
+    private ScheduledExecutorService sharedTimer;
+    private ScheduledFuture<?> sealTimerTask;
+    // Subscriptions notified of each sealed block
+    private final List<BlockSubscription> subscriptions = new CopyOnWriteArrayList<>();
     public Ledger(String name, String description, String seed) {
         this.name = name;
         this.description = description;
         this.seed = seed;
-        genesisBlock = new Block(1,"", "", new ArrayList<>(), new HashMap<>(),null);
-        candidateBlock = genesisBlock;
-        Account master = this.createAccount(MASTER);
-        genesisBlock.accountBalanceMap.put(MASTER, master);
-        master.setBalance(Integer.MAX_VALUE);
+        initAccountLocks();
+        transactionIndex = new TransactionIndex();
+        baseBlockNumber = 0;
+        candidateBlock = new Block(1,"", "", new ArrayList<>(), new AccountState(),null);
+        this.createAccount(MASTER);
+        AccountState accounts = candidateBlock.accountBalanceMap;
+        accounts.setBalance(accounts.ordinalOf(MASTER), MASTER_STARTING_BALANCE);
+    }
+
+    /**
+     * Restores a ledger from a snapshot. The snapshot's block becomes the base of the chain: it is the previous
+     * block of the new candidate block, but it and the blocks before it are not in the block store.
+     * @param snapshot  The snapshot to restore.
+     */
+    private Ledger(StateSnapshot snapshot) {
+        this.name = snapshot.getName();
+        this.description = snapshot.getDescription();
+        this.seed = snapshot.getSeed();
+        initAccountLocks();
+        transactionIndex = snapshot.getTransactionIndex();
+        baseBlockNumber = snapshot.getBlockNumber();
+        snapshotUpTo = baseBlockNumber;
+        sealingPolicy = snapshot.getSealingPolicy();
+        // The snapshot was taken of a committed block, so it has already been validated.
+        verifiedUpTo = baseBlockNumber;
+        Block baseBlock = new Block(baseBlockNumber, snapshot.getPreviousHash(), snapshot.getHash(),
+                new ArrayList<>(), snapshot.getAccounts(), null, sealingPolicy);
+        baseBlock.journalPosition = snapshot.getJournalPosition();
+        baseBlock.sealed.complete(baseBlock);
+        view = new LedgerView(baseBlock);
+        blockStore.setNewestState(baseBlock.accountBalanceMap);
+        candidateBlock = new Block(baseBlockNumber + 1, baseBlock.getHash(), "", new ArrayList<>(),
+                baseBlock.accountBalanceMap, baseBlock, sealingPolicy);
+    }
+
+    /**
+     * Opens a durable ledger whose accounts, transactions and blocks are recorded in a journal in the given
+     * directory. If the directory already holds a journal, the ledger is recovered: it is restored from the
+     * newest snapshot in the directory, if any, and the journal records after the snapshot are replayed.
+     * Otherwise a new ledger is created with the given name, description and seed.
+     * @param directory     The journal directory.
+     * @param name          The ledger name, used if a new ledger is created.
+     * @param description   The ledger description, used if a new ledger is created.
+     * @param seed          The ledger seed, used if a new ledger is created.
+     * @return              The recovered or newly created ledger.
+     */
+    public static Ledger open(Path directory, String name, String description, String seed) {
+        StateSnapshot snapshot = StateSnapshot.loadLatest(directory);
+        Ledger ledger;
+        if (snapshot == null) {
+            ledger = recover(directory, null, LedgerJournal.position(0, 0));
+        } else {
+            ledger = recover(directory, new Ledger(snapshot), snapshot.getJournalPosition());
+        }
+        if (ledger == null) {
+            ledger = new Ledger(name, description, seed);
+            ledger.journal = new LedgerJournal(directory);
+            ledger.journal.appendLedger(name, description, seed);
+            ledger.journal.commit();
+        } else {
+            ledger.journal = new LedgerJournal(directory);
+            // The time limit is not applied while the journal is replayed; replay follows the journal's cut records
+            ledger.commitLock.writeLock().lock();
+            try {
+                ledger.startSealTimer();
+            } finally {
+                ledger.commitLock.writeLock().unlock();
+            }
+        }
+        return ledger;
+    }
+
+    /**
+     * Rebuilds a ledger by replaying the journal in the given directory. Accounts are re-created and transactions
+     * re-processed in journal order, which commits the same blocks; the hash of each block is checked against
+     * the block header recorded in the journal.
+     * Helper function to open().
+     * @param directory The journal directory.
+     * @param ledger    The ledger restored from a snapshot, or null to replay the journal from the start.
+     * @param from      The journal position to replay from.
+     * @return          The recovered ledger, or null if there was no snapshot and the directory holds no journal.
+     */
+    private static Ledger recover(Path directory, Ledger ledger, long from) {
+        Ledger[] recovered = {ledger};
+        LedgerJournal.replay(directory, from, new LedgerJournal.Replayer() {
+            @Override
+            public void ledger(String name, String description, String seed) {
+                recovered[0] = new Ledger(name, description, seed);
+            }
+
+            @Override
+            public void account(String address) {
+                recovered[0].createAccount(address);
+            }
+
+            @Override
+            public void transaction(Decoder decoder) {
+                Ledger ledger = recovered[0];
+                ledger.processTransaction(decoder.readTransaction());
+            }
+
+            @Override
+            public void policy(SealingPolicy policy) {
+                recovered[0].sealingPolicy = policy;
+            }
+
+            @Override
+            public void cut(int blockNumber) {
+                recovered[0].cutBlock(blockNumber);
+            }
+
+            @Override
+            public void position(long position) {
+                if (recovered[0] != null) {
+                    recovered[0].replayPosition = position;
+                }
+            }
+
+            @Override
+            public void block(int blockNumber, String previousHash, String hash) {
+                if (blockNumber <= recovered[0].baseBlockNumber) {
+                    // The block was sealed after the snapshot's journal position; the snapshot already holds it
+                    return;
+                }
+                Block block = recovered[0].getBlock(blockNumber);
+                if (block == null || !block.getHash().equals(hash)) {
+                    throw new LedgerException("recover ledger", "Block " + blockNumber +
+                            " does not match the journal.");
+                }
+            }
+        });
+        return recovered[0];
+    }
+
+    /**
+     * Waits for pending blocks to be sealed, stops the background sealer and the seal timer, makes all journaled
+     * changes durable and closes the journal and the block archive.
+     */
+    public void close() {
+        ScheduledExecutorService timer;
+        commitLock.writeLock().lock();
+        try {
+            timer = sealTimer;
+            sealTimer = null;
+            if (sealTimerTask != null) {
+                sealTimerTask.cancel(false);
+                sealTimerTask = null;
+            }
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+        if (timer != null && timer != sharedTimer) {
+            // A check that is already running needs the commit lock, so wait for it without holding the lock
+            timer.shutdown();
+            try {
+                timer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        setAsyncSealing(false);
+        for (BlockSubscription subscription : subscriptions) {
+            subscription.close();
+        }
+        blockStore.close();
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the state at the most recently committed block to the journal directory every
+     * given number of blocks, so that recovery only has to replay the journal after the newest snapshot.
+     * Snapshots are only written by durable ledgers.
+     * @param snapshotInterval  The number of blocks between snapshots, or 0 to disable snapshots.
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Writes a snapshot of the state at the most recently sealed block to the journal directory.
+     * Throws a LedgerException if the ledger is not durable or no block has been sealed.
+     */
+    public void snapshot() {
+        synchronized (snapshotLock) {
+            Block block = view.block;
+            LedgerJournal journal = this.journal;
+            if (journal == null || block == null) {
+                throw new LedgerException("snapshot", "Only durable ledgers with committed blocks can be snapshot.");
+            }
+            writeSnapshot(journal, block);
+        }
+    }
+
+    /**
+     * Writes a snapshot of a sealed block. Sealed blocks and their account states are immutable, so no commit lock
+     * is needed. Called with the snapshot lock held.
+     * Helper function to snapshot() and maintain().
+     */
+    private void writeSnapshot(LedgerJournal journal, Block block) {
+        // The journal must be durable up to the snapshot's position, or records after a crash could be appended
+        // before the position and skipped by recovery.
+        journal.commit();
+        StateSnapshot.write(journal.getDirectory(), this, block, transactionIndex, block.journalPosition);
+        snapshotUpTo = Math.max(snapshotUpTo, block.getBlockNumber());
+    }
+
+    /**
+     * Sets the policy that decides when candidate blocks are full and sealed: by number of transactions, by the
+     * encoded size of their transactions, or by the time since their first transaction, whichever comes first.
+     * The policy applies from the block after the current candidate block, which is sealed under the policy it
+     * was created with. Each block records its policy, so validation checks every block against its own policy.
+     * @param policy    The sealing policy.
+     */
+    public void setSealingPolicy(SealingPolicy policy) {
+        commitLock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.appendPolicy(policy);
+            }
+            sealingPolicy = policy;
+            startSealTimer();
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+        if (journal != null) {
+            journal.commit();
+        }
+    }
+
+    public SealingPolicy getSealingPolicy() {
+        return sealingPolicy;
+    }
+
+    /**
+     * Starts or reschedules the seal timer if the ledger's policy, or the candidate block's, has a time limit.
+     * The timer checks a few times per time limit, so a block is sealed at most a quarter of the limit late.
+     * Called with the commit lock held exclusively.
+     */
+    private void startSealTimer() {
+        long maxMillis = sealingPolicy.getMaxMillis();
+        if (maxMillis == 0) {
+            // The candidate block was created under an earlier policy, which may have a time limit
+            maxMillis = candidateBlock.getSealingPolicy().getMaxMillis();
+        }
+        if (maxMillis == 0) {
+            return;
+        }
+        if (sealTimer == null && sharedTimer != null) {
+            sealTimer = sharedTimer;
+        } else if (sealTimer == null) {
+            sealTimer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "ledger-seal-timer-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (sealTimerTask != null) {
+            sealTimerTask.cancel(false);
+        }
+        long period = Math.max(1, maxMillis / 4);
+        sealTimerTask = sealTimer.scheduleAtFixedRate(this::sealExpiredBlock, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the seal timer on a scheduler shared with other ledgers instead of starting a thread for this ledger.
+     * The shared scheduler is not shut down when the ledger is closed. Used by LedgerRegistry.
+     * @param timer The shared scheduler.
+     */
+    void useSharedTimer(ScheduledExecutorService timer) {
+        commitLock.writeLock().lock();
+        try {
+            sharedTimer = timer;
+            if (sealTimer != null && sealTimer != timer) {
+                // Move a running timer to the shared scheduler
+                sealTimer.shutdown();
+                sealTimer = null;
+                startSealTimer();
+            }
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Seals full blocks on a background thread instead of in the transaction that fills them, so that the
+     * transaction does not pay for hashing the block and adding it to the chain. While a block is being sealed,
+     * new transactions are added to the next candidate block. Balances, blocks and validation only reflect
+     * blocks that have been sealed; use whenSealed() or awaitSealing() to wait for them. Sealing is inline by
+     * default.
+     * @param async True to seal blocks on a background thread; false to seal them inline again.
+     */
+    public void setAsyncSealing(boolean async) {
+        commitLock.writeLock().lock();
+        try {
+            if (async && sealer == null) {
+                sealer = Executors.newSingleThreadExecutor(task -> {
+                    Thread thread = new Thread(task, "ledger-sealer-" + name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            } else if (!async && sealer != null) {
+                // Blocks queued for the sealer must be sealed before any block is sealed inline
+                sealer.shutdown();
+                sealer = null;
+                awaitSealing();
+            }
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until every block that was full when this method was called has been sealed.
+     * Throws a LedgerException if a block could not be sealed.
+     */
+    public void awaitSealing() {
+        Block block = candidateBlock.getPreviousBlock();
+        if (block == null) {
+            return;
+        }
+        try {
+            block.sealed.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof LedgerException) {
+                throw (LedgerException) e.getCause();
+            }
+            throw new LedgerException("seal block", String.valueOf(e.getCause()));
+        }
+    }
+
+    /**
+     * Returns a future that completes with the block holding the given transaction once the block has been sealed
+     * and added to the chain. The future completes exceptionally if the block could not be sealed. Actions that
+     * depend on the future run on the sealer thread unless they are added with the async methods.
+     * Throws a LedgerException if the transaction does not exist.
+     * @param transactionId The unique ID of the transaction.
+     * @return              The future of the transaction's block. It completes with null if the block is from
+     *                      before the snapshot the ledger was restored from and not in the block archive.
+     */
+    public CompletableFuture<Block> whenSealed(String transactionId) {
+        long location = transactionIndex.find(transactionId);
+        if (location < 0) {
+            throw new LedgerException("when sealed", "Transaction " + transactionId + " does not exist.");
+        }
+        int blockNumber = TransactionIndex.blockNumber(location);
+        Block block = blockStore.get(blockNumber);
+        if (block != null) {
+            return block.sealed;
+        }
+        if (blockNumber > baseBlockNumber) {
+            // The block is the candidate block or is waiting for the sealer; it is near the end of the chain
+            for (block = candidateBlock; block != null; block = block.getPreviousBlock()) {
+                if (block.getBlockNumber() == blockNumber) {
+                    return block.sealed;
+                }
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void initAccountLocks() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            accountLocks[i] = new ReentrantLock();
+        }
     }
 
     public String getName() {
@@ -43,8 +474,37 @@ public class Ledger {
         return description;
     }
 
+    /**
+     * Retrieves a sealed block. Archived blocks are read back through the block store's cache.
+     * @param blockNumber   The block number.
+     * @return              The block, or null if no such block has been sealed or it is from before the snapshot
+     *                      the ledger was restored from and not in the block archive.
+     */
     public Block getBlock(int blockNumber) {
-        return blockMap.get(blockNumber);
+        return blockStore.get(blockNumber);
+    }
+
+    /**
+     * Returns the ledger's block store, which reports the number of hot and archived blocks and the hit and
+     * miss counts of its cache.
+     */
+    public BlockStore getBlockStore() {
+        return blockStore;
+    }
+
+    /**
+     * Enables tiered block storage: only the given number of most recent blocks are kept on the heap, and older
+     * blocks are written to segment files in the given directory and read back through an LRU cache when needed.
+     * Blocks already on the heap beyond the hot window are archived immediately. Segments already in the directory
+     * are reused as far as their blocks match the chain, so a restored ledger can still read the archived blocks
+     * from before its snapshot.
+     * @param directory The directory to write archive segments to.
+     * @param hotBlocks The number of most recent blocks kept on the heap; at least 1.
+     * @param cacheSize The maximum number of archived blocks kept in the cache.
+     */
+    public void setBlockArchive(Path directory, int hotBlocks, int cacheSize) {
+        blockStore.enableArchive(directory, hotBlocks, cacheSize, BlockStore.DEFAULT_SEGMENT_SIZE);
+        blockStore.evict(getBlocks());
     }
 
     /**
@@ -54,178 +514,724 @@ public class Ledger {
      * @return          the newly created Account instance.
      */
     public Account createAccount(String accountId) {
-        // if account id is already in use throw an exception
-        if (candidateBlock.accountBalanceMap.containsKey(accountId)) {
-            throw new LedgerException("create account", "Could not create account " +
-                    accountId + "; account already exists.");
+        // Creating an account can change the shape of the account state, which writers walk without locking
+        commitLock.writeLock().lock();
+        try {
+            // if account id is already in use throw an exception
+            if (candidateBlock.accountBalanceMap.containsKey(accountId)) {
+                throw new LedgerException("create account", "Could not create account " +
+                        accountId + "; account already exists.");
+            }
+
+            if (journal != null) {
+                journal.appendAccount(accountId);
+            }
+            candidateBlock.accountBalanceMap.create(accountId);
+            return new Account(accountId, 0);
+        } finally {
+            commitLock.writeLock().unlock();
+            if (journal != null) {
+                journal.commit();
+            }
         }
+    }
 
-        Account account = new Account(accountId, 0);
-        candidateBlock.accountBalanceMap.put(accountId, account);
-        return account;
+    /**
+     * Returns true if an account with the given address has been created, even if no sealed block holds it yet.
+     * Helper function to ShardedLedger.transfer().
+     */
+    boolean hasAccount(String address) {
+        commitLock.readLock().lock();
+        try {
+            return candidateBlock.accountBalanceMap.containsKey(address);
+        } finally {
+            commitLock.readLock().unlock();
+        }
     }
 
     /**
      * Processes a transaction. Verifies that the transaction is valid and throws a LedgerException if it is not.
      * Valid transactions have valid payer and receiver IDs, an amount greater than zero, and a fee that is
-     * greater than or equal to the minimum fee value. They may optionally include a note string.
+     * greater than or equal to the minimum fee value, and a transaction ID that has not been used before.
+     * They may optionally include a note string.
+     * Once the transaction has been added to the candidate block it is not undone: if it fills the block and the
+     * block then cannot be sealed, the failure is reported by whenSealed() and awaitSealing(), as it is when
+     * blocks are sealed asynchronously, and the transaction ID is still returned.
      * @param transaction   The requested transaction.
      * @return              The transaction ID of the transaction, if successful.
      */
     public String processTransaction(Transaction transaction) {
+        checkTransaction(transaction);
+        String payerAddress = transaction.getPayerAddress(), receiverAddress = transaction.getReceiverAddress();
+        // Hash the Merkle leaf before taking any lock
+        byte[] transactionHash = Digester.hash(transaction);
+
+        // Lock the payer's and receiver's stripes in a fixed order to avoid deadlock
+        int payerStripe = stripe(payerAddress), receiverStripe = stripe(receiverAddress);
+        ReentrantLock first = accountLocks[Math.min(payerStripe, receiverStripe)];
+        ReentrantLock second = accountLocks[Math.max(payerStripe, receiverStripe)];
+        Block fullBlock;
+        while (true) {
+            commitLock.readLock().lock();
+            first.lock();
+            second.lock();
+            try {
+                Block block = candidateBlock;
+                if (applyTransaction(block, transaction, transactionHash, payerAddress, receiverAddress)) {
+                    fullBlock = block.isFull() ? block : null;
+                    break;
+                }
+            } finally {
+                second.unlock();
+                first.unlock();
+                commitLock.readLock().unlock();
+            }
+            // The candidate block is full; commit it (unless another thread already has) and try again
+            commitFullBlock();
+        }
+
+        // If the transaction filled the candidate block, add it to the blockchain
+        if (fullBlock != null) {
+            commitFilledBlock();
+        }
+
+        // Make the transaction durable before reporting success
+        if (journal != null) {
+            journal.commit();
+        }
+        return transaction.getTransactionId();
+    }
+
+    /**
+     * Processes a batch of transactions, in order, as a single unit of work: the batch takes the commit lock once
+     * instead of locking accounts per transaction, fills and commits as many blocks as it needs, and is made
+     * durable with a single journal commit. Each transaction is validated against the balances left by the
+     * transactions before it; invalid transactions are rejected without affecting the rest of the batch.
+     * A transaction is reported accepted once it has been added to a block, whether or not the block has been
+     * committed yet; a block that cannot be sealed does not undo its transactions, and the failure is reported by
+     * whenSealed() and awaitSealing(). A rejected transaction has not changed the ledger.
+     * @param transactions  The transactions to process.
+     * @return              The result of each transaction, in the same order.
+     */
+    public List<TransactionResult> processTransactions(List<Transaction> transactions) {
+        // Hash the Merkle leaves before taking the lock
+        byte[][] transactionHashes = new byte[transactions.size()][];
+        for (int i = 0; i < transactions.size(); i++) {
+            transactionHashes[i] = Digester.hash(transactions.get(i));
+        }
+
+        List<TransactionResult> results = new ArrayList<>(transactions.size());
+        commitLock.writeLock().lock();
+        try {
+            for (int i = 0; i < transactions.size(); i++) {
+                Transaction transaction = transactions.get(i);
+                Block block;
+                try {
+                    checkTransaction(transaction);
+                    if (candidateBlock.isFull()) {
+                        // A concurrent transaction filled the block but has not committed it yet
+                        commitFullBlock();
+                    }
+                    block = candidateBlock;
+                    applyTransaction(block, transaction, transactionHashes[i], transaction.getPayerAddress(),
+                            transaction.getReceiverAddress());
+                } catch (LedgerException e) {
+                    results.add(TransactionResult.rejected(transaction.getTransactionId(), e.getCode(),
+                            e.getReason()));
+                    continue;
+                }
+                // The transaction is in the block now, so it is accepted whatever happens to the block
+                results.add(TransactionResult.accepted(transaction.getTransactionId(), block.getBlockNumber()));
+                // The write lock is held, so the block can be committed as soon as it is full
+                if (block.isFull()) {
+                    commitFilledBlock();
+                }
+            }
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+        runMaintenance();
+
+        // Make the whole batch durable at once
+        if (journal != null) {
+            journal.commit();
+        }
+        return results;
+    }
+
+    /**
+     * Checks the parts of a transaction that do not depend on account balances: the fee is at least the minimum
+     * fee, the amount is greater than zero, and a payer and receiver are given.
+     * Helper function to processTransaction() and processTransactions().
+     */
+    private static void checkTransaction(Transaction transaction) {
         // Validate transaction amount > 0 and fee > minimum fee
         if (transaction.getFee() < MIN_TRANSACTION_FEE) {
-            throw new LedgerException("process transaction", "Fee too low; minimum transaction fee = " + MIN_TRANSACTION_FEE);
+            throw new LedgerException("process transaction", LedgerException.Code.FEE_TOO_LOW,
+                    "Fee too low; minimum transaction fee = " + MIN_TRANSACTION_FEE);
         }
         if (transaction.getAmount() <= 0) {
-            throw new LedgerException("process transaction", "Transaction amount must be greater than zero.");
+            throw new LedgerException("process transaction", LedgerException.Code.INVALID_AMOUNT,
+                    "Transaction amount must be greater than zero.");
+        }
+        // Validate payer and receiver accounts were given
+        if (transaction.getPayerAddress() == null || transaction.getReceiverAddress() == null) {
+            throw new LedgerException("process transaction", LedgerException.Code.INVALID_ACCOUNT,
+                    "Invalid payer or receiver");
         }
+    }
 
-        Account payer = transaction.getPayer(), receiver = transaction.getReceiver(),
-                master = this.candidateBlock.accountBalanceMap.get(MASTER);
-        // Validate payer and receiver accounts exist
-        if (payer == null || receiver == null) {
-            throw new LedgerException("process transaction", "Invalid payer or receiver");
+    /**
+     * Validates a transaction against the candidate block's account balances, adds it to the candidate block and
+     * updates the balances. Called with the payer's and receiver's stripes locked.
+     * Helper function to processTransaction().
+     * @return  False if the candidate block is already full and the transaction was not added.
+     */
+    private boolean applyTransaction(Block block, Transaction transaction, byte[] transactionHash,
+                                     String payerAddress, String receiverAddress) {
+        AccountState accounts = block.accountBalanceMap;
+        // Validate payer and receiver accounts exist, and resolve them to their ordinals
+        int payer = accounts.ordinalOf(payerAddress), receiver = accounts.ordinalOf(receiverAddress);
+        if (payer < 0 || receiver < 0) {
+            throw new LedgerException("process transaction", LedgerException.Code.INVALID_ACCOUNT,
+                    "Invalid payer or receiver");
         }
         // Verify payer has high enough balance to cover transaction
-        if (payer.getBalance() < transaction.getAmount() + transaction.getFee()) {
-            throw new LedgerException("process transaction", "Payer balance too low.");
+        long amount = transaction.getAmount(), fee = transaction.getFee();
+        if (accounts.balance(payer) < amount + fee) {
+            throw new LedgerException("process transaction", LedgerException.Code.INSUFFICIENT_BALANCE,
+                    "Payer balance too low.");
         }
 
-        int amount = transaction.getAmount(), fee = transaction.getFee();
-        // Update the account balances
-        payer.setBalance(payer.getBalance() - amount - fee);
-        receiver.setBalance(receiver.getBalance() + amount);
-        master.setBalance(master.getBalance() + fee);
+        // Claim the ID in the transaction index, which rejects a duplicate under its own stripe lock
+        String transactionId = transaction.getTransactionId();
+        if (!transactionIndex.claim(transactionId)) {
+            throw new LedgerException("process transaction", LedgerException.Code.DUPLICATE_TRANSACTION,
+                    "Transaction " + transactionId + " already exists.");
+        }
+        // The block records a copy with the accounts' ordinals; the caller's transaction, which may be a read-only
+        // view of one in a sealed block, is not changed
+        transaction = transaction.withOrdinals(payer, receiver);
+        // Add the transaction to the candidate block and record it in the journal, in the same order
+        int slot;
+        try {
+            synchronized (sequencer) {
+                if (block.isFull()) {
+                    transactionIndex.release(transactionId);
+                    return false;
+                }
+                if (journal != null) {
+                    journal.appendTransaction(transaction);
+                }
+                slot = block.transactionList.size();
+                block.add(transaction, transactionHash);
+            }
+        } catch (RuntimeException e) {
+            transactionIndex.release(transactionId);
+            throw e;
+        }
+        transactionIndex.locate(transactionId, block.getBlockNumber(), slot);
+        // The payer's and receiver's stripes are held, so their postings are still added in slot order
+        accountHistory.add(payerAddress, block.getBlockNumber(), slot);
+        if (!receiverAddress.equals(payerAddress)) {
+            accountHistory.add(receiverAddress, block.getBlockNumber(), slot);
+        }
 
-        // Add the transaction to the candidate block.
-        // If the candidate block has reached the correct number of transactions, add it to the blockchain
-        candidateBlock.add(transaction);
-        if (candidateBlock.transactionList.size() == TRANSACTIONS_PER_BLOCK) {
-            // Compute and set the candidate block's hash
-            String hash = candidateBlock.hashBlock(this.getSeed());
-            candidateBlock.setHash(hash);
+        // Update the account balances. Trie nodes shared with earlier blocks are copied on their first change.
+        accounts.setBalance(payer, accounts.balance(payer) - amount - fee);
+        accounts.setBalance(receiver, accounts.balance(receiver) + amount);
+        block.pendingFees.add(fee);
+        return true;
+    }
 
-            // Add candidate block to the block map
-            blockMap.put(candidateBlock.getBlockNumber(), candidateBlock);
+    /**
+     * Commits the candidate block to the blockchain if it is full. Excludes all other writers while the block is
+     * committed.
+     */
+    private void commitFullBlock() {
+        commitLock.writeLock().lock();
+        try {
+            Block block = candidateBlock;
+            if (!block.isFull()) {
+                // Another thread committed the block first
+                return;
+            }
+            commitBlock(block);
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+        runMaintenance();
+    }
 
-            // Create a new candidate block
-            candidateBlock = new Block(candidateBlock.getBlockNumber() + 1, candidateBlock.getHash(),
-                             "", new ArrayList<>(), candidateBlock.accountBalanceMap, candidateBlock);
+    /**
+     * Commits the candidate block that the calling thread's transaction has just filled. The transaction stays in
+     * the block whatever happens, so a failure is not reported as the transaction's: a block that cannot be sealed
+     * holds the failure in its sealed future, and archiving and snapshots are retried after the next block.
+     * Helper function to processTransaction() and processTransactions().
+     */
+    private void commitFilledBlock() {
+        try {
+            commitFullBlock();
+        } catch (LedgerException e) {
+            // Reported by whenSealed() and awaitSealing()
         }
+    }
 
-        return transaction.getTransactionId();
+    /**
+     * Commits the candidate block if its sealing policy's time limit has passed since its first transaction.
+     * Run periodically by the seal timer.
+     */
+    private void sealExpiredBlock() {
+        commitLock.writeLock().lock();
+        try {
+            Block block = candidateBlock;
+            long maxMillis = block.getSealingPolicy().getMaxMillis();
+            // The timer is cleared when the ledger is closed; a shared timer may still run a cancelled check once
+            if (sealTimer == null || maxMillis == 0 || block.transactionList.isEmpty() || block.isFull() ||
+                    System.nanoTime() - block.openedAt < TimeUnit.MILLISECONDS.toNanos(maxMillis)) {
+                return;
+            }
+            if (journal != null) {
+                journal.appendCut(block.getBlockNumber());
+            }
+            commitBlock(block);
+        } catch (RuntimeException e) {
+            // The block's sealed future holds the failure; an exception would cancel the timer
+            return;
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+        if (journal != null) {
+            journal.commit();
+        }
+        try {
+            runMaintenance();
+        } catch (RuntimeException e) {
+            // An exception would cancel the timer; the next sealed block archives and snapshots again
+        }
+    }
+
+    /**
+     * Commits the candidate block at the point where the journal being replayed recorded that it was sealed by its
+     * policy's time limit.
+     * Helper function to recover().
+     */
+    private void cutBlock(int blockNumber) {
+        commitLock.writeLock().lock();
+        try {
+            Block block = candidateBlock;
+            if (block.getBlockNumber() != blockNumber || block.transactionList.isEmpty()) {
+                throw new LedgerException("recover ledger", "Block " + blockNumber + " does not match the journal.");
+            }
+            commitBlock(block);
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+        runMaintenance();
+    }
+
+    /**
+     * Commits the candidate block to the blockchain. Called with the commit lock held exclusively while the block's
+     * fees are credited to the master account and a new candidate block is created, then seals the block, or hands
+     * it to the background sealer if sealing is asynchronous.
+     * Helper function to commitFullBlock(), sealExpiredBlock() and cutBlock().
+     */
+    private void commitBlock(Block block) {
+        AccountState accounts = block.accountBalanceMap;
+        int master = accounts.ordinalOf(MASTER);
+        accounts.setBalance(master, accounts.balance(master) + block.pendingFees.sumThenReset());
+        // A snapshot of this block resumes the journal after its last transaction, or after its cut record
+        block.journalPosition = journal != null ? journal.position() : replayPosition;
+
+        // Create a new candidate block under the current policy; its previous hash is set when the full block
+        // is sealed
+        block.nextPolicy = sealingPolicy;
+        candidateBlock = new Block(block.getBlockNumber() + 1, null,
+                "", new ArrayList<>(), block.accountBalanceMap, block, sealingPolicy);
+
+        if (sealer == null) {
+            sealBlock(block);
+        } else {
+            // Submitted under the write lock so that the sealer receives blocks in chain order
+            sealer.execute(() -> sealBlock(block));
+        }
+    }
+
+    /**
+     * Hashes a full block, adds it to the block store and the journal, and completes its sealed future.
+     * Blocks are sealed one at a time in chain order, so the previous block's hash is known.
+     * Helper function to commitBlock().
+     * @param block The full block.
+     */
+    private void sealBlock(Block block) {
+        try {
+            Block previousBlock = block.getPreviousBlock();
+            if (previousBlock != null) {
+                if (previousBlock.sealed.isCompletedExceptionally()) {
+                    throw new LedgerException("seal block", "Block " + previousBlock.getBlockNumber() +
+                            " could not be sealed.");
+                }
+                block.setPreviousHash(previousBlock.getHash());
+            }
+            // Compute and set the block's hash
+            block.seal(this.getSeed());
+            block.summary = summaryIndex.add(block);
+            // Move the transactions off the heap before the block is published; it is read-only from now on
+            block.pack();
+
+            // Add the block to the block store
+            blockStore.put(block);
+            LedgerJournal journal = this.journal;
+            if (journal != null) {
+                journal.appendBlock(block);
+            }
+            view = new LedgerView(block);
+            if (commitLock.isWriteLockedByCurrentThread()) {
+                // Sealed inline: archive and snapshot once the commit lock is released, so that their I/O does
+                // not hold up other writers
+                unmaintained.set(block);
+            } else {
+                maintain(block);
+            }
+        } catch (RuntimeException e) {
+            block.sealed.completeExceptionally(e);
+            throw e;
+        }
+        block.sealed.complete(block);
+        for (BlockSubscription subscription : subscriptions) {
+            subscription.publish(block);
+        }
+    }
+
+    /**
+     * Archives and snapshots after the newest block sealed inline, unless the calling thread still holds the
+     * commit lock; the outermost caller runs them once it has released it.
+     * Helper function to commitFullBlock(), sealExpiredBlock(), cutBlock() and processTransactions().
+     */
+    private void runMaintenance() {
+        if (commitLock.isWriteLockedByCurrentThread()) {
+            return;
+        }
+        Block block = unmaintained.getAndSet(null);
+        if (block != null) {
+            maintain(block);
+        }
+    }
+
+    /**
+     * Moves the blocks that fell out of the hot window to the archive, and writes a snapshot if the block
+     * reached the next multiple of the snapshot interval. Blocks sealed inline are handed over by
+     * runMaintenance() and may be skipped when a later block was sealed first; the later block covers them.
+     * Helper function to sealBlock() and runMaintenance().
+     * @param block The sealed block.
+     */
+    private void maintain(Block block) {
+        synchronized (snapshotLock) {
+            blockStore.evict(block.getBlockNumber());
+            LedgerJournal journal = this.journal;
+            if (journal != null && snapshotInterval > 0 &&
+                    block.getBlockNumber() / snapshotInterval > snapshotUpTo / snapshotInterval) {
+                writeSnapshot(journal, block);
+            }
+        }
+    }
+
+    /**
+     * Returns the lock stripe of an account address.
+     */
+    private static int stripe(String address) {
+        int h = address.hashCode();
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Returns an immutable view of the account balances as of the most recently sealed block. Reads through the
+     * view do not lock and are not affected by concurrent transactions; use one view for several reads that must
+     * be consistent with each other.
+     * @return  The view of the latest sealed block.
+     */
+    public LedgerView getView() {
+        return view;
+    }
+
+    /**
+     * Subscribes a listener to the blocks sealed from now on. See subscribe(BlockListener, int, int).
+     * @param listener  The listener to notify of each sealed block.
+     * @return          The subscription, which must be closed when it is no longer needed.
+     */
+    public BlockSubscription subscribe(BlockListener listener) {
+        return subscribe(listener, 0, DEFAULT_SUBSCRIPTION_CAPACITY);
+    }
+
+    /**
+     * Subscribes a listener to the ledger's sealed blocks. The listener is notified of each block, in chain order,
+     * from the subscription's own delivery thread. Sealing never waits for a listener: up to the given number of
+     * sealed blocks are queued for the subscription, and blocks sealed while its queue is full are read back from
+     * the block store once the listener catches up.
+     * Throws a LedgerException if fromBlock is negative or capacity is less than 1.
+     * @param listener  The listener to notify of each sealed block.
+     * @param fromBlock The first block number to deliver, or 0 to deliver only blocks sealed after this call.
+     *                  Earlier blocks are delivered from the block store before new ones.
+     * @param capacity  The maximum number of sealed blocks queued for delivery.
+     * @return          The subscription, which must be closed when it is no longer needed.
+     */
+    public BlockSubscription subscribe(BlockListener listener, int fromBlock, int capacity) {
+        if (fromBlock < 0) {
+            throw new LedgerException("subscribe", "Block number must not be negative.");
+        }
+        if (capacity < 1) {
+            throw new LedgerException("subscribe", "Subscription capacity must be at least 1.");
+        }
+        // Blocks sealed after the view is read are either queued for the subscription or read back by its delivery
+        // thread before it waits for the queue
+        int cursor = fromBlock == 0 ? view.getBlockNumber() + 1 : fromBlock;
+        BlockSubscription subscription = new BlockSubscription(this, listener, cursor, capacity);
+        subscriptions.add(subscription);
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Stops notifying a closed subscription. Called by BlockSubscription.close().
+     */
+    void unsubscribe(BlockSubscription subscription) {
+        subscriptions.remove(subscription);
     }
 
     /**
      * Gets the account balance of the specified account. Raises a LedgerException if the account does not exist.
      * The account may exist, but the block whose accountBalanceMap it was added to may not have been added to the
      * blockchain yet. In such cases, a LedgerException will be thrown as if the account does not exist.
+     * The balance is read from the view of the most recently sealed block, without locking.
      * @param address   The unique account ID.
      * @return          The account's balance.
      */
-    public int getAccountBalance(String address) {
-        // No accounts have been added to the ledger yet if the genesis block has not been filled with transactions.
-        if (candidateBlock.getBlockNumber() == 1) {
-            throw new LedgerException("get account balance", "Account " + address +
-                    " has not yet been added to the ledger.");
-        }
+    public long getAccountBalance(String address) {
+        return view.getAccountBalance(address);
+    }
 
-        Account account = candidateBlock.previousBlock.accountBalanceMap.get(address);
-        if (account == null) {
-            // Account was not found
-            throw new LedgerException("get account balance", "Account " + address +
-                    " does not exist or has not been added to the ledger yet.");
-        } else {
-            return account.getBalance();
-        }
+    /**
+     * Gets the account balance of the specified account with a proof of it, as of the most recently sealed block.
+     * The proof can be checked with BalanceProof.verify() against the block's hash, without the block's other
+     * accounts. Raises a LedgerException if the account does not exist in that block.
+     * @param address   The unique account ID.
+     * @return          The balance proof, which holds the balance.
+     */
+    public BalanceProof getAccountBalanceProof(String address) {
+        return view.getAccountBalanceProof(address);
     }
 
     /**
-     * Retrieves the account balance map of the most recently completed block.
+     * Retrieves the account balance map of the most recently sealed block. The map is read-only and does not
+     * change when later blocks are sealed.
      * @return  The map of account IDs and associated accounts.
      */
     public Map<String, Account> getAccountBalances() {
-        // Return the account balance map of the most recently completed block.
-        if (candidateBlock == genesisBlock) {
-            // Accounts are only added to the ledger when blocks are added to the chain.
-            throw new LedgerException("get account balances",
-                    "Cannot return account balance map; no blocks have been committed to the blockchain.");
-        } else {
-            return candidateBlock.previousBlock.accountBalanceMap;
-        }
+        return view.getAccountBalances();
     }
 
     /**
      * Retrieves the specified transaction. Returns it to be displayed.
+     * Only transactions in blocks that have been committed to the blockchain are returned; transactions in blocks
+     * up to the snapshot a ledger was restored from are not held in memory and are only returned if the block
+     * archive, reused from before the restore, still holds their blocks.
      * @param transactionId The unique ID of the queried transaction.
-     * @return              The specified Transaction object, or null if it wasn't found.
-     */
-    public Transaction getTransaction(String transactionId) {
-        // Iterate through the block map - there is no block 0.
-        for (int i = blockMap.size(); i > 0; i--) {
-            Block block = blockMap.get(i);
-            // Iterate through the block's transactionList to find the transaction.
-            for (Transaction transaction : block.transactionList) {
-                // Return the transaction if found.
-                if (Objects.equals(transaction.getTransactionId(), transactionId)) {
-                    return  transaction;
-                }
-            }
+     * @return              A read-only view of the transaction, or null if it wasn't found.
+     */
+    public TransactionView getTransaction(String transactionId) {
+        // Look up the block and slot of the transaction in the index.
+        long location = transactionIndex.find(transactionId);
+        if (location < 0) {
+            // The transaction was not found.
+            return null;
+        }
+        // The block is not in the block store if the transaction is still in the candidate block.
+        Block block = blockStore.get(TransactionIndex.blockNumber(location));
+        return block == null ? null : block.transactionList.get(TransactionIndex.slot(location));
+    }
+
+    /**
+     * Builds a proof that a transaction is included in its block: the Merkle sibling path from the transaction to
+     * the block's Merkle root, and the block header. The proof can be checked with MerkleProof.verify() without
+     * the rest of the block. Throws a LedgerException if the transaction does not exist or its block has not been
+     * sealed yet, or is from before the snapshot the ledger was restored from and not in the block archive.
+     * @param transactionId The unique ID of the transaction.
+     * @return              The inclusion proof.
+     */
+    public MerkleProof getInclusionProof(String transactionId) {
+        long location = transactionIndex.find(transactionId);
+        if (location < 0) {
+            throw new LedgerException("get inclusion proof", "Transaction " + transactionId + " does not exist.");
+        }
+        Block block = blockStore.get(TransactionIndex.blockNumber(location));
+        if (block == null) {
+            throw new LedgerException("get inclusion proof", "The block of transaction " + transactionId +
+                    " is not available.");
         }
-        // The transaction was not found.
-        return null;
+        return MerkleProof.build(block, TransactionIndex.slot(location));
     }
 
     /**
-     * Retrieve the number of blocks in the blockchain.
+     * Summarizes the transactions of a range of sealed blocks: their number, total amount and fees, and smallest
+     * and largest amount. The summary is combined from the per-block summaries in O(log blocks), without reading
+     * any transactions. Blocks from before the snapshot the ledger was restored from are not summarized.
+     * @param fromBlock The first block number to include.
+     * @param toBlock   The last block number to include.
+     * @return          The summary, or null if no summarized block is in the range.
+     */
+    public BlockSummary summarizeBlocks(int fromBlock, int toBlock) {
+        return summaryIndex.summarize(fromBlock, toBlock);
+    }
+
+    /**
+     * Summarizes the transactions of the blocks sealed in a window of time, in O(log blocks).
+     * Blocks from before the snapshot the ledger was restored from are not summarized, and blocks replayed from
+     * the journal carry the time they were replayed.
+     * @param fromMillis    The start of the window, inclusive, in milliseconds since the epoch.
+     * @param toMillis      The end of the window, exclusive, in milliseconds since the epoch.
+     * @return              The summary, or null if no summarized block was sealed in the window.
+     */
+    public BlockSummary summarizeTime(long fromMillis, long toMillis) {
+        return summaryIndex.summarizeTime(fromMillis, toMillis);
+    }
+
+    /**
+     * Retrieves a page of the transactions an account paid or received, in the order they were accepted, from
+     * the sealed blocks starting at the given block number.
+     * Equivalent to getAccountHistory(address, fromBlock, 0, limit).
+     * @param address   The account address.
+     * @param fromBlock The first block number to include.
+     * @param limit     The maximum number of transactions to return.
+     * @return          The page of transactions and the cursor the next page starts at.
+     */
+    public HistoryPage getAccountHistory(String address, int fromBlock, int limit) {
+        return getAccountHistory(address, fromBlock, 0, limit);
+    }
+
+    /**
+     * Retrieves a page of the transactions an account paid or received, in the order they were accepted, from
+     * the sealed blocks starting at the given block number and slot (position in the block). A page holds
+     * exactly limit transactions unless it is the last one, and ends with the block and slot of the next
+     * transaction, so paging resumes inside a block that did not fit. The time taken is proportional to the size
+     * of the page.
+     * Blocks from before the snapshot the ledger was restored from are not held in memory and are skipped.
+     * @param address   The account address.
+     * @param fromBlock The first block number to include.
+     * @param fromSlot  The first slot to include in the first block.
+     * @param limit     The maximum number of transactions to return.
+     * @return          The page of transactions and the cursor the next page starts at.
+     */
+    public HistoryPage getAccountHistory(String address, int fromBlock, int fromSlot, int limit) {
+        limit = Math.min(Math.max(limit, 1), Integer.MAX_VALUE - 1);
+        long from = fromBlock > baseBlockNumber ? TransactionIndex.location(fromBlock, Math.max(fromSlot, 0)) :
+                TransactionIndex.location(baseBlockNumber + 1, 0);
+        // Fetch one extra posting to find out where the next page starts
+        long[] locations = accountHistory.find(address, from, getBlocks(), limit + 1);
+        int count = Math.min(locations.length, limit);
+        List<TransactionView> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Block block = blockStore.get(TransactionIndex.blockNumber(locations[i]));
+            transactions.add(block.transactionList.get(TransactionIndex.slot(locations[i])));
+        }
+        if (locations.length > limit) {
+            return new HistoryPage(transactions, TransactionIndex.blockNumber(locations[limit]),
+                    TransactionIndex.slot(locations[limit]));
+        }
+        return new HistoryPage(transactions, 0, 0);
+    }
+
+    /**
+     * Checks whether a transaction ID is in use, including by transactions in the candidate block. The index of
+     * a restored ledger still holds the transactions from before its snapshot, so their IDs remain in use even
+     * though getTransaction() and getBlock() can only return them from a reused block archive.
+     * @param transactionId The transaction ID.
+     * @return              True if a transaction with the ID has been processed.
+     */
+    public boolean containsTransaction(String transactionId) {
+        return transactionIndex.contains(transactionId);
+    }
+
+    /**
+     * Returns the number of the block a transaction was added to, which may still be the candidate block.
+     * @param transactionId The transaction ID.
+     * @return              The block number, or 0 if no transaction has the ID.
+     */
+    int blockNumberOf(String transactionId) {
+        long location = transactionIndex.find(transactionId);
+        return location < 0 ? 0 : TransactionIndex.blockNumber(location);
+    }
+
+    /**
+     * Retrieve the number of blocks in the blockchain. Blocks that are full but not yet sealed are not counted.
      * @return  the number of blocks.
      */
     public int getBlocks() {
-        return blockMap.size();
+        return view.getBlockNumber();
     }
 
     /**
      * Validates the state of the blockchain. Verifies that the account balances and transactions
-     * of the committed block have not been altered by re-computing the hash of each block's previousBlock
-     * and comparing the hash to the previousHash field. Verifies that all account balances are greater
-     * than or equal to zero, and they sum to the master account's starting balance.
+     * of the committed blocks have not been altered by re-computing the hash of each block, and that
+     * each block's previousHash field matches the hash of its previousBlock. Verifies that all account balances
+     * are greater than or equal to zero, and they sum to the master account's starting balance.
+     * Only blocks committed since the last successful validation are checked; use validateAll() to check
+     * the whole chain. Blocks are validated in parallel by the ledger's LedgerValidator.
      * Throws a LedgerException if the blockchain is invalid.
      */
     public void validate() {
-        // Validate the blockchain block by block
-        for (int i = 1; i <= blockMap.size(); i++) {
-            Block block = blockMap.get(i);
-
-            // Check for correct number of transactions per block
-            if (block.transactionList.size() != TRANSACTIONS_PER_BLOCK) {
-                throw new LedgerException("Validation error", "Block " + block.getBlockNumber() +
-                        " has an invalid number of transactions.");
-            }
+        validate(verifiedUpTo + 1);
+    }
 
-            // Check that all account balances (including master's) sum to Integer.MAX_VALUE (master's starting balance)
-            int sum = 0;
-            for (Map.Entry<String, Account> entry : block.accountBalanceMap.entrySet()) {
-                if (entry.getValue().getBalance() < 0) {
-                    throw new LedgerException("validation error", entry.getKey() + " has negative balance.");
-                }
-                sum += entry.getValue().getBalance();
-            }
-            if (sum != Integer.MAX_VALUE) {
-                throw new LedgerException("Validation error", "Block " + block.getBlockNumber() +
-                        " has invalid account balances.");
-            }
+    /**
+     * Validates every block in the blockchain, regardless of earlier validations.
+     * Throws a LedgerException if the blockchain is invalid.
+     */
+    public void validateAll() {
+        validate(1);
+    }
 
-            if (block.getBlockNumber() != 1) {  // Genesis block has block number 1, there is no 0th block
-                // Check previous hash is correct
-                String prevHash = block.previousBlock.hashBlock(this.getSeed());
-                if (!prevHash.equals(block.getPreviousHash())) {
-                    // A hash mismatch indicates that the block was altered after it was added to the chain.
-                    throw new LedgerException("Validation error", "Block " + block.getBlockNumber() +
-                            " has an incorrect previous hash.");
-                }
-            }
+    /**
+     * Validates the committed blocks from the given block number to the end of the chain, then moves the
+     * verified-up-to checkpoint to the last committed block.
+     * Helper function to validate() and validateAll().
+     * @param fromBlock The first block number to validate.
+     */
+    private synchronized void validate(int fromBlock) {
+        // Blocks up to the snapshot the ledger was restored from are not in the block store
+        fromBlock = Math.max(fromBlock, baseBlockNumber + 1);
+        int toBlock = getBlocks();
+        Block[] blocks = new Block[Math.max(0, toBlock - fromBlock + 1)];
+        for (int i = fromBlock; i <= toBlock; i++) {
+            blocks[i - fromBlock] = blockStore.get(i);
         }
+        // The first block's previous block anchors the range; it may have to be read back from the archive
+        Block previous = fromBlock > 1 ? blockStore.get(fromBlock - 1) : null;
+        if (previous == null && blocks.length > 0) {
+            previous = blocks[0].getPreviousBlock();
+        }
+        validator.validate(blocks, previous, this.getSeed(), validationListener);
+        verifiedUpTo = toBlock;
+    }
+
+    /**
+     * Returns the number of the last block verified by a successful validation, or 0 if none.
+     */
+    public int getVerifiedUpTo() {
+        return verifiedUpTo;
+    }
+
+    /**
+     * Sets the validator used to check blocks, for example to run validation on a dedicated ForkJoinPool.
+     */
+    public void setValidator(LedgerValidator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * Sets the listener that receives validation progress and throughput reports. May be null.
+     */
+    public void setValidationListener(ValidationListener validationListener) {
+        this.validationListener = validationListener;
     }
 
     /**
@@ -234,10 +1240,16 @@ public class Ledger {
      */
     public static class LedgerException extends RuntimeException {
         private final String action;
+        private final Code code;
         private final String reason;
         public LedgerException(String action, String reason) {
+            this(action, Code.OTHER, reason);
+        }
+
+        public LedgerException(String action, Code code, String reason) {
             super("Ledger Exception: " + action + " - " + reason);
             this.action = action;
+            this.code = code;
             this.reason = reason;
         }
 
@@ -245,8 +1257,34 @@ public class Ledger {
             return action;
         }
 
+        /**
+         * Returns the kind of failure, for callers that handle some failures differently; the reason describes it.
+         */
+        public Code getCode() {
+            return code;
+        }
+
         public String getReason() {
             return reason;
         }
+
+        /**
+         * Kinds of failure that callers may handle differently. Rejected transactions have one of the codes before
+         * OTHER; every other failure is OTHER.
+         */
+        public enum Code {
+            FEE_TOO_LOW,
+            INVALID_AMOUNT,
+            INVALID_ACCOUNT,
+            INSUFFICIENT_BALANCE,
+            DUPLICATE_TRANSACTION,
+            RESERVED_TRANSACTION_ID,
+            // A cross-shard transfer failed and its refund failed as well
+            TRANSFER_NOT_REFUNDED,
+            // Rejected by a mempool before reaching the ledger
+            MEMPOOL_FULL,
+            MEMPOOL_CLOSED,
+            OTHER
+        }
     }
 }
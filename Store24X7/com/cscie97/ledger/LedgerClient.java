@@ -0,0 +1,141 @@
+package com.cscie97.ledger;
+
+import java.util.Map;
+
+/**
+ * Typed API for programs that use a ledger, such as the store. Requests are method calls with typed arguments,
+ * results are returned as objects, and invalid requests throw a LedgerException carrying the action and reason,
+ * so callers neither format command strings nor parse printed output. The text CommandProcessor is an adapter
+ * over this interface.
+ */
+public interface LedgerClient {
+    /**
+     * Creates a new account with a balance of 0. Throws a LedgerException if the address is already in use.
+     * @param address   The unique account address.
+     * @return          The new account.
+     */
+    Account createAccount(String address);
+
+    /**
+     * Transfers an amount from one account to another. The payer also pays the fee to the master account.
+     * Throws a LedgerException if the transfer is invalid.
+     * @param transactionId The unique transaction ID.
+     * @param payer         The address of the paying account.
+     * @param receiver      The address of the receiving account.
+     * @param amount        The amount transferred; greater than zero.
+     * @param fee           The transaction fee; at least Ledger.MIN_TRANSACTION_FEE.
+     * @param note          A note recorded with the transaction; may be null.
+     * @return              The accepted transaction's result, with the number of the block it was added to.
+     */
+    TransactionResult transfer(String transactionId, String payer, String receiver, int amount, int fee,
+                               String note);
+
+    /**
+     * Returns an account's balance as of the most recently sealed block. Throws a LedgerException if the account
+     * is not in that block.
+     * @param address   The account address.
+     * @return          The balance.
+     */
+    long balance(String address);
+
+    /**
+     * Returns an account's balance as of the most recently sealed block with a proof of it against the block's
+     * hash. Throws a LedgerException if the account is not in that block.
+     * @param address   The account address.
+     * @return          The balance proof, which holds the balance.
+     */
+    BalanceProof balanceProof(String address);
+
+    /**
+     * Returns the balances of all accounts as of the most recently sealed block.
+     * @return  A read-only map of account addresses to accounts.
+     */
+    Map<String, Account> balances();
+
+    /**
+     * Returns true if a transaction with the given ID has been processed, including in the candidate block.
+     */
+    boolean containsTransaction(String transactionId);
+
+    /**
+     * Returns a read-only view of the transaction with the given ID, or null if it is not in a sealed block.
+     */
+    TransactionView getTransaction(String transactionId);
+
+    /**
+     * Returns the sealed block with the given number, or null if there is none.
+     */
+    Block getBlock(int blockNumber);
+
+    /**
+     * Returns the number of sealed blocks.
+     */
+    int getBlocks();
+
+    /**
+     * Validates the blocks sealed since the last validation. Throws a LedgerException if the chain is invalid.
+     */
+    void validate();
+
+    /**
+     * Validates every block. Throws a LedgerException if the chain is invalid.
+     */
+    void validateAll();
+
+    /**
+     * Returns a page of the transactions an account paid or received, starting at the given block number and slot.
+     * @param address   The account address.
+     * @param fromBlock The first block number to include.
+     * @param fromSlot  The first slot to include in the first block.
+     * @param limit     The maximum number of transactions to return.
+     * @return          The page and the block number and slot the next page starts at.
+     */
+    HistoryPage getAccountHistory(String address, int fromBlock, int fromSlot, int limit);
+
+    /**
+     * Summarizes the transactions of a range of sealed blocks.
+     * @param fromBlock The first block number to include.
+     * @param toBlock   The last block number to include.
+     * @return          The summary, or null if no summarized block is in the range.
+     */
+    BlockSummary summarizeBlocks(int fromBlock, int toBlock);
+
+    /**
+     * Summarizes the transactions of the blocks sealed in a window of time.
+     * @param fromMillis    The start of the window, inclusive, in milliseconds since the epoch.
+     * @param toMillis      The end of the window, exclusive, in milliseconds since the epoch.
+     * @return              The summary, or null if no summarized block was sealed in the window.
+     */
+    BlockSummary summarizeTime(long fromMillis, long toMillis);
+
+    /**
+     * Returns the proof that a transaction is included in its sealed block. Throws a LedgerException if there is
+     * no such transaction or its block is not available.
+     */
+    MerkleProof getInclusionProof(String transactionId);
+
+    /**
+     * Verifies an inclusion proof against the ledger's seed.
+     * @param proof         The inclusion proof.
+     * @param transaction   The transaction the proof is for.
+     * @return              True if the proof shows the transaction is in the proof's block.
+     */
+    boolean verify(MerkleProof proof, TransactionView transaction);
+
+    /**
+     * Verifies a balance proof against the ledger's seed.
+     * @param proof The balance proof.
+     * @return      True if the proof shows the account had the proof's balance in the proof's block.
+     */
+    boolean verify(BalanceProof proof);
+
+    /**
+     * Subscribes a listener to the ledger's sealed blocks, delivered in chain order from the subscription's own
+     * thread. Throws a LedgerException if fromBlock is negative or capacity is less than 1.
+     * @param listener  The listener to notify of each sealed block.
+     * @param fromBlock The first block number to deliver, or 0 to deliver only blocks sealed from now on.
+     * @param capacity  The maximum number of sealed blocks queued for delivery.
+     * @return          The subscription, which must be closed when it is no longer needed.
+     */
+    BlockSubscription subscribe(BlockListener listener, int fromBlock, int capacity);
+}
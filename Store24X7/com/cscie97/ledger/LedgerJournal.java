@@ -0,0 +1,416 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of everything needed to rebuild a Ledger: the ledger's name, description and seed, created
+ * accounts, accepted transactions, changes of the sealing policy, blocks sealed early by the policy's time limit,
+ * and the headers of committed blocks. The journal is split into numbered segment files in one directory. Records
+ * are encoded by an Encoder into a buffer that is written through a FileChannel, and each record ends with a
+ * CRC32 checksum so that a record torn by a crash can be detected and discarded.
+ * commit() makes every appended record durable. It uses group commit: one fsync covers all the records appended
+ * before it, so threads committing at the same time share a single fsync.
+ * Recovery memory-maps the segments and replays the records in order, so it runs at sequential-read speed.
+ */
+public class LedgerJournal implements Closeable {
+    public static final byte LEDGER = 'L';
+    public static final byte ACCOUNT = 'C';
+    public static final byte BLOCK = 'B';
+    public static final byte POLICY = 'P';
+    public static final byte CUT = 'X';
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+    private static final int BUFFER_SIZE = 64 << 10;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final ChannelEncoder writer;
+    private FileChannel channel;
+    private int segmentNumber;
+    // Bytes known to be on disk
+    private long synced;
+    private final Object syncLock = new Object();
+
+    /**
+     * Opens the journal in the given directory for appending, creating the directory if needed.
+     * New records are appended to the last segment.
+     * @param directory     The journal directory.
+     * @param segmentSize   Segments are closed and a new one started once they reach this size in bytes.
+     */
+    public LedgerJournal(Path directory, long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = segments(directory);
+            segmentNumber = segments.isEmpty() ? 1 : segmentNumber(segments.get(segments.size() - 1));
+            openSegment();
+            writer = new ChannelEncoder(channel, BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new LedgerException("open journal", e.getMessage());
+        }
+    }
+
+    public LedgerJournal(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Appends the record that starts every journal: the ledger's name, description and seed.
+     */
+    public synchronized void appendLedger(String name, String description, String seed) {
+        writer.beginChecksum();
+        writer.putByte(LEDGER).putByte(Encoder.VERSION);
+        writer.putString(name).putString(description).putString(seed);
+        end();
+    }
+
+    /**
+     * Appends a record of a newly created account.
+     */
+    public synchronized void appendAccount(String address) {
+        writer.beginChecksum();
+        writer.putByte(ACCOUNT).putByte(Encoder.VERSION);
+        writer.putString(address);
+        end();
+    }
+
+    /**
+     * Appends a record of an accepted transaction.
+     */
+    public synchronized void appendTransaction(Transaction transaction) {
+        writer.beginChecksum();
+        writer.writeTransaction(transaction);
+        end();
+    }
+
+    /**
+     * Appends a record of a new sealing policy, which applies from the block after the candidate block.
+     */
+    public synchronized void appendPolicy(SealingPolicy policy) {
+        writer.beginChecksum();
+        writer.putByte(POLICY).putByte(Encoder.VERSION);
+        policy.writeTo(writer);
+        end();
+    }
+
+    /**
+     * Appends a record that the candidate block was committed before it was full, because its sealing policy's
+     * time limit passed. Replay commits the block at the same point, since the time limit cannot be replayed.
+     */
+    public synchronized void appendCut(int blockNumber) {
+        writer.beginChecksum();
+        writer.putByte(CUT).putByte(Encoder.VERSION);
+        writer.putInt(blockNumber);
+        end();
+    }
+
+    /**
+     * Appends the header of a block that was committed to the chain.
+     */
+    public synchronized void appendBlock(Block block) {
+        writer.beginChecksum();
+        writer.putByte(BLOCK).putByte(Encoder.VERSION);
+        writer.putInt(block.getBlockNumber()).putString(block.getPreviousHash()).putString(block.getHash());
+        end();
+    }
+
+    /**
+     * Returns the position just after the last appended record, for use with replay(directory, from, replayer).
+     * The position packs the segment number and the offset in the segment.
+     */
+    public synchronized long position() {
+        writer.flush();
+        try {
+            return position(segmentNumber, channel.position());
+        } catch (IOException e) {
+            throw new LedgerException("write journal", e.getMessage());
+        }
+    }
+
+    public static long position(int segmentNumber, long offset) {
+        return ((long) segmentNumber << 40) | offset;
+    }
+
+    public static int segmentOf(long position) {
+        return (int) (position >>> 40);
+    }
+
+    public static long offsetOf(long position) {
+        return position & ((1L << 40) - 1);
+    }
+
+    /**
+     * Makes every record appended so far durable. If another thread's fsync already covered the records,
+     * returns without another fsync.
+     */
+    public void commit() {
+        long target;
+        synchronized (this) {
+            writer.flush();
+            target = writer.written();
+        }
+        synchronized (syncLock) {
+            if (synced >= target) {
+                return;
+            }
+            long end;
+            FileChannel current;
+            synchronized (this) {
+                end = writer.written();
+                current = channel;
+            }
+            try {
+                current.force(false);
+            } catch (IOException e) {
+                throw new LedgerException("commit journal", e.getMessage());
+            }
+            synced = end;
+        }
+    }
+
+    @Override
+    public void close() {
+        commit();
+        synchronized (this) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new LedgerException("close journal", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Finishes the current record and starts a new segment if the current one is full.
+     */
+    private void end() {
+        writer.putChecksum();
+        try {
+            if (channel.position() + writer.buffered() >= segmentSize) {
+                writer.flush();
+                channel.force(false);
+                channel.close();
+                segmentNumber++;
+                openSegment();
+                writer.setChannel(channel);
+            }
+        } catch (IOException e) {
+            throw new LedgerException("write journal", e.getMessage());
+        }
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segmentPath(directory, segmentNumber), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    /**
+     * Replays the journal in the given directory. Records are passed to the replayer in the order they were
+     * appended. A torn or corrupt record at the end of the last segment is discarded and the segment truncated
+     * so that new records can be appended after the last good one.
+     * @param directory The journal directory. Nothing is replayed if it does not exist.
+     * @param replayer  Receives the records.
+     */
+    public static void replay(Path directory, Replayer replayer) {
+        replay(directory, position(0, 0), replayer);
+    }
+
+    /**
+     * Replays the journal in the given directory, starting at a position returned by position().
+     * Segments before the position are not read.
+     * @param directory The journal directory. Nothing is replayed if it does not exist.
+     * @param from      The position of the first record to replay.
+     * @param replayer  Receives the records.
+     */
+    public static void replay(Path directory, long from, Replayer replayer) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try {
+            List<Path> segments = segments(directory);
+            for (int i = 0; i < segments.size(); i++) {
+                int number = segmentNumber(segments.get(i));
+                if (number < segmentOf(from)) {
+                    continue;
+                }
+                long offset = number == segmentOf(from) ? offsetOf(from) : 0;
+                long goodLength = replaySegment(segments.get(i), number, offset, replayer);
+                try (FileChannel file = FileChannel.open(segments.get(i), StandardOpenOption.WRITE)) {
+                    if (goodLength < file.size()) {
+                        if (i != segments.size() - 1) {
+                            throw new LedgerException("recover ledger", "Journal segment " + segments.get(i) +
+                                    " is corrupt.");
+                        }
+                        // The last records were torn by a crash; drop them.
+                        file.truncate(goodLength);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new LedgerException("recover ledger", e.getMessage());
+        }
+    }
+
+    /**
+     * Replays the records of one segment.
+     * @return  The length of the segment up to the end of the last good record.
+     */
+    private static long replaySegment(Path segment, int number, long offset, Replayer replayer)
+            throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel file = FileChannel.open(segment, StandardOpenOption.READ)) {
+            mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        }
+        mapped.position((int) Math.min(offset, mapped.limit()));
+        Decoder decoder = new Decoder(mapped);
+        CRC32 crc = new CRC32();
+        while (decoder.hasRemaining()) {
+            int start = decoder.position();
+            byte tag;
+            int end;
+            try {
+                // Find the end of the record and check its checksum before replaying it.
+                tag = skipRecord(decoder);
+                end = decoder.position();
+                crc.reset();
+                crc.update(mapped.slice(start, end - start));
+                if (decoder.getInt() != (int) crc.getValue()) {
+                    return start;
+                }
+            } catch (BufferUnderflowException | IllegalStateException e) {
+                return start;
+            }
+            mapped.position(start);
+            replayer.position(position(number, end + 4));
+            switch (tag) {
+                case LEDGER -> {
+                    decoder.expect(LEDGER);
+                    replayer.ledger(decoder.getString(), decoder.getString(), decoder.getString());
+                }
+                case ACCOUNT -> {
+                    decoder.expect(ACCOUNT);
+                    replayer.account(decoder.getString());
+                }
+                case Encoder.TRANSACTION -> replayer.transaction(decoder);
+                case BLOCK -> {
+                    decoder.expect(BLOCK);
+                    replayer.block(decoder.getInt(), decoder.getString(), decoder.getString());
+                }
+                case POLICY -> {
+                    decoder.expect(POLICY);
+                    replayer.policy(SealingPolicy.readFrom(decoder));
+                }
+                case CUT -> {
+                    decoder.expect(CUT);
+                    replayer.cut(decoder.getInt());
+                }
+            }
+            // Skip the checksum
+            mapped.position(end + 4);
+        }
+        return mapped.position();
+    }
+
+    /**
+     * Reads past one record without interpreting it.
+     * @return  The record's tag.
+     */
+    private static byte skipRecord(Decoder decoder) {
+        byte tag = decoder.buffer().get(decoder.position());
+        decoder.expect(tag);
+        switch (tag) {
+            case LEDGER -> {
+                decoder.getString();
+                decoder.getString();
+                decoder.getString();
+            }
+            case ACCOUNT -> decoder.getString();
+            case Encoder.TRANSACTION -> {
+                decoder.getString();
+                decoder.getInt();
+                decoder.getInt();
+                decoder.getString();
+                decoder.getString();
+                decoder.getString();
+            }
+            case BLOCK -> {
+                decoder.getInt();
+                decoder.getString();
+                decoder.getString();
+            }
+            case POLICY -> SealingPolicy.readFrom(decoder);
+            case CUT -> decoder.getInt();
+            default -> throw new IllegalStateException("Unknown journal record " + (char) tag);
+        }
+        return tag;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().forEach(segments::add);
+        }
+        return segments;
+    }
+
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static Path segmentPath(Path directory, int segmentNumber) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Receives journal records during replay.
+     */
+    public interface Replayer {
+        void ledger(String name, String description, String seed);
+
+        void account(String address);
+
+        /**
+         * @param decoder   Decoder positioned at a transaction written by Encoder.writeTransaction.
+         */
+        void transaction(Decoder decoder);
+
+        void block(int blockNumber, String previousHash, String hash);
+
+        void policy(SealingPolicy policy);
+
+        /**
+         * @param blockNumber   The number of the candidate block that was committed before it was full.
+         */
+        void cut(int blockNumber);
+
+        /**
+         * Called before each record is replayed, with the journal position just after the record.
+         */
+        default void position(long position) {
+        }
+    }
+}
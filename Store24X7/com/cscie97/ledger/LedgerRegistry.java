@@ -0,0 +1,243 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Hosts many named ledgers in one process, such as one chain per region or franchise. Each ledger has its own
+ * lane: a single-threaded executor that runs the work submitted to that ledger in order, so different ledgers
+ * progress in parallel while work on one ledger is never reordered. The ledgers share one scheduler thread for
+ * their seal timers; hashing already reuses one Digester per thread, and validation runs on the common
+ * ForkJoinPool. The registry counts the tasks each lane has run and failed.
+ * The registry is thread-safe.
+ */
+public class LedgerRegistry implements AutoCloseable {
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    // Journal directories of the open durable ledgers, to the names they are registered under; guarded by this
+    private final Map<Path, String> directories = new HashMap<>();
+    // Seal timers of all hosted ledgers
+    private final ScheduledExecutorService timer;
+
+    public LedgerRegistry() {
+        timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "ledger-registry-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a new in-memory ledger and registers it under its name. Throws a LedgerException if a ledger with
+     * the name is already registered.
+     * @param name          The unique ledger name.
+     * @param description   The ledger description.
+     * @param seed          The seed used to hash the ledger's blocks.
+     * @return              The client of the new ledger.
+     */
+    public synchronized LedgerClient create(String name, String description, String seed) {
+        checkAvailable(name, "create ledger");
+        return register(new Ledger(name, description, seed), null);
+    }
+
+    /**
+     * Opens a durable ledger, recovering it from its journal directory if one exists, and registers it under its
+     * name. Throws a LedgerException if a ledger with the name is already registered, the directory is already
+     * open as a registered ledger, the journal holds a ledger with another name, or recovery fails.
+     * @param directory     The journal directory.
+     * @param name          The unique ledger name.
+     * @param description   The ledger description.
+     * @param seed          The seed used to hash the ledger's blocks.
+     * @return              The client of the opened ledger.
+     */
+    public synchronized LedgerClient open(Path directory, String name, String description, String seed) {
+        checkAvailable(name, "open ledger");
+        Path key = directory.toAbsolutePath().normalize();
+        if (directories.containsKey(key)) {
+            throw new LedgerException("open ledger", "Journal directory " + directory + " is already open as ledger "
+                    + directories.get(key) + ".");
+        }
+        Ledger ledger = Ledger.open(directory, name, description, seed);
+        // A recovered ledger keeps the name in its journal
+        if (!ledger.getName().equals(name)) {
+            ledger.close();
+            throw new LedgerException("open ledger", "The journal in " + directory + " holds ledger "
+                    + ledger.getName() + ", not " + name + ".");
+        }
+        directories.put(key, name);
+        return register(ledger, key);
+    }
+
+    private void checkAvailable(String name, String action) {
+        if (lanes.containsKey(name)) {
+            throw new LedgerException(action, "Ledger " + name + " already exists.");
+        }
+    }
+
+    private LedgerClient register(Ledger ledger, Path directory) {
+        ledger.useSharedTimer(timer);
+        Lane lane = new Lane(ledger, directory);
+        lanes.put(ledger.getName(), lane);
+        return lane.client;
+    }
+
+    /**
+     * Returns the client of a registered ledger. Throws a LedgerException if there is no ledger with the name.
+     */
+    public LedgerClient getClient(String name) {
+        return lane(name).client;
+    }
+
+    /**
+     * Returns a registered ledger. Throws a LedgerException if there is no ledger with the name.
+     */
+    public Ledger getLedger(String name) {
+        return lane(name).ledger;
+    }
+
+    /**
+     * Returns true if a ledger with the name is registered.
+     */
+    public boolean contains(String name) {
+        return lanes.containsKey(name);
+    }
+
+    /**
+     * Returns the names of the registered ledgers, in alphabetical order.
+     */
+    public Set<String> getNames() {
+        return new TreeSet<>(lanes.keySet());
+    }
+
+    /**
+     * Runs a task against a ledger on the ledger's lane. Tasks submitted to the same ledger run one at a time in
+     * the order they were submitted; tasks for different ledgers run in parallel.
+     * Throws a LedgerException if there is no ledger with the name.
+     * @param name  The ledger name.
+     * @param task  The task, given the ledger's client.
+     * @return      A future of the task's result; it completes exceptionally if the task throws.
+     */
+    public <T> CompletableFuture<T> submit(String name, Function<LedgerClient, T> task) {
+        Lane lane = lane(name);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.apply(lane.client);
+            } catch (RuntimeException e) {
+                lane.failed.increment();
+                throw e;
+            } finally {
+                lane.completed.increment();
+            }
+        }, lane.executor);
+    }
+
+    /**
+     * Returns the number of tasks waiting on a ledger's lane.
+     */
+    public int getPendingTasks(String name) {
+        return lane(name).executor.getQueue().size();
+    }
+
+    /**
+     * Returns the number of tasks a ledger's lane has run, including those that failed.
+     */
+    public long getCompletedTasks(String name) {
+        return lane(name).completed.sum();
+    }
+
+    /**
+     * Returns the number of tasks on a ledger's lane that threw an exception.
+     */
+    public long getFailedTasks(String name) {
+        return lane(name).failed.sum();
+    }
+
+    /**
+     * Unregisters a ledger, waits for the tasks already submitted to it, and closes it. Its journal directory can be
+     * opened again once it is closed. Throws a LedgerException if there is no ledger with the name.
+     * @param name  The ledger name.
+     */
+    public void close(String name) {
+        Lane lane;
+        synchronized (this) {
+            lane = lane(name);
+            lanes.remove(name);
+        }
+        lane.close();
+        if (lane.directory != null) {
+            synchronized (this) {
+                directories.remove(lane.directory);
+            }
+        }
+    }
+
+    /**
+     * Closes every registered ledger and the shared seal timer.
+     */
+    @Override
+    public void close() {
+        for (String name : getNames()) {
+            try {
+                close(name);
+            } catch (LedgerException e) {
+                // Closed concurrently
+            }
+        }
+        timer.shutdown();
+    }
+
+    private Lane lane(String name) {
+        Lane lane = lanes.get(name);
+        if (lane == null) {
+            throw new LedgerException("get ledger", "Ledger " + name + " does not exist.");
+        }
+        return lane;
+    }
+
+    /**
+     * A registered ledger, its client, the executor its tasks run on, and its journal directory if it is durable.
+     */
+    private static final class Lane {
+        final Ledger ledger;
+        final Path directory;
+        final LedgerClient client;
+        final ThreadPoolExecutor executor;
+        final LongAdder completed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+
+        Lane(Ledger ledger, Path directory) {
+            this.ledger = ledger;
+            this.directory = directory;
+            this.client = new LocalLedgerClient(ledger);
+            this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                    task -> {
+                        Thread thread = new Thread(task, "ledger-lane-" + ledger.getName());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+
+        void close() {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ledger.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Validates ranges of committed blocks in parallel on a ForkJoinPool. Each block is checked on its own: its
+ * transactions must fit the sealing policy the block was sealed under, its account balances must be non-negative
+ * and sum to the master account's starting balance, its hash must match its contents, and its previousHash must
+ * match the hash of its previous block. Because the checks of different blocks are independent, ranges of blocks are split
+ * between the pool's workers. If several blocks are invalid, the error for the lowest block number is thrown,
+ * as a sequential validation would.
+ */
+public class LedgerValidator {
+    // Ranges with at most this many blocks are validated by a single task
+    private static final int BLOCKS_PER_TASK = 32;
+
+    private final ForkJoinPool pool;
+
+    public LedgerValidator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Validates the given blocks. Blocks the calling thread until every block has been checked.
+     * Throws a LedgerException describing the lowest invalid block if any block is invalid.
+     * @param blocks    The committed blocks to validate, in block number order.
+     * @param seed      The seed of the ledger.
+     * @param listener  Listener to report progress to, or null.
+     */
+    public void validate(Block[] blocks, String seed, ValidationListener listener) {
+        validate(blocks, blocks.length > 0 ? blocks[0].getPreviousBlock() : null, seed, listener);
+    }
+
+    /**
+     * Validates the given blocks. Each block's previousHash is checked against the block before it in the array,
+     * and the first block's against the given previous block.
+     * Throws a LedgerException describing the lowest invalid block if any block is invalid.
+     * @param blocks    The committed blocks to validate, in block number order.
+     * @param previous  The block before the first block, or null if it is the genesis block or not available.
+     * @param seed      The seed of the ledger.
+     * @param listener  Listener to report progress to, or null.
+     */
+    public void validate(Block[] blocks, Block previous, String seed, ValidationListener listener) {
+        long start = System.nanoTime();
+        Run run = new Run(blocks, previous, seed, listener);
+        try {
+            pool.invoke(new RangeTask(run, 0, blocks.length));
+        } finally {
+            if (listener != null) {
+                listener.completed(run.validated.get(), System.nanoTime() - start);
+            }
+        }
+        if (run.failure != null) {
+            throw run.failure;
+        }
+    }
+
+    /**
+     * Checks a single committed block against its linked previous block.
+     * Throws a LedgerException if the block is invalid.
+     * @param block The block to check.
+     * @param seed  The seed of the ledger.
+     */
+    public static void validateBlock(Block block, String seed) {
+        validateBlock(block, block.getPreviousBlock(), seed);
+    }
+
+    /**
+     * Checks a single committed block. Throws a LedgerException if the block is invalid.
+     * @param block     The block to check.
+     * @param previous  The block before it, or null if it is the genesis block or not available.
+     * @param seed      The seed of the ledger.
+     */
+    public static void validateBlock(Block block, Block previous, String seed) {
+        // Check the block was sealed when its sealing policy said it was full, or by the policy's time limit
+        List<TransactionView> transactions = block.transactionList;
+        long bytes = 0;
+        for (TransactionView transaction : transactions) {
+            bytes += Encoder.sizeOf(transaction);
+        }
+        long lastBytes = transactions.isEmpty() ? 0 : Encoder.sizeOf(transactions.get(transactions.size() - 1));
+        if (!block.getSealingPolicy().admits(transactions.size(), bytes, lastBytes)) {
+            throw new LedgerException("Validation error", "Block " + block.getBlockNumber() +
+                    " has an invalid number of transactions.");
+        }
+
+        // Check that all account balances (including master's) are non-negative and sum to master's starting
+        // balance. Both checks scan the primitive balance arrays of the account table.
+        AccountState accounts = block.accountBalanceMap;
+        int negative = accounts.firstNegative();
+        if (negative >= 0) {
+            throw new LedgerException("validation error", accounts.addressOf(negative) + " has negative balance.");
+        }
+        if (accounts.sumBalances() != Ledger.MASTER_STARTING_BALANCE) {
+            throw new LedgerException("Validation error", "Block " + block.getBlockNumber() +
+                    " has invalid account balances.");
+        }
+
+        // Check the block's hash is correct. A hash mismatch indicates that the block was altered
+        // after it was added to the chain.
+        if (!block.hashBlock(seed).equals(block.getHash())) {
+            throw new LedgerException("Validation error", "Block " + block.getBlockNumber() +
+                    " has an incorrect hash.");
+        }
+
+        if (previous != null) {  // The genesis block has no previous block
+            // Check previous hash links the block to the previous block
+            if (!previous.getHash().equals(block.getPreviousHash())) {
+                throw new LedgerException("Validation error", "Block " + block.getBlockNumber() +
+                        " has an incorrect previous hash.");
+            }
+        }
+    }
+
+    /**
+     * State shared by the tasks of one validation run.
+     */
+    private static class Run {
+        final Block[] blocks;
+        final Block previous;
+        final String seed;
+        final ValidationListener listener;
+        final AtomicInteger validated = new AtomicInteger();
+        int failedBlock = Integer.MAX_VALUE;
+        LedgerException failure;
+
+        Run(Block[] blocks, Block previous, String seed, ValidationListener listener) {
+            this.blocks = blocks;
+            this.previous = previous;
+            this.seed = seed;
+            this.listener = listener;
+        }
+
+        synchronized void fail(int blockNumber, LedgerException e) {
+            // Keep the error for the lowest block number
+            if (blockNumber < failedBlock) {
+                failedBlock = blockNumber;
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Validates blocks[from, to), splitting the range in half until it is small enough.
+     */
+    private static class RangeTask extends RecursiveAction {
+        private final Run run;
+        private final int from;
+        private final int to;
+
+        RangeTask(Run run, int from, int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BLOCKS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(run, from, middle), new RangeTask(run, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                Block block = run.blocks[i];
+                try {
+                    validateBlock(block, i > 0 ? run.blocks[i - 1] : run.previous, run.seed);
+                } catch (LedgerException e) {
+                    run.fail(block.getBlockNumber(), e);
+                }
+            }
+            int validated = run.validated.addAndGet(to - from);
+            if (run.listener != null) {
+                run.listener.progress(validated, run.blocks.length);
+            }
+        }
+    }
+}
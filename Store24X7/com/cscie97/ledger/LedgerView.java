@@ -0,0 +1,84 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.util.Map;
+
+/**
+ * Immutable, consistent view of a ledger's account balances as of one sealed block. The ledger publishes a new
+ * view through a volatile reference each time a block is sealed, so readers never lock and never see a block that
+ * is still being changed by writers. All reads made through one view see the same block, even while later blocks
+ * are sealed.
+ */
+public class LedgerView {
+    // The sealed block the view reads; null before the first block has been sealed
+    final Block block;
+
+    LedgerView(Block block) {
+        this.block = block;
+    }
+
+    /**
+     * Returns the number of the block the view reads, or 0 if no block had been sealed.
+     */
+    public int getBlockNumber() {
+        return block == null ? 0 : block.getBlockNumber();
+    }
+
+    /**
+     * Returns the hash of the block the view reads, or null if no block had been sealed.
+     */
+    public String getBlockHash() {
+        return block == null ? null : block.getHash();
+    }
+
+    /**
+     * Gets the account balance of the specified account as of the view's block. Raises a LedgerException if the
+     * account does not exist in that block.
+     * @param address   The unique account ID.
+     * @return          The account's balance.
+     */
+    public long getAccountBalance(String address) {
+        // No accounts have been added to the ledger yet if the genesis block has not been sealed.
+        if (block == null) {
+            throw new LedgerException("get account balance", "Account " + address +
+                    " has not yet been added to the ledger.");
+        }
+
+        int ordinal = block.accountBalanceMap.ordinalOf(address);
+        if (ordinal < 0) {
+            // Account was not found
+            throw new LedgerException("get account balance", "Account " + address +
+                    " does not exist or has not been added to the ledger yet.");
+        } else {
+            return block.accountBalanceMap.balance(ordinal);
+        }
+    }
+
+    /**
+     * Gets the account balance of the specified account as of the view's block, with a proof of it against the
+     * block's hash. Raises a LedgerException if the account does not exist in that block.
+     * @param address   The unique account ID.
+     * @return          The balance proof, which holds the balance.
+     */
+    public BalanceProof getAccountBalanceProof(String address) {
+        if (block == null) {
+            throw new LedgerException("get balance proof", "Account " + address +
+                    " has not yet been added to the ledger.");
+        }
+        return BalanceProof.build(block, address);
+    }
+
+    /**
+     * Retrieves the read-only account balance map of the view's block.
+     * @return  The map of account IDs and associated accounts.
+     */
+    public Map<String, Account> getAccountBalances() {
+        if (block == null) {
+            // Accounts are only added to the ledger when blocks are added to the chain.
+            throw new LedgerException("get account balances",
+                    "Cannot return account balance map; no blocks have been committed to the blockchain.");
+        }
+        return block.accountBalanceMap;
+    }
+}
@@ -0,0 +1,110 @@
+package com.cscie97.ledger;
+
+import java.util.Map;
+
+/**
+ * LedgerClient that calls a Ledger in the same process directly.
+ */
+public class LocalLedgerClient implements LedgerClient {
+    private final Ledger ledger;
+
+    public LocalLedgerClient(Ledger ledger) {
+        this.ledger = ledger;
+    }
+
+    public Ledger getLedger() {
+        return ledger;
+    }
+
+    @Override
+    public Account createAccount(String address) {
+        return ledger.createAccount(address);
+    }
+
+    @Override
+    public TransactionResult transfer(String transactionId, String payer, String receiver, int amount, int fee,
+                                      String note) {
+        ledger.processTransaction(new Transaction(transactionId, amount, fee, note, payer, receiver));
+        return TransactionResult.accepted(transactionId, ledger.blockNumberOf(transactionId));
+    }
+
+    @Override
+    public long balance(String address) {
+        return ledger.getAccountBalance(address);
+    }
+
+    @Override
+    public BalanceProof balanceProof(String address) {
+        return ledger.getAccountBalanceProof(address);
+    }
+
+    @Override
+    public Map<String, Account> balances() {
+        return ledger.getAccountBalances();
+    }
+
+    @Override
+    public boolean containsTransaction(String transactionId) {
+        return ledger.containsTransaction(transactionId);
+    }
+
+    @Override
+    public TransactionView getTransaction(String transactionId) {
+        return ledger.getTransaction(transactionId);
+    }
+
+    @Override
+    public Block getBlock(int blockNumber) {
+        return ledger.getBlock(blockNumber);
+    }
+
+    @Override
+    public int getBlocks() {
+        return ledger.getBlocks();
+    }
+
+    @Override
+    public void validate() {
+        ledger.validate();
+    }
+
+    @Override
+    public void validateAll() {
+        ledger.validateAll();
+    }
+
+    @Override
+    public HistoryPage getAccountHistory(String address, int fromBlock, int fromSlot, int limit) {
+        return ledger.getAccountHistory(address, fromBlock, fromSlot, limit);
+    }
+
+    @Override
+    public BlockSummary summarizeBlocks(int fromBlock, int toBlock) {
+        return ledger.summarizeBlocks(fromBlock, toBlock);
+    }
+
+    @Override
+    public BlockSummary summarizeTime(long fromMillis, long toMillis) {
+        return ledger.summarizeTime(fromMillis, toMillis);
+    }
+
+    @Override
+    public MerkleProof getInclusionProof(String transactionId) {
+        return ledger.getInclusionProof(transactionId);
+    }
+
+    @Override
+    public boolean verify(MerkleProof proof, TransactionView transaction) {
+        return MerkleProof.verify(proof, transaction, ledger.getSeed());
+    }
+
+    @Override
+    public boolean verify(BalanceProof proof) {
+        return BalanceProof.verify(proof, ledger.getSeed());
+    }
+
+    @Override
+    public BlockSubscription subscribe(BlockListener listener, int fromBlock, int capacity) {
+        return ledger.subscribe(listener, fromBlock, capacity);
+    }
+}
@@ -0,0 +1,282 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of pending transactions in front of a Ledger. Submitting a transaction never blocks: it is queued
+ * and a future of its result is returned. A feeder thread takes the pending transactions with the highest fee
+ * first, oldest first among equal fees, and hands them to the ledger in batches through processTransactions().
+ * When the pool is full, a new transaction evicts the lowest-priority pending transaction if it pays a higher
+ * fee, and is rejected otherwise, so that high-fee traffic does not queue behind a flood of low-fee transactions.
+ * Transactions rejected because their payer's balance was too low are deferred, in case the payer is funded in
+ * the meantime: a deferred transaction is held back until the ledger has sealed another block or RETRY_DELAY_MILLIS
+ * have passed, and then competes for a place in the pool again under its original arrival order. Held
+ * transactions count towards the capacity. Other invalid transactions are dropped.
+ */
+public class Mempool implements AutoCloseable {
+    // Number of times a transaction whose payer's balance was too low is retried before it is dropped
+    public static final int MAX_DEFERRALS = 3;
+    // Longest time a deferred transaction is held back if the ledger seals no block in the meantime
+    public static final long RETRY_DELAY_MILLIS = 20;
+
+    private final Ledger ledger;
+    private final int capacity;
+    private final int batchSize;
+    // Pending transactions, highest fee first and then in arrival order
+    private final TreeSet<Entry> pending = new TreeSet<>(
+            Comparator.comparingInt((Entry entry) -> -entry.transaction.getFee())
+                    .thenComparingLong(entry -> entry.sequence));
+    // Deferred transactions held back from the pending transactions, in the order they were deferred
+    private final ArrayDeque<Entry> held = new ArrayDeque<>();
+    private long nextSequence;
+    private boolean closed;
+    private final Thread feeder;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+
+    /**
+     * Creates a mempool and starts its feeder thread.
+     * @param ledger    The ledger the transactions are processed by.
+     * @param capacity  The maximum number of pending transactions.
+     * @param batchSize The maximum number of transactions handed to the ledger at once.
+     */
+    public Mempool(Ledger ledger, int capacity, int batchSize) {
+        this.ledger = ledger;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        feeder = new Thread(this::feed, "mempool-" + ledger.getName());
+        feeder.setDaemon(true);
+        feeder.start();
+    }
+
+    /**
+     * Adds a transaction to the pool. Does not block.
+     * @param transaction   The transaction.
+     * @return              A future of the transaction's result. It completes with a rejected result if the pool is
+     *                      full of higher-fee transactions, if the transaction is later evicted, or if the ledger
+     *                      rejects it.
+     */
+    public CompletableFuture<TransactionResult> submit(Transaction transaction) {
+        CompletableFuture<TransactionResult> result = new CompletableFuture<>();
+        Entry dropped = null;
+        LedgerException.Code code = LedgerException.Code.MEMPOOL_FULL;
+        synchronized (this) {
+            if (closed) {
+                dropped = new Entry(transaction, result, 0, 0);
+                code = LedgerException.Code.MEMPOOL_CLOSED;
+            } else {
+                dropped = admit(new Entry(transaction, result, nextSequence++, 0));
+                notifyAll();
+            }
+        }
+        if (dropped != null) {
+            reject(dropped, code);
+        }
+        return result;
+    }
+
+    /**
+     * Adds an entry to the pending transactions. If the pool is then over capacity, removes the lowest-priority
+     * pending transaction, which may be the new one. Must be called while holding the pool's monitor.
+     * Helper function to submit() and release().
+     * @return  The removed entry, or null if the pool had room.
+     */
+    private Entry admit(Entry entry) {
+        pending.add(entry);
+        if (pending.size() + held.size() <= capacity) {
+            return null;
+        }
+        Entry dropped = pending.pollLast();
+        if (dropped != entry) {
+            evicted.increment();
+        }
+        return dropped;
+    }
+
+    /**
+     * Completes a transaction that did not reach the ledger with a rejected result.
+     * @param code  MEMPOOL_FULL or MEMPOOL_CLOSED.
+     */
+    private void reject(Entry entry, LedgerException.Code code) {
+        rejected.increment();
+        String reason = code == LedgerException.Code.MEMPOOL_CLOSED ? "Mempool is closed." :
+                "Mempool is full of higher-fee transactions.";
+        entry.result.complete(TransactionResult.rejected(entry.transaction.getTransactionId(), code, reason));
+    }
+
+    /**
+     * Moves the held transactions that are due for a retry back into the pending transactions: those held since
+     * before the ledger's latest block was sealed or for RETRY_DELAY_MILLIS, or all of them once the pool is
+     * closed. Must be called while holding the pool's monitor.
+     * Helper function to feed().
+     * @param dropped   Receives the entries that did not fit into the pool.
+     * @return          The number of milliseconds until the oldest held transaction is due, or 0 if none is held.
+     */
+    private long release(List<Entry> dropped) {
+        int blocks = ledger.getBlocks();
+        long now = System.nanoTime();
+        while (!held.isEmpty()) {
+            Entry entry = held.peekFirst();
+            long remaining = entry.deferredAt + RETRY_DELAY_MILLIS * 1_000_000 - now;
+            if (!closed && blocks == entry.deferredAtBlock && remaining > 0) {
+                return Math.max(1, remaining / 1_000_000);
+            }
+            held.pollFirst();
+            Entry removed = admit(entry);
+            if (removed != null) {
+                dropped.add(removed);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Feeds batches of the highest-priority pending transactions to the ledger until the pool is closed and empty.
+     */
+    private void feed() {
+        while (true) {
+            List<Entry> batch = new ArrayList<>(batchSize);
+            List<Entry> dropped = new ArrayList<>();
+            synchronized (this) {
+                long due = release(dropped);
+                while (pending.isEmpty() && (!closed || !held.isEmpty())) {
+                    try {
+                        // Wait for a submission, or until the oldest held transaction is due
+                        wait(due);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    due = release(dropped);
+                }
+                while (batch.size() < batchSize && !pending.isEmpty()) {
+                    batch.add(pending.pollFirst());
+                }
+            }
+            for (Entry entry : dropped) {
+                reject(entry, LedgerException.Code.MEMPOOL_FULL);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            List<Transaction> transactions = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                transactions.add(entry.transaction);
+            }
+            List<TransactionResult> results;
+            try {
+                results = ledger.processTransactions(transactions);
+            } catch (RuntimeException e) {
+                for (Entry entry : batch) {
+                    entry.result.completeExceptionally(e);
+                }
+                continue;
+            }
+
+            List<Entry> retries = new ArrayList<>();
+            int blocks = ledger.getBlocks();
+            for (int i = 0; i < batch.size(); i++) {
+                Entry entry = batch.get(i);
+                TransactionResult result = results.get(i);
+                if (result.isAccepted()) {
+                    accepted.increment();
+                    entry.result.complete(result);
+                } else if (result.getCode() == LedgerException.Code.INSUFFICIENT_BALANCE &&
+                        entry.deferrals < MAX_DEFERRALS) {
+                    // The payer may be funded by a later transaction; hold the transaction back, but keep its
+                    // place in line for when it is retried
+                    deferred.increment();
+                    Entry retry = new Entry(entry.transaction, entry.result, entry.sequence, entry.deferrals + 1);
+                    retry.deferredAtBlock = blocks;
+                    retry.deferredAt = System.nanoTime();
+                    retries.add(retry);
+                } else {
+                    rejected.increment();
+                    entry.result.complete(result);
+                }
+            }
+            if (!retries.isEmpty()) {
+                synchronized (this) {
+                    held.addAll(retries);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pending transactions, including deferred transactions held back for a retry.
+     */
+    public synchronized int size() {
+        return pending.size() + held.size();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the number of pending transactions that were evicted by higher-fee transactions.
+     */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * Returns the number of times a transaction was deferred because its payer's balance was too low.
+     */
+    public long getDeferred() {
+        return deferred.sum();
+    }
+
+    /**
+     * Stops accepting transactions, waits for the pending transactions to be processed, and stops the feeder.
+     * Deferred transactions are retried without being held back once the pool is closed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            feeder.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A pending transaction with the future of its result, its arrival sequence number, and the number of times
+     * it has been deferred. A deferred transaction also records the ledger's block count and the time when it was
+     * deferred.
+     */
+    private static final class Entry {
+        final Transaction transaction;
+        final CompletableFuture<TransactionResult> result;
+        final long sequence;
+        final int deferrals;
+        int deferredAtBlock;
+        long deferredAt;
+
+        Entry(Transaction transaction, CompletableFuture<TransactionResult> result, long sequence, int deferrals) {
+            this.transaction = transaction;
+            this.result = result;
+            this.sequence = sequence;
+            this.deferrals = deferrals;
+        }
+    }
+}
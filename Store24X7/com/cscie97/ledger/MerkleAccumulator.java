@@ -0,0 +1,108 @@
+package com.cscie97.ledger;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming Merkle tree builder. Leaves are added one at a time and every completed subtree is folded as soon
+ * as it exists, so only one pending root per tree level is kept. Computing the root then takes at most
+ * log2(n) combines. Adjacent nodes are combined pairwise and an odd node at the end of a level is carried up
+ * to the next level unchanged, which gives the same root as building the tree level by level.
+ * For a complete list of leaves, root(List) builds the tree level by level without recursion instead, hashing the
+ * leaves and combining the nodes of large levels in parallel on the common ForkJoinPool.
+ */
+public class MerkleAccumulator {
+    // Levels with at least this many nodes are hashed in parallel
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    // pending[level] is the root of a complete subtree of 2^level leaves waiting for its right sibling
+    private byte[][] pending = new byte[8][];
+    private long count;
+
+    /**
+     * Adds the next leaf and folds every subtree it completes.
+     * @param leafHash  The hash of the leaf.
+     */
+    public void add(byte[] leafHash) {
+        byte[] node = leafHash;
+        int level = 0;
+        // Each set low bit of the leaf count is a complete subtree that the new node is the right sibling of.
+        for (long n = count; (n & 1) == 1; n >>>= 1, level++) {
+            node = Digester.combine(pending[level], node);
+            pending[level] = null;
+        }
+        if (level == pending.length) {
+            pending = Arrays.copyOf(pending, level * 2);
+        }
+        pending[level] = node;
+        count++;
+    }
+
+    /**
+     * Combines the pending subtree roots into the Merkle root, from the smallest subtree up.
+     * The accumulator is not changed, so more leaves can still be added.
+     * @return  The Merkle root, or all zeros if no leaves have been added.
+     */
+    public byte[] root() {
+        byte[] root = null;
+        for (byte[] node : pending) {
+            if (node != null) {
+                root = root == null ? node : Digester.combine(node, root);
+            }
+        }
+        return root == null ? new byte[32] : root;
+    }
+
+    /**
+     * Returns the number of leaves added.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Computes the Merkle root of a list of transactions, with the same result as adding their hashes to an
+     * accumulator one at a time. Each level is computed from the one below it in a single pass.
+     * @param transactions  The transactions, in order.
+     * @return              The Merkle root, or all zeros if there are no transactions.
+     */
+    public static byte[] root(List<? extends TransactionView> transactions) {
+        byte[][] level = hashLeaves(transactions);
+        if (level.length == 0) {
+            return new byte[32];
+        }
+        while (level.length > 1) {
+            byte[][] nodes = level;
+            byte[][] parents = new byte[(nodes.length + 1) / 2][];
+            if (nodes.length >= PARALLEL_THRESHOLD) {
+                Arrays.parallelSetAll(parents, i -> parent(nodes, i));
+            } else {
+                Arrays.setAll(parents, i -> parent(nodes, i));
+            }
+            level = parents;
+        }
+        return level[0];
+    }
+
+    /**
+     * Hashes the transactions into the leaves of their Merkle tree, in parallel for large lists.
+     * @param transactions  The transactions, in order.
+     * @return              The leaf hashes.
+     */
+    public static byte[][] hashLeaves(List<? extends TransactionView> transactions) {
+        byte[][] leaves = new byte[transactions.size()][];
+        if (leaves.length >= PARALLEL_THRESHOLD) {
+            Arrays.parallelSetAll(leaves, i -> Digester.hash(transactions.get(i)));
+        } else {
+            Arrays.setAll(leaves, i -> Digester.hash(transactions.get(i)));
+        }
+        return leaves;
+    }
+
+    /**
+     * Combines the pair of nodes below parent i; an odd node at the end of the level is carried up unchanged.
+     */
+    private static byte[] parent(byte[][] nodes, int i) {
+        return 2 * i + 1 < nodes.length ? Digester.combine(nodes[2 * i], nodes[2 * i + 1]) : nodes[2 * i];
+    }
+}
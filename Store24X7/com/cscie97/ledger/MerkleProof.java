@@ -0,0 +1,153 @@
+package com.cscie97.ledger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Proof that a transaction is included in a block: the path of sibling hashes from the transaction's Merkle leaf
+ * to the block's Merkle root, and the block header fields. A receipt can be verified with verify() in O(log n)
+ * hashes, without the rest of the block's transactions or account balances. The proof shows that the transaction
+ * is in the block with the proof's block hash; the verifier must trust that hash, for example by comparing it to
+ * the chain.
+ */
+public class MerkleProof {
+    private final String transactionId;
+    private final int blockNumber;
+    private final String previousHash;
+    private final byte[] merkleRoot;
+    private final byte[] stateHash;
+    private final SealingPolicy policy;
+    private final String blockHash;
+    // Sibling hashes from the leaf level up; levels where the path node is carried up unchanged have no sibling
+    private final byte[][] siblings;
+    // True where the sibling is the left node of the pair
+    private final boolean[] siblingOnLeft;
+
+    private MerkleProof(String transactionId, int blockNumber, String previousHash, byte[] merkleRoot,
+                        byte[] stateHash, SealingPolicy policy, String blockHash, byte[][] siblings,
+                        boolean[] siblingOnLeft) {
+        this.transactionId = transactionId;
+        this.blockNumber = blockNumber;
+        this.previousHash = previousHash;
+        this.merkleRoot = merkleRoot;
+        this.stateHash = stateHash;
+        this.policy = policy;
+        this.blockHash = blockHash;
+        this.siblings = siblings;
+        this.siblingOnLeft = siblingOnLeft;
+    }
+
+    /**
+     * Builds the inclusion proof of a transaction in a sealed block. The Merkle levels are rebuilt from the
+     * block's transactions, the same way the block's Merkle root was computed: nodes are combined pairwise and an
+     * odd node at the end of a level is carried up unchanged.
+     * @param block The sealed block.
+     * @param slot  The position of the transaction in the block.
+     * @return      The inclusion proof.
+     */
+    public static MerkleProof build(Block block, int slot) {
+        List<byte[]> level = Arrays.asList(MerkleAccumulator.hashLeaves(block.transactionList));
+        List<byte[]> siblings = new ArrayList<>();
+        List<Boolean> siblingOnLeft = new ArrayList<>();
+        int index = slot;
+        while (level.size() > 1) {
+            if (index % 2 == 1) {
+                siblings.add(level.get(index - 1));
+                siblingOnLeft.add(true);
+            } else if (index + 1 < level.size()) {
+                siblings.add(level.get(index + 1));
+                siblingOnLeft.add(false);
+            }
+            List<byte[]> parents = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                parents.add(i + 1 < level.size() ? Digester.combine(level.get(i), level.get(i + 1)) : level.get(i));
+            }
+            level = parents;
+            index /= 2;
+        }
+        boolean[] onLeft = new boolean[siblingOnLeft.size()];
+        for (int i = 0; i < onLeft.length; i++) {
+            onLeft[i] = siblingOnLeft.get(i);
+        }
+        return new MerkleProof(block.transactionList.get(slot).getTransactionId(), block.getBlockNumber(),
+                block.getPreviousHash(), level.get(0), block.getStateHash(), block.getSealingPolicy(), block.getHash(),
+                siblings.toArray(new byte[0][]), onLeft);
+    }
+
+    /**
+     * Verifies that a transaction is included in the block described by a proof: hashes the transaction, combines
+     * it with the sibling path, and checks that the resulting root and the header fields hash to the proof's block
+     * hash.
+     * @param proof         The inclusion proof.
+     * @param transaction   The transaction, as given in the receipt.
+     * @param seed          The seed of the ledger.
+     * @return              True if the proof shows the transaction is in the block.
+     */
+    public static boolean verify(MerkleProof proof, TransactionView transaction, String seed) {
+        if (!proof.transactionId.equals(transaction.getTransactionId())) {
+            return false;
+        }
+        byte[] node = Digester.hash(transaction);
+        for (int i = 0; i < proof.siblings.length; i++) {
+            node = proof.siblingOnLeft[i] ? Digester.combine(proof.siblings[i], node)
+                    : Digester.combine(node, proof.siblings[i]);
+        }
+        if (!Arrays.equals(node, proof.merkleRoot)) {
+            return false;
+        }
+        Digester header = Digester.get();
+        header.writeHeader(proof.blockNumber, proof.previousHash, proof.merkleRoot, proof.stateHash, proof.policy,
+                seed);
+        return Digester.toHex(header.digest()).equals(proof.blockHash);
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public int getBlockNumber() {
+        return blockNumber;
+    }
+
+    public String getPreviousHash() {
+        return previousHash;
+    }
+
+    public String getMerkleRoot() {
+        return Digester.toHex(merkleRoot);
+    }
+
+    public String getStateHash() {
+        return Digester.toHex(stateHash);
+    }
+
+    public SealingPolicy getSealingPolicy() {
+        return policy;
+    }
+
+    public String getBlockHash() {
+        return blockHash;
+    }
+
+    /**
+     * Returns the number of sibling hashes in the path, at most log2(n) for a block of n transactions.
+     */
+    public int getPathLength() {
+        return siblings.length;
+    }
+
+    /**
+     * Returns the sibling hash at the given step of the path, from the leaf level up, in hex format.
+     */
+    public String getSibling(int step) {
+        return Digester.toHex(siblings[step]);
+    }
+
+    /**
+     * Returns true if the sibling at the given step of the path is the left node of its pair.
+     */
+    public boolean isSiblingOnLeft(int step) {
+        return siblingOnLeft[step];
+    }
+}
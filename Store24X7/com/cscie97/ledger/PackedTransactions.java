@@ -0,0 +1,308 @@
+package com.cscie97.ledger;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The transactions of a sealed block, packed into a read-only, direct (off-heap) ByteBuffer so that a long chain
+ * does not keep millions of Transaction and String objects on the heap. Each transaction is a fixed-layout record
+ * of six ints: the offsets of its ID and note in the string table, its amount and fee, and the ordinals of its
+ * payer and receiver in the ledger's account directory. The string table follows the records and holds each
+ * string in its canonical encoding, as Encoder.putString() writes it; notes are stored once per block however
+ * many transactions share them.
+ * Blocks are small, so their buffers are carved out of shared direct slabs rather than allocated one per block;
+ * a slab is freed once the packed lists of all the blocks it holds are unreachable.
+ * The list's elements are flyweight TransactionViews: get() returns a small view of a record that reads its fields
+ * from the buffer when they are asked for, and encoding or measuring a view copies the stored encoding instead of
+ * decoding the strings, so validation reads the block in place. The list cannot be modified.
+ * A packed list is serialized as a plain list of copies of its transactions, since the buffer is off the heap.
+ */
+public class PackedTransactions extends AbstractList<TransactionView> implements RandomAccess, Serializable {
+    private static final int RECORD_SIZE = 24;
+    private static final int ID = 0;
+    private static final int NOTE = 4;
+    private static final int AMOUNT = 8;
+    private static final int FEE = 12;
+    private static final int PAYER = 16;
+    private static final int RECEIVER = 20;
+    // Size of the shared slabs; a block that needs more than a quarter of a slab gets a buffer of its own
+    private static final int SLAB_SIZE = 4 << 20;
+
+    // Slab the next block's buffer is carved from; guarded by the class monitor
+    private static ByteBuffer slab;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    // Resolves the payer and receiver ordinals to addresses
+    private final AccountState accounts;
+
+    private PackedTransactions(ByteBuffer buffer, int count, AccountState accounts) {
+        this.buffer = buffer;
+        this.count = count;
+        this.accounts = accounts;
+    }
+
+    /**
+     * Packs a block's transactions. The payer and receiver are stored by ordinal; a transaction whose accounts
+     * were never assigned ordinals keeps their addresses in the string table instead.
+     * @param transactions  The transactions, in order.
+     * @param accounts      The block's account state, whose directory holds the accounts' addresses.
+     * @return              The packed transactions.
+     */
+    static PackedTransactions pack(List<TransactionView> transactions, AccountState accounts) {
+        if (transactions instanceof PackedTransactions) {
+            return (PackedTransactions) transactions;
+        }
+        // Lay out the string table first, so the buffer can be allocated at its final size
+        int count = transactions.size();
+        int[] fields = new int[4 * count];
+        List<String> strings = new ArrayList<>(2 * count);
+        Map<String, Integer> notes = new HashMap<>();
+        int position = count * RECORD_SIZE;
+        for (int i = 0; i < count; i++) {
+            TransactionView transaction = transactions.get(i);
+            fields[4 * i] = position;
+            position = addString(strings, transaction.getTransactionId(), position);
+            Integer note = notes.get(transaction.getNote());
+            if (note == null) {
+                note = position;
+                notes.put(transaction.getNote(), note);
+                position = addString(strings, transaction.getNote(), position);
+            }
+            fields[4 * i + 1] = note;
+            fields[4 * i + 2] = transaction.getPayerOrdinal();
+            if (transaction.getPayerOrdinal() < 0) {
+                fields[4 * i + 2] = -position - 1;
+                position = addString(strings, transaction.getPayerAddress(), position);
+            }
+            fields[4 * i + 3] = transaction.getReceiverOrdinal();
+            if (transaction.getReceiverOrdinal() < 0) {
+                fields[4 * i + 3] = -position - 1;
+                position = addString(strings, transaction.getReceiverAddress(), position);
+            }
+        }
+
+        ByteBuffer buffer = allocate(position);
+        for (int i = 0; i < count; i++) {
+            TransactionView transaction = transactions.get(i);
+            buffer.putInt(fields[4 * i]).putInt(fields[4 * i + 1]);
+            buffer.putInt(transaction.getAmount()).putInt(transaction.getFee());
+            buffer.putInt(fields[4 * i + 2]).putInt(fields[4 * i + 3]);
+        }
+        for (String value : strings) {
+            if (value == null) {
+                buffer.putInt(-1);
+                continue;
+            }
+            buffer.putInt(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                buffer.putChar(value.charAt(i));
+            }
+        }
+        return new PackedTransactions(buffer.asReadOnlyBuffer(), count, accounts);
+    }
+
+    /**
+     * Returns a direct buffer of the given size, carved out of the current slab unless it is large. A new slab is
+     * started when the current one does not have room; the rest of the old one is left unused.
+     * Helper function to pack().
+     */
+    private static synchronized ByteBuffer allocate(int size) {
+        if (size > SLAB_SIZE / 4) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        if (slab == null || slab.remaining() < size) {
+            slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        }
+        ByteBuffer buffer = slab.slice();
+        buffer.limit(size);
+        slab.position(slab.position() + size);
+        return buffer.slice();
+    }
+
+    /**
+     * Appends a string to the string table being laid out, and returns the offset after it.
+     * Helper function to pack().
+     */
+    private static int addString(List<String> strings, String value, int position) {
+        strings.add(value);
+        return position + 4 + (value == null ? 0 : 2 * value.length());
+    }
+
+    @Override
+    public TransactionView get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + count);
+        }
+        return new Entry(this, index);
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of off-heap bytes holding the transactions, not counting the unused end of their slab.
+     */
+    public int getByteSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Serializes the list as an ArrayList of copies of its transactions.
+     */
+    private Object writeReplace() {
+        List<TransactionView> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            transactions.add(new Entry(this, i).copy());
+        }
+        return transactions;
+    }
+
+    private int field(int index, int field) {
+        return buffer.getInt(index * RECORD_SIZE + field);
+    }
+
+    private String string(int offset) {
+        int length = buffer.getInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar(offset + 4 + 2 * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the size of the canonical encoding of the string stored at an offset, including its length.
+     */
+    private int stringSize(int offset) {
+        return 4 + 2 * Math.max(buffer.getInt(offset), 0);
+    }
+
+    private String address(int value) {
+        return value >= 0 ? accounts.addressOf(value) : string(-value - 1);
+    }
+
+    private int addressSize(int value) {
+        if (value >= 0) {
+            String address = accounts.addressOf(value);
+            return 4 + (address == null ? 0 : 2 * address.length());
+        }
+        return stringSize(-value - 1);
+    }
+
+    private void writeAddress(Encoder encoder, int value) {
+        if (value >= 0) {
+            encoder.putString(accounts.addressOf(value));
+        } else {
+            encoder.putEncoded(buffer, -value - 1, stringSize(-value - 1));
+        }
+    }
+
+    /**
+     * A flyweight view of one packed transaction. Its getters read the record in the buffer; it holds no copy
+     * of the transaction's fields. Views of the same record are equal. A view is not a Transaction and cannot be
+     * submitted to a ledger; copy() returns one that can.
+     */
+    private static final class Entry implements TransactionView {
+        private final PackedTransactions packed;
+        private final int index;
+
+        private Entry(PackedTransactions packed, int index) {
+            this.packed = packed;
+            this.index = index;
+        }
+
+        @Override
+        public String getTransactionId() {
+            return packed.string(packed.field(index, ID));
+        }
+
+        @Override
+        public int getAmount() {
+            return packed.field(index, AMOUNT);
+        }
+
+        @Override
+        public int getFee() {
+            return packed.field(index, FEE);
+        }
+
+        @Override
+        public String getNote() {
+            return packed.string(packed.field(index, NOTE));
+        }
+
+        @Override
+        public String getPayerAddress() {
+            return packed.address(packed.field(index, PAYER));
+        }
+
+        @Override
+        public String getReceiverAddress() {
+            return packed.address(packed.field(index, RECEIVER));
+        }
+
+        @Override
+        public int getPayerOrdinal() {
+            return Math.max(packed.field(index, PAYER), -1);
+        }
+
+        @Override
+        public int getReceiverOrdinal() {
+            return Math.max(packed.field(index, RECEIVER), -1);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return packed == other.packed && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(packed) * 31 + index;
+        }
+
+        /**
+         * Writes the transaction's canonical encoding, copying the stored strings without decoding them.
+         */
+        @Override
+        public Encoder writeTo(Encoder encoder) {
+            encoder.putByte(Encoder.TRANSACTION);
+            encoder.putByte(Encoder.VERSION);
+            int id = packed.field(index, ID);
+            encoder.putEncoded(packed.buffer, id, packed.stringSize(id));
+            encoder.putInt(packed.field(index, AMOUNT));
+            encoder.putInt(packed.field(index, FEE));
+            int note = packed.field(index, NOTE);
+            encoder.putEncoded(packed.buffer, note, packed.stringSize(note));
+            packed.writeAddress(encoder, packed.field(index, PAYER));
+            packed.writeAddress(encoder, packed.field(index, RECEIVER));
+            return encoder;
+        }
+
+        /**
+         * Returns the size of the transaction's canonical encoding, read from the record without decoding it.
+         */
+        @Override
+        public int encodedSize() {
+            return 2 + packed.stringSize(packed.field(index, ID)) + 4 + 4 +
+                    packed.stringSize(packed.field(index, NOTE)) + packed.addressSize(packed.field(index, PAYER)) +
+                    packed.addressSize(packed.field(index, RECEIVER));
+        }
+    }
+}
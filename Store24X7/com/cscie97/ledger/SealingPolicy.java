@@ -0,0 +1,121 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.io.Serializable;
+
+/**
+ * Decides when a candidate block is sealed: once it holds a number of transactions, once its transactions' encoded
+ * size reaches a number of bytes, or once a time has elapsed since its first transaction, whichever comes first.
+ * The byte and time limits are optional. Every block records the policy it was sealed under, and the policy is
+ * part of the block's hash, so validation checks each block against its own policy even if the ledger's policy
+ * has changed since.
+ */
+public final class SealingPolicy implements Serializable {
+    // The default policy seals a block after TRANSACTIONS_PER_BLOCK transactions
+    public static final SealingPolicy DEFAULT = new SealingPolicy(Ledger.TRANSACTIONS_PER_BLOCK, 0, 0);
+
+    private final int maxTransactions;
+    private final long maxBytes;
+    private final long maxMillis;
+
+    /**
+     * Creates a sealing policy.
+     * @param maxTransactions   Blocks are sealed once they hold this many transactions; at least 1.
+     * @param maxBytes          Blocks are sealed once their transactions' encoded size reaches this many bytes, or
+     *                          0 for no size limit.
+     * @param maxMillis         Blocks are sealed once this many milliseconds have passed since their first
+     *                          transaction, or 0 for no time limit.
+     */
+    public SealingPolicy(int maxTransactions, long maxBytes, long maxMillis) {
+        if (maxTransactions < 1 || maxBytes < 0 || maxMillis < 0) {
+            throw new LedgerException("set sealing policy", "Invalid sealing policy; a block must hold at least " +
+                    "one transaction and limits cannot be negative.");
+        }
+        this.maxTransactions = maxTransactions;
+        this.maxBytes = maxBytes;
+        this.maxMillis = maxMillis;
+    }
+
+    public int getMaxTransactions() {
+        return maxTransactions;
+    }
+
+    /**
+     * Returns the maximum encoded size of a block's transactions in bytes, or 0 if there is no size limit.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the time after a block's first transaction at which it is sealed, or 0 if there is no time limit.
+     */
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * Returns true if a block with the given number of transactions and encoded size must be sealed. The time limit
+     * is not considered.
+     * @param transactions  The number of transactions in the block.
+     * @param bytes         The encoded size of the block's transactions.
+     */
+    public boolean isFull(int transactions, long bytes) {
+        return transactions >= maxTransactions || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    /**
+     * Returns true if a sealed block with the given transactions could have been sealed under this policy: it was
+     * not full before its last transaction, and it is full or was sealed by the time limit.
+     * @param transactions  The number of transactions in the block.
+     * @param bytes         The encoded size of the block's transactions.
+     * @param lastBytes     The encoded size of the block's last transaction.
+     */
+    public boolean admits(int transactions, long bytes, long lastBytes) {
+        if (transactions < 1 || isFull(transactions - 1, bytes - lastBytes)) {
+            return false;
+        }
+        return isFull(transactions, bytes) || maxMillis > 0;
+    }
+
+    /**
+     * Writes the policy's limits.
+     */
+    public void writeTo(Encoder encoder) {
+        encoder.putInt(maxTransactions).putLong(maxBytes).putLong(maxMillis);
+    }
+
+    /**
+     * Reads a policy written by writeTo().
+     */
+    public static SealingPolicy readFrom(Decoder decoder) {
+        int maxTransactions = decoder.getInt();
+        long maxBytes = decoder.getLong();
+        long maxMillis = decoder.getLong();
+        try {
+            return new SealingPolicy(maxTransactions, maxBytes, maxMillis);
+        } catch (LedgerException e) {
+            throw new IllegalStateException(e.getReason());
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SealingPolicy)) {
+            return false;
+        }
+        SealingPolicy other = (SealingPolicy) o;
+        return maxTransactions == other.maxTransactions && maxBytes == other.maxBytes && maxMillis == other.maxMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return (Integer.hashCode(maxTransactions) * 31 + Long.hashCode(maxBytes)) * 31 + Long.hashCode(maxMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "transactions=" + maxTransactions + ", bytes=" + maxBytes + ", millis=" + maxMillis;
+    }
+}
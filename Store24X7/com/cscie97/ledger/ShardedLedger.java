@@ -0,0 +1,297 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ledger whose accounts are hash-partitioned by address across a number of independent shards. Each shard is a
+ * Ledger with its own chain, candidate block, locks and sealing, so transactions on different shards never
+ * contend and throughput scales with the number of shards and cores.
+ * Every shard has its own master account, which also serves as the shard's clearing account for transfers
+ * between shards. A cross-shard transfer is a saga of local transactions, not an atomic commit across shards:
+ * the debit step pays the amount and fee from the payer to its shard's master account; the credit step pays the
+ * amount from the receiver shard's master account to the receiver. If the credit step fails, the debit is
+ * compensated by a refund step that pays the amount back to the payer; the fee is kept. Each step commits on its
+ * own shard as soon as it is processed, so between the debit and the credit (or the refund) the payer has been
+ * debited while the receiver has not been credited yet, and the amount is held by the payer shard's master
+ * account. Readers of the shards' balances can observe that window. Each shard's balances still sum to the master
+ * account's starting balance throughout, and each shard validates on its own; a global validation validates every
+ * shard and combines the hashes of the shards' latest blocks into one root.
+ * The credit and refund steps are recorded under the transfer's ID with a reserved suffix, so transaction IDs
+ * with those suffixes are rejected. If the refund fails too, the transfer fails with an exception that reports
+ * the amount left with the payer shard's master account.
+ */
+public class ShardedLedger {
+    // Suffixes of the IDs of the transactions that carry out the credit and refund steps of a cross-shard transfer
+    public static final String CREDIT_SUFFIX = "/credit";
+    public static final String REFUND_SUFFIX = "/refund";
+    // Number of transaction ID lock stripes; a power of two
+    private static final int ID_LOCK_STRIPES = 256;
+
+    private final String name;
+    private final String description;
+    private final String seed;
+    private final Ledger[] shards;
+    // Serializes the duplicate check and submission of transactions with the same ID across shards
+    private final ReentrantLock[] idLocks = new ReentrantLock[ID_LOCK_STRIPES];
+
+    /**
+     * Creates a sharded ledger. Each shard is a ledger named after this one and its shard number, with the same
+     * description and seed.
+     * @param name          The ledger name.
+     * @param description   The ledger description.
+     * @param seed          The ledger seed.
+     * @param shardCount    The number of shards.
+     */
+    public ShardedLedger(String name, String description, String seed, int shardCount) {
+        if (shardCount < 1) {
+            throw new LedgerException("create ledger", "A sharded ledger needs at least one shard.");
+        }
+        this.name = name;
+        this.description = description;
+        this.seed = seed;
+        shards = new Ledger[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Ledger(name + "-shard-" + i, description, seed);
+        }
+        for (int i = 0; i < ID_LOCK_STRIPES; i++) {
+            idLocks[i] = new ReentrantLock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getSeed() {
+        return seed;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public Ledger getShard(int shard) {
+        return shards[shard];
+    }
+
+    /**
+     * Returns the number of the shard that holds the given account address.
+     */
+    public int shardOf(String address) {
+        int h = address.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    /**
+     * Creates a new account on its shard. The account ID must be unique. Every shard already has a master account.
+     * @param accountId string value representing unique account ID.
+     * @return          the newly created Account instance.
+     */
+    public Account createAccount(String accountId) {
+        return shards[shardOf(accountId)].createAccount(accountId);
+    }
+
+    /**
+     * Processes a transaction. A transaction between accounts on the same shard, or with the master account, is
+     * processed by that shard alone. A transaction between accounts on different shards is a transfer saga.
+     * Throws a LedgerException if the transaction is invalid, as Ledger.processTransaction() does.
+     * @param transaction   The requested transaction.
+     * @return              The transaction ID of the transaction, if successful.
+     */
+    public String processTransaction(Transaction transaction) {
+        String payerAddress = transaction.getPayerAddress(), receiverAddress = transaction.getReceiverAddress();
+        if (payerAddress == null || receiverAddress == null) {
+            throw new LedgerException("process transaction", LedgerException.Code.INVALID_ACCOUNT,
+                    "Invalid payer or receiver");
+        }
+        String transactionId = transaction.getTransactionId();
+        if (transactionId == null || transactionId.endsWith(CREDIT_SUFFIX) || transactionId.endsWith(REFUND_SUFFIX)) {
+            // A client transaction must not take the ID of a transfer's credit or refund step
+            throw new LedgerException("process transaction", LedgerException.Code.RESERVED_TRANSACTION_ID,
+                    "Transaction IDs ending in " + CREDIT_SUFFIX + " or " + REFUND_SUFFIX + " are reserved.");
+        }
+        // The master account exists on every shard, so it is paired with the other account's shard
+        int payerShard = payerAddress.equals(Ledger.MASTER) ? shardOf(receiverAddress) : shardOf(payerAddress);
+        int receiverShard = receiverAddress.equals(Ledger.MASTER) ? payerShard : shardOf(receiverAddress);
+
+        ReentrantLock idLock = idLocks[transactionId.hashCode() & (ID_LOCK_STRIPES - 1)];
+        idLock.lock();
+        try {
+            for (Ledger shard : shards) {
+                if (shard.containsTransaction(transactionId)) {
+                    throw new LedgerException("process transaction", LedgerException.Code.DUPLICATE_TRANSACTION,
+                            "Transaction " + transactionId + " already exists.");
+                }
+            }
+            if (payerShard == receiverShard) {
+                return shards[payerShard].processTransaction(transaction);
+            }
+            return transfer(transaction, payerShard, receiverShard);
+        } finally {
+            idLock.unlock();
+        }
+    }
+
+    /**
+     * Carries out a cross-shard transfer as a saga: a debit on the payer's shard, then a credit on the receiver's
+     * shard, or a compensating refund on the payer's shard if the credit fails. Each step is an ordinary
+     * transaction on its shard and is committed there before the next one starts.
+     * Helper function to processTransaction().
+     */
+    private String transfer(Transaction transaction, int payerShard, int receiverShard) {
+        String transactionId = transaction.getTransactionId();
+        Ledger receiverLedger = shards[receiverShard];
+        // Reject transfers to unknown receivers before any money moves
+        if (!receiverLedger.hasAccount(transaction.getReceiverAddress())) {
+            throw new LedgerException("process transaction", LedgerException.Code.INVALID_ACCOUNT,
+                    "Invalid payer or receiver");
+        }
+
+        // Debit: the payer pays the amount and fee on its own shard; the amount is held by the shard's master
+        shards[payerShard].processTransaction(new Transaction(transactionId, transaction.getAmount(),
+                transaction.getFee(), transaction.getNote(), transaction.getPayerAddress(), Ledger.MASTER));
+        // The payer is debited but the receiver is not credited yet. Credit: the receiver shard's master pays out
+        // the amount; master pays the minimum fee to itself.
+        try {
+            receiverLedger.processTransaction(new Transaction(transactionId + CREDIT_SUFFIX, transaction.getAmount(),
+                    Ledger.MIN_TRANSACTION_FEE, transaction.getNote(), Ledger.MASTER,
+                    transaction.getReceiverAddress()));
+        } catch (LedgerException e) {
+            // Compensate: refund the amount held by the payer shard's master; the fee is kept
+            try {
+                shards[payerShard].processTransaction(new Transaction(transactionId + REFUND_SUFFIX,
+                        transaction.getAmount(), Ledger.MIN_TRANSACTION_FEE, transaction.getNote(), Ledger.MASTER,
+                        transaction.getPayerAddress()));
+            } catch (LedgerException refundFailure) {
+                LedgerException failure = new LedgerException("process transaction",
+                        LedgerException.Code.TRANSFER_NOT_REFUNDED, "Transfer " + transactionId + " failed (" +
+                        e.getReason() + ") and could not be refunded (" + refundFailure.getReason() + "); " +
+                        transaction.getAmount() + " is held by the master account of shard " + payerShard + ".");
+                failure.addSuppressed(e);
+                failure.addSuppressed(refundFailure);
+                throw failure;
+            }
+            throw e;
+        }
+        return transactionId;
+    }
+
+    /**
+     * Gets the account balance of the specified account from its shard's latest sealed block.
+     * Raises a LedgerException if the account does not exist in that block.
+     * @param address   The unique account ID.
+     * @return          The account's balance.
+     */
+    public long getAccountBalance(String address) {
+        return shards[shardOf(address)].getAccountBalance(address);
+    }
+
+    /**
+     * Retrieves the specified transaction from the shard that recorded it. For cross-shard transfers this is the
+     * debit step recorded on the payer's shard.
+     * @param transactionId The unique ID of the queried transaction.
+     * @return              A read-only view of the transaction, or null if it wasn't found.
+     */
+    public TransactionView getTransaction(String transactionId) {
+        for (Ledger shard : shards) {
+            TransactionView transaction = shard.getTransaction(transactionId);
+            if (transaction != null) {
+                return transaction;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the total number of blocks sealed by all shards.
+     */
+    public int getBlocks() {
+        int blocks = 0;
+        for (Ledger shard : shards) {
+            blocks += shard.getBlocks();
+        }
+        return blocks;
+    }
+
+    /**
+     * Sets the sealing policy of every shard.
+     * @param policy    The sealing policy.
+     */
+    public void setSealingPolicy(SealingPolicy policy) {
+        for (Ledger shard : shards) {
+            shard.setSealingPolicy(policy);
+        }
+    }
+
+    /**
+     * Seals full blocks of every shard on a background thread per shard, or inline again.
+     * @param async True to seal blocks on background threads.
+     */
+    public void setAsyncSealing(boolean async) {
+        for (Ledger shard : shards) {
+            shard.setAsyncSealing(async);
+        }
+    }
+
+    /**
+     * Waits until every block that was full on any shard when this method was called has been sealed.
+     */
+    public void awaitSealing() {
+        for (Ledger shard : shards) {
+            shard.awaitSealing();
+        }
+    }
+
+    /**
+     * Validates the blocks of every shard committed since the last validation, and returns the combined root.
+     * Throws a LedgerException if any shard is invalid.
+     * @return  The combined root of the shards' latest blocks.
+     */
+    public String validate() {
+        for (Ledger shard : shards) {
+            shard.validate();
+        }
+        return getRoot();
+    }
+
+    /**
+     * Validates every block of every shard, and returns the combined root.
+     * Throws a LedgerException if any shard is invalid.
+     * @return  The combined root of the shards' latest blocks.
+     */
+    public String validateAll() {
+        for (Ledger shard : shards) {
+            shard.validateAll();
+        }
+        return getRoot();
+    }
+
+    /**
+     * Returns the Merkle root of the hashes of the shards' latest sealed blocks, in shard order. A shard with no
+     * sealed block contributes an empty hash. The root commits to the whole state of every shard.
+     * @return  The root in hex format.
+     */
+    public String getRoot() {
+        MerkleAccumulator roots = new MerkleAccumulator();
+        for (Ledger shard : shards) {
+            String hash = shard.getView().getBlockHash();
+            roots.add(hash == null ? new byte[32] : Digester.fromHex(hash));
+        }
+        return Digester.toHex(roots.root());
+    }
+
+    /**
+     * Stops the background sealers of every shard.
+     */
+    public void close() {
+        for (Ledger shard : shards) {
+            shard.close();
+        }
+    }
+}
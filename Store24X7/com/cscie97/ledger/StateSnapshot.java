@@ -0,0 +1,301 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of a ledger's committed state at one block: the ledger's name, description and seed,
+ * the block's number and hashes, the sealing policy of the blocks after it, the balance of every account, and the
+ * journal position just after the block's last transaction. A ledger restored from a snapshot only has to replay
+ * the journal after that position, so startup time does not grow with the length of the chain. Snapshots are
+ * written next to the journal, to a temporary file that is atomically renamed, and end with a CRC32 of their
+ * contents; only the two newest are kept, so an unreadable newest snapshot still has a fallback.
+ * The transaction index is persisted beside each snapshot as an index image of the blocks up to its block (see
+ * TransactionIndex.writeImage()), and pruned with it. Restoring a snapshot maps its image and searches it in place,
+ * so restoring does not read the IDs of the transactions before the snapshot.
+ */
+public class StateSnapshot {
+    public static final byte SNAPSHOT = 'S';
+    public static final byte INDEX = 'I';
+    private static final int BUFFER_SIZE = 64 << 10;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final String INDEX_PREFIX = "index-";
+    private static final String INDEX_SUFFIX = ".idx";
+    // Number of snapshots kept; older ones are deleted once a new one has been written
+    private static final int KEEP = 2;
+
+    private final String name;
+    private final String description;
+    private final String seed;
+    private final int blockNumber;
+    private final String previousHash;
+    private final String hash;
+    private final AccountState accounts;
+    private final TransactionIndex transactionIndex;
+    private final long journalPosition;
+    private final SealingPolicy sealingPolicy;
+
+    private StateSnapshot(String name, String description, String seed, int blockNumber, String previousHash,
+                          String hash, AccountState accounts, TransactionIndex transactionIndex,
+                          long journalPosition, SealingPolicy sealingPolicy) {
+        this.name = name;
+        this.description = description;
+        this.seed = seed;
+        this.blockNumber = blockNumber;
+        this.previousHash = previousHash;
+        this.hash = hash;
+        this.accounts = accounts;
+        this.transactionIndex = transactionIndex;
+        this.journalPosition = journalPosition;
+        this.sealingPolicy = sealingPolicy;
+    }
+
+    /**
+     * Writes a snapshot of a committed block to the given directory, preceded by the index image of the blocks up
+     * to it, and deletes the snapshots before the previous one and the index images of deleted snapshots.
+     * @param directory         The directory to write the snapshot to.
+     * @param ledger            The ledger the block belongs to.
+     * @param block             The most recently committed block.
+     * @param transactionIndex  The ledger's transaction index; only the IDs of the blocks up to block are written.
+     * @param journalPosition   The journal position just after the block's last transaction record.
+     * @return                  The path of the snapshot file.
+     */
+    static Path write(Path directory, Ledger ledger, Block block, TransactionIndex transactionIndex,
+                      long journalPosition) {
+        writeAtomically(indexFile(directory, block.getBlockNumber()),
+                encoder -> transactionIndex.writeImage(encoder, block.getBlockNumber()));
+        Path file = directory.resolve(String.format("%s%010d%s", PREFIX, block.getBlockNumber(), SUFFIX));
+        writeAtomically(file, encoder -> {
+            encoder.putByte(SNAPSHOT).putByte(Encoder.VERSION);
+            encoder.putString(ledger.getName()).putString(ledger.getDescription()).putString(ledger.getSeed());
+            encoder.putInt(block.getBlockNumber()).putString(block.getPreviousHash()).putString(block.getHash());
+            encoder.putLong(journalPosition);
+            // The policy in effect when the block was committed applies to the block after it
+            (block.nextPolicy != null ? block.nextPolicy : block.getSealingPolicy()).writeTo(encoder);
+            AccountState accounts = block.accountBalanceMap;
+            encoder.putInt(accounts.size());
+            for (int ordinal = 0; ordinal < accounts.size(); ordinal++) {
+                encoder.putString(accounts.addressOf(ordinal)).putLong(accounts.balance(ordinal));
+            }
+        });
+        try {
+            List<Path> files = list(directory, PREFIX, SUFFIX);
+            List<Path> kept = files.subList(0, Math.min(KEEP, files.size()));
+            for (Path old : files.subList(kept.size(), files.size())) {
+                Files.deleteIfExists(old);
+            }
+            // Images of deleted snapshots, and images left behind by a snapshot that was never written
+            for (Path image : list(directory, INDEX_PREFIX, INDEX_SUFFIX)) {
+                String fileName = image.getFileName().toString();
+                String blockNumber = fileName.substring(INDEX_PREFIX.length(), fileName.length() -
+                        INDEX_SUFFIX.length());
+                if (kept.stream().noneMatch(snapshot -> snapshot.getFileName().toString().equals(
+                        PREFIX + blockNumber + SUFFIX))) {
+                    Files.deleteIfExists(image);
+                }
+            }
+        } catch (IOException e) {
+            throw new LedgerException("write snapshot", e.getMessage());
+        }
+        return file;
+    }
+
+    private static Path indexFile(Path directory, int blockNumber) {
+        return directory.resolve(String.format("%s%010d%s", INDEX_PREFIX, blockNumber, INDEX_SUFFIX));
+    }
+
+    /**
+     * Writes a checksummed file through a temporary file that is forced to disk and atomically renamed.
+     */
+    private static void writeAtomically(Path file, Consumer<Encoder> contents) {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ChannelEncoder encoder = new ChannelEncoder(channel, BUFFER_SIZE);
+            encoder.beginChecksum();
+            contents.accept(encoder);
+            encoder.putChecksum();
+            encoder.flush();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new LedgerException("write snapshot", e.getMessage());
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new LedgerException("write snapshot", e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the newest readable snapshot in the given directory, with the transaction index backed by its index
+     * image. Snapshots that are corrupt, or whose index image is missing or invalid, are skipped.
+     * @param directory The directory the snapshots were written to.
+     * @return          The newest snapshot, or null if there is none.
+     */
+    public static StateSnapshot loadLatest(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+        List<Path> files;
+        try {
+            files = list(directory, PREFIX, SUFFIX);
+        } catch (IOException e) {
+            throw new LedgerException("load snapshot", e.getMessage());
+        }
+        for (Path file : files) {
+            StateSnapshot snapshot = load(directory, file);
+            if (snapshot != null) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Loads a snapshot file and maps its index image.
+     * @return  The snapshot, or null if the file is corrupt or its index image is missing or invalid.
+     */
+    private static StateSnapshot load(Path directory, Path file) {
+        try {
+            Decoder decoder = open(file, SNAPSHOT);
+            if (decoder == null) {
+                return null;
+            }
+            String name = decoder.getString(), description = decoder.getString(), seed = decoder.getString();
+            int blockNumber = decoder.getInt();
+            String previousHash = decoder.getString(), hash = decoder.getString();
+            long journalPosition = decoder.getLong();
+            SealingPolicy sealingPolicy = SealingPolicy.readFrom(decoder);
+            AccountState accounts = new AccountState();
+            int count = decoder.getInt();
+            for (int i = 0; i < count; i++) {
+                int ordinal = accounts.create(decoder.getString());
+                accounts.setBalance(ordinal, decoder.getLong());
+            }
+            TransactionIndex transactionIndex = loadIndex(directory, blockNumber);
+            if (transactionIndex == null) {
+                return null;
+            }
+            return new StateSnapshot(name, description, seed, blockNumber, previousHash, hash, accounts,
+                    transactionIndex, journalPosition, sealingPolicy);
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Restores the transaction index of a snapshot's block from its index image. The image is mapped, not read:
+     * it was forced to disk before it was renamed, so its header and length are checked instead of its checksum.
+     * Helper function to load().
+     * @return  The index, or null if the image is missing or invalid.
+     */
+    private static TransactionIndex loadIndex(Path directory, int blockNumber) {
+        Path file = indexFile(directory, blockNumber);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        return TransactionIndex.fromImage(map(file), blockNumber);
+    }
+
+    /**
+     * Maps a file written by writeAtomically(), checks its checksum and reads its record type.
+     * @return  A decoder positioned after the record type and version, or null if the file is corrupt.
+     */
+    private static Decoder open(Path file, byte type) {
+        MappedByteBuffer mapped = map(file);
+        if (mapped.limit() < 4) {
+            return null;
+        }
+        // Check the checksum before decoding anything
+        CRC32 crc = new CRC32();
+        crc.update(mapped.slice(0, mapped.limit() - 4));
+        if (mapped.getInt(mapped.limit() - 4) != (int) crc.getValue()) {
+            return null;
+        }
+        Decoder decoder = new Decoder(mapped);
+        decoder.expect(type);
+        return decoder;
+    }
+
+    private static MappedByteBuffer map(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new LedgerException("load snapshot", e.getMessage());
+        }
+    }
+
+    /**
+     * Lists the files in a directory with the given prefix and suffix, newest (highest block number) first.
+     */
+    private static List<Path> list(Path directory, String prefix, String suffix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(path -> {
+                String fileName = path.getFileName().toString();
+                return fileName.startsWith(prefix) && fileName.endsWith(suffix);
+            }).sorted(Comparator.reverseOrder()).forEach(files::add);
+        }
+        return files;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getSeed() {
+        return seed;
+    }
+
+    public int getBlockNumber() {
+        return blockNumber;
+    }
+
+    public String getPreviousHash() {
+        return previousHash;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public AccountState getAccounts() {
+        return accounts;
+    }
+
+    public TransactionIndex getTransactionIndex() {
+        return transactionIndex;
+    }
+
+    public long getJournalPosition() {
+        return journalPosition;
+    }
+
+    /**
+     * Returns the sealing policy in effect when the snapshot's block was committed, which applies to the blocks
+     * after it.
+     */
+    public SealingPolicy getSealingPolicy() {
+        return sealingPolicy;
+    }
+}
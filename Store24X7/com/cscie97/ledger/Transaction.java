@@ -1,34 +1,98 @@
 package com.cscie97.ledger;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
  * Represents transactions submitted to the blockchain. Transactions must have an amount greater than zero,
  * a fee greater than or equal to the minimum fee, valid payer and receiver accounts, a unique transaction ID,
  * and optionally may include a note.
+ * The payer and receiver are given by address. When the ledger accepts the transaction it records a copy that
+ * holds the accounts' ordinals in the ledger's account table, and from then on refers to the accounts by ordinal;
+ * the submitted transaction is not changed.
+ * Sealed blocks do not hold Transaction objects; their transactions are read through TransactionView.
  */
-public class Transaction implements Serializable{
-    private final Account payer;
-    private final Account receiver;
+public class Transaction implements Serializable, TransactionView {
+    private final String payerAddress;
+    private final String receiverAddress;
+    // Ordinals of the payer and receiver in the ledger's account table; -1 until the transaction is accepted
+    private transient int payerOrdinal = -1;
+    private transient int receiverOrdinal = -1;
     private final String transactionId;
     private final int amount;
     private final int fee;
     private final String note;
-    public Transaction (String transactionId, int amount, int fee, String note, Account payer, Account receiver) {
+    public Transaction (String transactionId, int amount, int fee, String note, String payerAddress,
+                        String receiverAddress) {
         this.transactionId = transactionId;
         this.amount = amount;
         this.fee = fee;
         this.note = note;
-        this.payer = payer;
-        this.receiver = receiver;
+        this.payerAddress = payerAddress;
+        this.receiverAddress = receiverAddress;
+    }
+
+    public Transaction (String transactionId, int amount, int fee, String note, Account payer, Account receiver) {
+        this(transactionId, amount, fee, note, payer == null ? null : payer.getAddress(),
+                receiver == null ? null : receiver.getAddress());
     }
 
+    /**
+     * Returns the payer as an Account that only holds its address.
+     * @deprecated  Transactions refer to accounts by address; use getPayerAddress(), and
+     *              Ledger.getAccountBalance() for the balance. The returned account's balance is always 0.
+     */
+    @Deprecated
     public Account getPayer() {
-        return payer;
+        return getPayerAddress() == null ? null : new Account(getPayerAddress(), 0);
     }
 
+    /**
+     * Returns the receiver as an Account that only holds its address.
+     * @deprecated  Transactions refer to accounts by address; use getReceiverAddress(), and
+     *              Ledger.getAccountBalance() for the balance. The returned account's balance is always 0.
+     */
+    @Deprecated
     public Account getReceiver() {
-        return receiver;
+        return getReceiverAddress() == null ? null : new Account(getReceiverAddress(), 0);
+    }
+
+    public String getPayerAddress() {
+        return payerAddress;
+    }
+
+    public String getReceiverAddress() {
+        return receiverAddress;
+    }
+
+    /**
+     * Returns the ordinal of the payer in the ledger's account table, or -1 if the transaction was not accepted.
+     */
+    public int getPayerOrdinal() {
+        return payerOrdinal;
+    }
+
+    /**
+     * Returns the ordinal of the receiver in the ledger's account table, or -1 if the transaction was not accepted.
+     */
+    public int getReceiverOrdinal() {
+        return receiverOrdinal;
+    }
+
+    /**
+     * Returns a copy of the transaction that records the ordinals of its payer and receiver in a ledger's account
+     * table. This transaction is not changed.
+     * @param payerOrdinal      The payer's ordinal.
+     * @param receiverOrdinal   The receiver's ordinal.
+     * @return                  The copy.
+     */
+    Transaction withOrdinals(int payerOrdinal, int receiverOrdinal) {
+        Transaction copy = new Transaction(getTransactionId(), getAmount(), getFee(), getNote(), getPayerAddress(),
+                getReceiverAddress());
+        copy.payerOrdinal = payerOrdinal;
+        copy.receiverOrdinal = receiverOrdinal;
+        return copy;
     }
 
     public String getTransactionId() {
@@ -47,4 +111,14 @@ public class Transaction implements Serializable{
         return note;
     }
 
+    /**
+     * Reads a serialized transaction. Ordinals refer to the account table of the ledger that accepted the
+     * transaction, so they are not serialized, and a deserialized transaction has not been accepted.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        payerOrdinal = -1;
+        receiverOrdinal = -1;
+    }
+
 }
@@ -0,0 +1,481 @@
+package com.cscie97.ledger;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Maps transaction IDs to the block number and slot (position in the block's transaction list) where the
+ * transaction was recorded. The index covers committed blocks and the candidate block, so it can be used both
+ * to look up transactions and to reject duplicate transaction IDs in O(1), regardless of the chain length.
+ * IDs are stored in open-addressing tables with primitive locations, fronted by Bloom filters so that most
+ * lookups of unknown IDs never touch a table. The index is thread-safe: it is split into stripes by ID hash, each
+ * with its own lock, and the Bloom filters are checked without locking. A transaction's ID is claimed before its
+ * block and slot are known, so that duplicates are rejected without a lock shared by all transactions; the ID is
+ * in use from then on, but is only found once its location is set.
+ * An index restored from a snapshot is backed by the snapshot's index image: a read-only table mapped from the
+ * file written by writeImage(), which is searched in place, so restoring the index does not depend on the number
+ * of transactions it holds. IDs added after the snapshot go to the stripes.
+ */
+public class TransactionIndex {
+    // Number of stripes; a power of two
+    private static final int STRIPES = 64;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int BLOOM_HASHES = 5;
+    private static final int BLOOM_BITS_PER_ID = 10;
+    // Image layout: record type and version, then the block number, ID count, table capacity, Bloom filter words
+    // and string heap size
+    private static final int IMAGE_HEADER = 2 + 5 * 4;
+    // Each table entry is the location (-1 if the entry is empty) and the offset of the ID in the string heap
+    private static final int IMAGE_ENTRY = 8 + 4;
+    // Location of a claimed ID whose transaction has not been given a slot yet
+    private static final long PENDING = -2;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    // Image of the blocks up to a snapshot; null if the index was not restored from one
+    private final Image image;
+
+    public TransactionIndex() {
+        this(null);
+    }
+
+    private TransactionIndex(Image image) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.image = image;
+    }
+
+    /**
+     * Claims a transaction ID, unless it is already in the index. The claimed ID is in use, but is not found until
+     * locate() sets its location.
+     * @param transactionId The transaction ID.
+     * @return              False if the ID was already in the index.
+     */
+    boolean claim(String transactionId) {
+        long hash = hash(transactionId);
+        if (image != null && image.find(transactionId, hash) >= 0) {
+            return false;
+        }
+        return stripe(hash).add(transactionId, hash, PENDING);
+    }
+
+    /**
+     * Sets the location of a claimed transaction ID.
+     * @param transactionId The claimed transaction ID.
+     * @param blockNumber   The number of the block the transaction was added to.
+     * @param slot          The position of the transaction in the block's transaction list.
+     */
+    void locate(String transactionId, int blockNumber, int slot) {
+        long hash = hash(transactionId);
+        stripe(hash).update(transactionId, hash, location(blockNumber, slot));
+    }
+
+    /**
+     * Releases a claimed transaction ID whose transaction was not added to a block.
+     */
+    void release(String transactionId) {
+        long hash = hash(transactionId);
+        stripe(hash).remove(transactionId, hash);
+    }
+
+    /**
+     * Returns true if the transaction ID is in the index, including a claimed ID whose location is not set yet.
+     */
+    public boolean contains(String transactionId) {
+        return lookup(transactionId) != -1;
+    }
+
+    /**
+     * Finds the location of a transaction.
+     * @param transactionId The unique transaction ID.
+     * @return              The packed block number and slot, or -1 if the ID is not in the index or its location is
+     *                      not set yet. Use blockNumber() and slot() to unpack the location.
+     */
+    public long find(String transactionId) {
+        long location = lookup(transactionId);
+        return location == PENDING ? -1 : location;
+    }
+
+    /**
+     * Finds the location of a transaction, or PENDING if its ID is claimed, or -1 if the ID is not in the index.
+     */
+    private long lookup(String transactionId) {
+        if (transactionId == null) {
+            return -1;
+        }
+        long hash = hash(transactionId);
+        Stripe stripe = stripe(hash);
+        long location = stripe.mightContain(hash) ? stripe.find(transactionId, hash) : -1;
+        if (location < 0 && image != null) {
+            location = image.find(transactionId, hash);
+        }
+        return location;
+    }
+
+    public int size() {
+        int size = image != null ? image.count : 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /**
+     * Writes an image of the IDs of the blocks up to a committed block: the header, an open-addressing table of
+     * locations and string offsets, a Bloom filter, and a heap of the IDs encoded by putString(). IDs of later
+     * blocks are left out, so the image can be written while transactions are still being added.
+     * @param encoder       The encoder to write the image to.
+     * @param blockNumber   The number of the last block in the image.
+     */
+    void writeImage(Encoder encoder, int blockNumber) {
+        Entries entries = new Entries();
+        if (image != null) {
+            image.collect(entries);
+        }
+        for (Stripe stripe : stripes) {
+            stripe.collect(entries, blockNumber);
+        }
+        int count = entries.size;
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < 2 * count) {
+            capacity <<= 1;
+        }
+        long[] bloom = new long[(int) Math.max(1, ((long) count * BLOOM_BITS_PER_ID + 63) / 64)];
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        int[] offsets = new int[count];
+        long heapSize = 0;
+        for (int e = 0; e < count; e++) {
+            long hash = hash(entries.ids[e]);
+            int i = (int) hash & (capacity - 1);
+            while (table[i] >= 0) {
+                i = (i + 1) & (capacity - 1);
+            }
+            table[i] = e;
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                long bit = bloomBit(hash, k, bloom.length * 64L);
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+            offsets[e] = (int) heapSize;
+            heapSize += 4 + 2L * entries.ids[e].length();
+            if (IMAGE_HEADER + (long) capacity * IMAGE_ENTRY + bloom.length * 8L + heapSize + 4 > Integer.MAX_VALUE) {
+                throw new Ledger.LedgerException("write snapshot", "The transaction index is too large for an image.");
+            }
+        }
+
+        encoder.putByte(StateSnapshot.INDEX).putByte(Encoder.VERSION);
+        encoder.putInt(blockNumber).putInt(count).putInt(capacity).putInt(bloom.length).putInt((int) heapSize);
+        for (int e : table) {
+            if (e < 0) {
+                encoder.putLong(-1).putInt(0);
+            } else {
+                encoder.putLong(entries.locations[e]).putInt(offsets[e]);
+            }
+        }
+        for (long word : bloom) {
+            encoder.putLong(word);
+        }
+        for (int e = 0; e < count; e++) {
+            encoder.putString(entries.ids[e]);
+        }
+    }
+
+    /**
+     * Restores an index from an image written by writeImage(). Only the header and the file length are checked;
+     * the image is searched in place and never read as a whole.
+     * @param buffer        The image, followed by its 4-byte checksum.
+     * @param blockNumber   The number of the last block the image must hold.
+     * @return              The index, or null if the buffer does not hold an image of that block.
+     */
+    static TransactionIndex fromImage(ByteBuffer buffer, int blockNumber) {
+        if (buffer.limit() < IMAGE_HEADER || buffer.get(0) != StateSnapshot.INDEX ||
+                buffer.get(1) != Encoder.VERSION || buffer.getInt(2) != blockNumber) {
+            return null;
+        }
+        int count = buffer.getInt(6), capacity = buffer.getInt(10), bloomWords = buffer.getInt(14);
+        int heapSize = buffer.getInt(18);
+        if (count < 0 || capacity < 2L * count || Integer.bitCount(capacity) != 1 || bloomWords < 1 ||
+                heapSize < 0 || IMAGE_HEADER + (long) capacity * IMAGE_ENTRY + bloomWords * 8L + heapSize + 4 !=
+                buffer.limit()) {
+            return null;
+        }
+        return new TransactionIndex(new Image(buffer, count, capacity, bloomWords));
+    }
+
+    public static int blockNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    public static int slot(long location) {
+        return (int) location;
+    }
+
+    static long location(int blockNumber, int slot) {
+        return ((long) blockNumber << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the stripe of an ID hash. The stripe is picked by the hash's top bits, while the table and the Bloom
+     * filter use its low bits.
+     */
+    private Stripe stripe(long hash) {
+        return stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the ID's characters, finished with the MurmurHash3 mixer.
+     */
+    private static long hash(String transactionId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < transactionId.length(); i++) {
+            h = (h ^ transactionId.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Returns the k-th Bloom filter bit of an ID hash, by double hashing with its low and high halves.
+     * @param bits  The number of bits in the filter.
+     */
+    private static long bloomBit(long hash, int k, long bits) {
+        return Integer.toUnsignedLong((int) hash + k * (int) (hash >>> 32)) % bits;
+    }
+
+    /**
+     * Growable lists of IDs and their locations, gathered for an image.
+     */
+    private static final class Entries {
+        private String[] ids = new String[INITIAL_CAPACITY];
+        private long[] locations = new long[INITIAL_CAPACITY];
+        private int size;
+
+        void add(String transactionId, long location) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                locations = Arrays.copyOf(locations, size * 2);
+            }
+            ids[size] = transactionId;
+            locations[size++] = location;
+        }
+    }
+
+    /**
+     * A read-only image mapped from a file written by writeImage(). Lookups probe the mapped table and compare
+     * the ID with the heap in place, so no ID is decoded unless the image is written out again.
+     */
+    private static final class Image {
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int mask;
+        private final long bloomBits;
+        private final int bloomStart;
+        private final int heapStart;
+
+        Image(ByteBuffer buffer, int count, int capacity, int bloomWords) {
+            this.buffer = buffer;
+            this.count = count;
+            mask = capacity - 1;
+            bloomBits = bloomWords * 64L;
+            bloomStart = IMAGE_HEADER + capacity * IMAGE_ENTRY;
+            heapStart = bloomStart + bloomWords * 8;
+        }
+
+        long find(String transactionId, long hash) {
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                long bit = bloomBit(hash, k, bloomBits);
+                if ((buffer.getLong(bloomStart + (int) (bit >>> 6) * 8) & (1L << bit)) == 0) {
+                    return -1;
+                }
+            }
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                int entry = IMAGE_HEADER + i * IMAGE_ENTRY;
+                long location = buffer.getLong(entry);
+                if (location < 0) {
+                    return -1;
+                }
+                if (matches(heapStart + buffer.getInt(entry + 8), transactionId)) {
+                    return location;
+                }
+            }
+        }
+
+        private boolean matches(int offset, String transactionId) {
+            if (buffer.getInt(offset) != transactionId.length()) {
+                return false;
+            }
+            for (int i = 0; i < transactionId.length(); i++) {
+                if (buffer.getChar(offset + 4 + 2 * i) != transactionId.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Decodes every ID in the image, in table order.
+         */
+        void collect(Entries entries) {
+            for (int i = 0; i <= mask; i++) {
+                int entry = IMAGE_HEADER + i * IMAGE_ENTRY;
+                long location = buffer.getLong(entry);
+                if (location >= 0) {
+                    int offset = heapStart + buffer.getInt(entry + 8);
+                    char[] chars = new char[buffer.getInt(offset)];
+                    for (int c = 0; c < chars.length; c++) {
+                        chars[c] = buffer.getChar(offset + 4 + 2 * c);
+                    }
+                    entries.add(new String(chars), location);
+                }
+            }
+        }
+    }
+
+    /**
+     * One stripe of the index: an open-addressing table guarded by the stripe's monitor, and a Bloom filter that
+     * is only written under the monitor but read without it. The filter is replaced, never cleared, when the
+     * table grows, so a reader never misses an ID that was added before it started.
+     */
+    private static final class Stripe {
+        private String[] ids = new String[INITIAL_CAPACITY];
+        private long[] locations = new long[INITIAL_CAPACITY];
+        private volatile int size;
+        private volatile AtomicLongArray bloom = new AtomicLongArray(INITIAL_CAPACITY * BLOOM_BITS_PER_ID / 64);
+
+        /**
+         * Adds an ID, unless it is already in the stripe.
+         * @return  False if the ID was already in the stripe.
+         */
+        synchronized boolean add(String transactionId, long hash, long location) {
+            if (indexOf(transactionId, hash) >= 0) {
+                return false;
+            }
+            if (2 * (size + 1) > ids.length) {
+                resize(ids.length * 2);
+            }
+            insert(transactionId, hash, location);
+            mark(bloom, hash);
+            size++;
+            return true;
+        }
+
+        synchronized void update(String transactionId, long hash, long location) {
+            int i = indexOf(transactionId, hash);
+            if (i < 0) {
+                throw new IllegalStateException("Transaction ID " + transactionId + " was not claimed.");
+            }
+            locations[i] = location;
+        }
+
+        /**
+         * Removes an ID, shifting the later entries of its probe sequence back so that none becomes unreachable.
+         * Its Bloom filter bits are left set.
+         */
+        synchronized void remove(String transactionId, long hash) {
+            int i = indexOf(transactionId, hash);
+            if (i < 0) {
+                return;
+            }
+            int mask = ids.length - 1;
+            for (int j = (i + 1) & mask; ids[j] != null; j = (j + 1) & mask) {
+                // An entry may fill the gap if the gap is not before its home slot in the probe sequence
+                int home = (int) hash(ids[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    ids[i] = ids[j];
+                    locations[i] = locations[j];
+                    i = j;
+                }
+            }
+            ids[i] = null;
+            size--;
+        }
+
+        /**
+         * Adds the IDs of the blocks up to the given block number to the entries.
+         */
+        synchronized void collect(Entries entries, int blockNumber) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != null && locations[i] >= 0 && blockNumber(locations[i]) <= blockNumber) {
+                    entries.add(ids[i], locations[i]);
+                }
+            }
+        }
+
+        synchronized long find(String transactionId, long hash) {
+            int i = indexOf(transactionId, hash);
+            return i < 0 ? -1 : locations[i];
+        }
+
+        private int indexOf(String transactionId, long hash) {
+            int mask = ids.length - 1;
+            for (int i = (int) hash & mask; ids[i] != null; i = (i + 1) & mask) {
+                if (ids[i].equals(transactionId)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(String transactionId, long hash, long location) {
+            int mask = ids.length - 1;
+            int i = (int) hash & mask;
+            while (ids[i] != null) {
+                i = (i + 1) & mask;
+            }
+            ids[i] = transactionId;
+            locations[i] = location;
+        }
+
+        /**
+         * Doubles the table and rebuilds the Bloom filter so that its false positive rate stays constant. The new
+         * filter is published once it holds every ID.
+         */
+        private void resize(int capacity) {
+            String[] oldIds = ids;
+            long[] oldLocations = locations;
+            ids = new String[capacity];
+            locations = new long[capacity];
+            AtomicLongArray filter = new AtomicLongArray(capacity * BLOOM_BITS_PER_ID / 64);
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] != null) {
+                    long hash = hash(oldIds[i]);
+                    insert(oldIds[i], hash, oldLocations[i]);
+                    mark(filter, hash);
+                }
+            }
+            bloom = filter;
+        }
+
+        /**
+         * Sets the ID's bits in a Bloom filter. Only called under the stripe's monitor, so a plain read and a
+         * volatile write of each word cannot lose another writer's bits.
+         */
+        private static void mark(AtomicLongArray filter, long hash) {
+            long bits = (long) filter.length() * 64;
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                long bit = bloomBit(hash, k, bits);
+                int word = (int) (bit >>> 6);
+                filter.set(word, filter.get(word) | 1L << bit);
+            }
+        }
+
+        /**
+         * Checks the ID's bits in the Bloom filter without locking.
+         */
+        boolean mightContain(long hash) {
+            AtomicLongArray filter = bloom;
+            long bits = (long) filter.length() * 64;
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                long bit = bloomBit(hash, k, bits);
+                if ((filter.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
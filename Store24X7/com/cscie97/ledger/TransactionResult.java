@@ -0,0 +1,66 @@
+package com.cscie97.ledger;
+
+import com.cscie97.ledger.Ledger.LedgerException;
+
+/**
+ * Outcome of one transaction submitted in a batch to Ledger.processTransactions(). Accepted transactions
+ * record the number of the block they were added to; rejected transactions record the code and reason, as given
+ * by the LedgerException that processTransaction() would have thrown.
+ */
+public class TransactionResult {
+    private final String transactionId;
+    private final boolean accepted;
+    private final int blockNumber;
+    private final LedgerException.Code code;
+    private final String reason;
+
+    private TransactionResult(String transactionId, boolean accepted, int blockNumber, LedgerException.Code code,
+                              String reason) {
+        this.transactionId = transactionId;
+        this.accepted = accepted;
+        this.blockNumber = blockNumber;
+        this.code = code;
+        this.reason = reason;
+    }
+
+    public static TransactionResult accepted(String transactionId, int blockNumber) {
+        return new TransactionResult(transactionId, true, blockNumber, null, null);
+    }
+
+    public static TransactionResult rejected(String transactionId, String reason) {
+        return rejected(transactionId, LedgerException.Code.OTHER, reason);
+    }
+
+    public static TransactionResult rejected(String transactionId, LedgerException.Code code, String reason) {
+        return new TransactionResult(transactionId, false, 0, code, reason);
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Returns the number of the block the transaction was added to, or 0 if it was rejected.
+     */
+    public int getBlockNumber() {
+        return blockNumber;
+    }
+
+    /**
+     * Returns the kind of failure the transaction was rejected for, or null if it was accepted.
+     */
+    public LedgerException.Code getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the reason the transaction was rejected, or null if it was accepted.
+     */
+    public String getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,68 @@
+package com.cscie97.ledger;
+
+/**
+ * Read-only view of a transaction's fields. Transaction implements it, and so do the flyweights that read the
+ * transactions of a sealed block in place from its PackedTransactions, so the blocks, transactions and account
+ * histories returned by the ledger can be read without rebuilding Transaction objects.
+ * A view also writes its own canonical encoding, so that a view stored in encoded form can copy the encoding
+ * instead of decoding its strings; Encoder.writeTransaction() and Encoder.sizeOf() call these methods.
+ */
+public interface TransactionView {
+    String getTransactionId();
+
+    int getAmount();
+
+    int getFee();
+
+    String getNote();
+
+    String getPayerAddress();
+
+    String getReceiverAddress();
+
+    /**
+     * Returns the ordinal of the payer in the account table of the ledger that accepted the transaction, or -1
+     * if it was not accepted.
+     */
+    int getPayerOrdinal();
+
+    /**
+     * Returns the ordinal of the receiver in the account table of the ledger that accepted the transaction, or
+     * -1 if it was not accepted.
+     */
+    int getReceiverOrdinal();
+
+    /**
+     * Returns a Transaction with the same fields, not yet accepted by any ledger.
+     */
+    default Transaction copy() {
+        return new Transaction(getTransactionId(), getAmount(), getFee(), getNote(), getPayerAddress(),
+                getReceiverAddress());
+    }
+
+    /**
+     * Writes the transaction's canonical encoding: its ID, amount, fee, note and the addresses of the payer and
+     * receiver.
+     * @param encoder   The encoder to write to.
+     * @return          The encoder.
+     */
+    default Encoder writeTo(Encoder encoder) {
+        encoder.putByte(Encoder.TRANSACTION);
+        encoder.putByte(Encoder.VERSION);
+        encoder.putString(getTransactionId());
+        encoder.putInt(getAmount());
+        encoder.putInt(getFee());
+        encoder.putString(getNote());
+        encoder.putString(getPayerAddress());
+        encoder.putString(getReceiverAddress());
+        return encoder;
+    }
+
+    /**
+     * Returns the number of bytes writeTo() writes, without encoding the transaction.
+     */
+    default int encodedSize() {
+        return 2 + Encoder.sizeOf(getTransactionId()) + 4 + 4 + Encoder.sizeOf(getNote()) +
+                Encoder.sizeOf(getPayerAddress()) + Encoder.sizeOf(getReceiverAddress());
+    }
+}
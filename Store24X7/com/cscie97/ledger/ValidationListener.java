@@ -0,0 +1,21 @@
+package com.cscie97.ledger;
+
+/**
+ * Receives progress reports while the ledger is validated. Progress is reported from the validation
+ * pool's worker threads, so implementations must be thread-safe.
+ */
+public interface ValidationListener {
+    /**
+     * Called each time a range of blocks has been validated.
+     * @param blocksValidated   The number of blocks validated so far in this run.
+     * @param totalBlocks       The number of blocks this run will validate.
+     */
+    void progress(int blocksValidated, int totalBlocks);
+
+    /**
+     * Called when a validation run finishes, whether or not the blockchain was valid.
+     * @param blocksValidated   The number of blocks that were validated.
+     * @param elapsedNanos      The time the run took, in nanoseconds.
+     */
+    void completed(int blocksValidated, long elapsedNanos);
+}
@@ -0,0 +1,387 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Block;
+import com.cscie97.ledger.Encoder;
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.SealingPolicy;
+import com.cscie97.ledger.ShardedLedger;
+import com.cscie97.ledger.Transaction;
+import com.cscie97.ledger.TransactionResult;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput benchmark for the ledger. Streams a synthetic workload from a WorkloadGenerator into a Ledger from
+ * one thread and reports the sustained transactions per second, the seal latency percentiles, the growth of the
+ * heap and of off-heap buffers, garbage collection, and the time taken to validate the chain.
+ * The seal latency of a block is the time from submitting the transaction that filled it until the block was
+ * sealed and added to the chain; with inline sealing it is part of the submitting call. The warmup is submitted
+ * one transaction at a time with inline sealing, which also lines the driver's count of the candidate block up
+ * with the ledger's, so it must fill at least one block.
+ * Parameters are given as name=value pairs; every parameter has a default:
+ *   accounts=1000 transactions=200000 warmup=20000 seed=1 payerSkew=1.0 receiverSkew=1.0 maxAmount=1000
+ *   fees=fixed|uniform|exponential meanFee=0 failures=0.01 block=10 blockBytes=0 batch=1 async=false
+ *   shards=0 threads=4
+ * The workload, the accepted and rejected counts and the hash of the last block only depend on the parameters,
+ * so runs with the same parameters can be compared directly.
+ * With shards=N, the same workload is then also run through ShardedLedgers of 1, 2, 4 and so on up to N shards,
+ * each fed by the given number of threads, and the throughput of each is reported relative to one shard.
+ */
+public class BenchmarkDriver {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("accounts", "1000");
+        DEFAULTS.put("transactions", "200000");
+        DEFAULTS.put("warmup", "20000");
+        DEFAULTS.put("seed", "1");
+        DEFAULTS.put("payerSkew", "1.0");
+        DEFAULTS.put("receiverSkew", "1.0");
+        DEFAULTS.put("maxAmount", "1000");
+        DEFAULTS.put("fees", "fixed");
+        DEFAULTS.put("meanFee", "0");
+        DEFAULTS.put("failures", "0.01");
+        DEFAULTS.put("block", String.valueOf(Ledger.TRANSACTIONS_PER_BLOCK));
+        DEFAULTS.put("blockBytes", "0");
+        DEFAULTS.put("batch", "1");
+        DEFAULTS.put("async", "false");
+        DEFAULTS.put("shards", "0");
+        DEFAULTS.put("threads", "4");
+    }
+
+    private final Ledger ledger;
+    private final SealingPolicy policy;
+    private final int batchSize;
+    // Seal latencies of the measured blocks, in nanoseconds; added to by the sealer thread with async sealing
+    private final List<Long> sealLatencies = new ArrayList<>();
+    private boolean measuring;
+    // Number of blocks the ledger had sealed after the last warmup transaction
+    private int warmupBlocks;
+    private boolean aligned;
+    // Transactions and encoded bytes in the candidate block, to find the transaction that fills it
+    private int blockTransactions;
+    private long blockBytes;
+    private long accepted;
+    private long rejected;
+
+    private BenchmarkDriver(Ledger ledger, SealingPolicy policy, int batchSize) {
+        this.ledger = ledger;
+        this.policy = policy;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> parameters = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2 || !DEFAULTS.containsKey(pair[0])) {
+                System.out.println("Unknown parameter: " + arg);
+                System.out.println("Parameters (name=default): " + DEFAULTS);
+                return;
+            }
+            parameters.put(pair[0], pair[1]);
+        }
+        long transactions = Long.parseLong(parameters.get("transactions"));
+        long warmup = Long.parseLong(parameters.get("warmup"));
+        WorkloadGenerator workload = workload(parameters);
+
+        Ledger ledger = new Ledger("benchmark", "ledger throughput benchmark", "benchmark");
+        workload.setUp(ledger);
+        SealingPolicy policy = policy(parameters);
+        ledger.setSealingPolicy(policy);
+        BenchmarkDriver driver = new BenchmarkDriver(ledger, policy, Integer.parseInt(parameters.get("batch")));
+        System.out.println("Parameters: " + parameters);
+
+        // Warm up the JIT and find the first block sealed under the benchmark's policy before measuring
+        driver.warmUp(workload, warmup);
+        if (!driver.aligned) {
+            System.out.println("The warmup did not fill a block; seal latencies may be attributed to the wrong " +
+                    "transactions.");
+        }
+        ledger.setAsyncSealing(Boolean.parseBoolean(parameters.get("async")));
+        long warmupAccepted = driver.accepted, warmupRejected = driver.rejected, warmupInvalid = workload.getInvalid();
+        int startBlocks = ledger.getBlocks();
+        long startHeap = usedHeap(), startDirect = directMemory();
+        long startGcCount = gcCount(), startGcMillis = gcMillis();
+
+        driver.measuring = true;
+        long start = System.nanoTime();
+        driver.run(workload, transactions);
+        ledger.awaitSealing();
+        long elapsed = System.nanoTime() - start;
+        driver.measuring = false;
+
+        long gcCount = gcCount() - startGcCount, gcMillis = gcMillis() - startGcMillis;
+        long heapGrowth = usedHeap() - startHeap, directGrowth = directMemory() - startDirect;
+        int blocks = ledger.getBlocks() - startBlocks;
+        long measuredAccepted = driver.accepted - warmupAccepted, measuredRejected = driver.rejected - warmupRejected;
+
+        long validateStart = System.nanoTime();
+        boolean valid = true;
+        try {
+            ledger.validate();
+        } catch (LedgerException e) {
+            System.out.println(e.getMessage());
+            valid = false;
+        }
+        long validateNanos = System.nanoTime() - validateStart;
+
+        long[] latencies;
+        synchronized (driver.sealLatencies) {
+            latencies = driver.sealLatencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        Block last = ledger.getBlock(ledger.getBlocks());
+        System.out.println("Transactions: " + transactions + " measured after " + warmup + " warmup, accepted: " +
+                measuredAccepted + ", rejected: " + measuredRejected + ", top-ups: " + workload.getTopUps());
+        System.out.println("Rejections match the workload: " + (driver.rejected == workload.getInvalid()) +
+                " (" + (workload.getInvalid() - warmupInvalid) + " made invalid)");
+        System.out.printf("Throughput: %.0f transactions/s, %.0f accepted/s over %.1f ms%n",
+                transactions / (elapsed / 1e9), measuredAccepted / (elapsed / 1e9), elapsed / 1e6);
+        System.out.printf("Seal latency (us) over %d blocks: p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+                latencies.length, percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                percentile(latencies, 99.9), percentile(latencies, 100));
+        System.out.printf("Heap growth: %.1f MB (%.0f bytes per transaction), off-heap growth: %.1f MB%n",
+                heapGrowth / 1048576.0, heapGrowth / (double) Math.max(1, transactions), directGrowth / 1048576.0);
+        System.out.println("GC: " + gcCount + " collections, " + gcMillis + " ms");
+        System.out.printf("Validate: %d blocks in %.1f ms%s%n", ledger.getBlocks(), validateNanos / 1e6,
+                valid ? "" : " (INVALID)");
+        System.out.println("Blocks sealed while measuring: " + blocks + ", last block " + ledger.getBlocks() +
+                " hash " + (last == null ? null : last.getHash()));
+        ledger.close();
+
+        if (Integer.parseInt(parameters.get("shards")) > 0) {
+            runSharded(parameters);
+        }
+    }
+
+    /**
+     * Creates the workload described by the parameters.
+     */
+    private static WorkloadGenerator workload(Map<String, String> parameters) {
+        WorkloadGenerator workload = new WorkloadGenerator(Long.parseLong(parameters.get("seed")),
+                Integer.parseInt(parameters.get("accounts")),
+                Long.parseLong(parameters.get("warmup")) + Long.parseLong(parameters.get("transactions")));
+        workload.setSkew(Double.parseDouble(parameters.get("payerSkew")),
+                Double.parseDouble(parameters.get("receiverSkew")));
+        workload.setMaxAmount(Integer.parseInt(parameters.get("maxAmount")));
+        workload.setFees(WorkloadGenerator.FeeDistribution.valueOf(parameters.get("fees").toUpperCase()),
+                Integer.parseInt(parameters.get("meanFee")));
+        workload.setFailureRatio(Double.parseDouble(parameters.get("failures")));
+        return workload;
+    }
+
+    private static SealingPolicy policy(Map<String, String> parameters) {
+        return new SealingPolicy(Integer.parseInt(parameters.get("block")),
+                Long.parseLong(parameters.get("blockBytes")), 0);
+    }
+
+    /**
+     * Runs the workload through sharded ledgers of 1, 2, 4 and so on up to the given number of shards and reports
+     * the throughput of each. The warmup is submitted from one thread; the measured transactions are generated
+     * up front and split between the threads by payer, or by receiver for top-ups, so each account's payments
+     * and top-ups are submitted in order. Payments into an account may still arrive later than the generator
+     * assumed, so a few more transfers may be rejected as overdrafts than the workload made invalid.
+     */
+    private static void runSharded(Map<String, String> parameters) throws InterruptedException {
+        int maxShards = Integer.parseInt(parameters.get("shards"));
+        int threads = Math.max(1, Integer.parseInt(parameters.get("threads")));
+        long transactions = Long.parseLong(parameters.get("transactions"));
+        long warmup = Long.parseLong(parameters.get("warmup"));
+        double oneShard = 0;
+        for (int shards = 1; ; shards = Math.min(2 * shards, maxShards)) {
+            WorkloadGenerator workload = workload(parameters);
+            ShardedLedger ledger = new ShardedLedger("benchmark", "sharded ledger throughput benchmark",
+                    "benchmark", shards);
+            workload.setUp(ledger);
+            ledger.setSealingPolicy(policy(parameters));
+            LongAdder rejected = new LongAdder();
+            for (long i = 0; i < warmup && workload.hasNext(); i++) {
+                submit(ledger, workload.next(), rejected);
+            }
+            ledger.setAsyncSealing(Boolean.parseBoolean(parameters.get("async")));
+            rejected.reset();
+            List<List<Transaction>> queues = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                queues.add(new ArrayList<>());
+            }
+            while (workload.hasNext()) {
+                Transaction transaction = workload.next();
+                String account = transaction.getPayerAddress().equals(Ledger.MASTER) ?
+                        transaction.getReceiverAddress() : transaction.getPayerAddress();
+                queues.get(Math.floorMod(account.hashCode(), threads)).add(transaction);
+            }
+
+            List<Thread> workers = new ArrayList<>();
+            for (List<Transaction> queue : queues) {
+                workers.add(new Thread(() -> queue.forEach(transaction -> submit(ledger, transaction, rejected))));
+            }
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            ledger.awaitSealing();
+            long elapsed = System.nanoTime() - start;
+
+            boolean valid = true;
+            try {
+                ledger.validateAll();
+            } catch (LedgerException e) {
+                System.out.println(e.getMessage());
+                valid = false;
+            }
+            double throughput = transactions / (elapsed / 1e9);
+            oneShard = shards == 1 ? throughput : oneShard;
+            System.out.printf("Sharded: %d shards, %d threads: %.0f transactions/s (%.2fx one shard) over %.1f ms, " +
+                    "rejected: %d, blocks: %d%s%n", shards, threads, throughput, throughput / oneShard, elapsed / 1e6,
+                    rejected.sum(), ledger.getBlocks(), valid ? "" : " (INVALID)");
+            ledger.close();
+            if (shards == maxShards) {
+                break;
+            }
+        }
+    }
+
+    private static void submit(ShardedLedger ledger, Transaction transaction, LongAdder rejected) {
+        try {
+            ledger.processTransaction(transaction);
+        } catch (LedgerException e) {
+            rejected.increment();
+        }
+    }
+
+    /**
+     * Submits the warmup transactions one at a time, sealing inline. Each time a transaction seals a block, the
+     * count of the candidate block is reset, so that afterwards it matches the ledger's candidate block even
+     * though the setup's transactions were sealed under a different policy.
+     */
+    private void warmUp(WorkloadGenerator workload, long count) {
+        warmupBlocks = ledger.getBlocks();
+        for (long i = 0; i < count && workload.hasNext(); i++) {
+            submit(List.of(workload.next()));
+            if (ledger.getBlocks() != warmupBlocks) {
+                warmupBlocks = ledger.getBlocks();
+                aligned = true;
+                blockTransactions = 0;
+                blockBytes = 0;
+            }
+        }
+    }
+
+    /**
+     * Submits the next transactions of the workload, one at a time or in batches.
+     */
+    private void run(WorkloadGenerator workload, long count) {
+        List<Transaction> batch = new ArrayList<>(batchSize);
+        for (long i = 0; i < count && workload.hasNext(); i++) {
+            batch.add(workload.next());
+            if (batch.size() >= batchSize || i == count - 1 || !workload.hasNext()) {
+                submit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Submits a batch of transactions and, for each block a transaction of the batch filled, records the time
+     * until the block is sealed.
+     */
+    private void submit(List<Transaction> batch) {
+        long start = System.nanoTime();
+        List<String> filling = new ArrayList<>(1);
+        if (batch.size() == 1) {
+            Transaction transaction = batch.get(0);
+            try {
+                ledger.processTransaction(transaction);
+                count(transaction, filling);
+            } catch (LedgerException e) {
+                rejected++;
+            }
+        } else {
+            List<TransactionResult> results = ledger.processTransactions(batch);
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).isAccepted()) {
+                    count(batch.get(i), filling);
+                } else {
+                    rejected++;
+                }
+            }
+        }
+        if (measuring) {
+            for (String transactionId : filling) {
+                ledger.whenSealed(transactionId).thenRun(() -> {
+                    long latency = System.nanoTime() - start;
+                    synchronized (sealLatencies) {
+                        sealLatencies.add(latency);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Adds an accepted transaction to the candidate block's size, and records it if it filled the block.
+     */
+    private void count(Transaction transaction, List<String> filling) {
+        accepted++;
+        blockTransactions++;
+        blockBytes += Encoder.sizeOf(transaction);
+        if (policy.isFull(blockTransactions, blockBytes)) {
+            filling.add(transaction.getTransactionId());
+            blockTransactions = 0;
+            blockBytes = 0;
+        }
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.min(Math.max(index, 0), sorted.length - 1)] / 1e3;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long directMemory() {
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,289 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Block;
+import com.cscie97.ledger.Digester;
+import com.cscie97.ledger.Encoder;
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.MerkleProof;
+import com.cscie97.ledger.SealingPolicy;
+import com.cscie97.ledger.Transaction;
+import com.cscie97.ledger.TransactionResult;
+import com.cscie97.ledger.TransactionView;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Test driver for the contents of a ledger's blocks. Submits a batch mixing valid transactions with ones that must
+ * be rejected, and checks that each result reports what the batch did to the chain: a rejected transaction with
+ * the reason it was rejected and without a trace in the ledger, and an accepted one in the block its result names.
+ * The batch must leave the same chain as submitting its transactions one at a time.
+ * Under a sealing policy, a changed policy must apply from the block after the candidate block, and blocks must be
+ * sealed as soon as they reach the policy's transaction count or byte size, or once its time limit has passed
+ * since their first transaction. A block of LARGE_BLOCK transactions must validate and prove its transactions.
+ * A sealed block's transactions are read through views of its packed records, which must read, encode and hash
+ * like copies of the transactions, and a serialized block must read back with the same transactions and hash.
+ */
+public class BlockTestDriver {
+    private static final int ACCOUNTS = 5;
+    private static final int FEE = Ledger.MIN_TRANSACTION_FEE;
+    private static final int MAX_BYTES = 600;
+    private static final int MAX_MILLIS = 50;
+    private static final int LARGE_BLOCK = 20000;
+
+    private static boolean passed = true;
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException, TimeoutException,
+            IOException, ReflectiveOperationException {
+        batch();
+        sealing();
+        packed();
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void batch() {
+        Ledger ledger = new Ledger("batch", "batch test", "batch");
+        Ledger reference = new Ledger("batch", "batch test", "batch");
+        for (Ledger each : List.of(ledger, reference)) {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                each.createAccount("account" + i);
+            }
+        }
+        List<Transaction> batch = new ArrayList<>();
+        List<LedgerException.Code> expected = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            batch.add(new Transaction("f" + i, 100, FEE, "funding", Ledger.MASTER, "account" + i));
+            expected.add(null);
+        }
+        for (int i = 0; i < 40; i++) {
+            batch.add(new Transaction("t" + i, 1 + i % 3, FEE, "transfer", "account" + i % ACCOUNTS,
+                    "account" + (i + 1) % ACCOUNTS));
+            expected.add(null);
+            if (i % 10 == 3) {
+                // Funded only by the transactions before it in the batch
+                batch.add(new Transaction("o" + i, 1000, FEE, "overdraft", "account0", "account1"));
+                expected.add(LedgerException.Code.INSUFFICIENT_BALANCE);
+                batch.add(new Transaction("t" + i, 1, FEE, "duplicate", "account0", "account1"));
+                expected.add(LedgerException.Code.DUPLICATE_TRANSACTION);
+                batch.add(new Transaction("u" + i, 1, FEE, "unknown", "account0", "nobody"));
+                expected.add(LedgerException.Code.INVALID_ACCOUNT);
+                batch.add(new Transaction("c" + i, 1, FEE - 1, "cheap", "account0", "account1"));
+                expected.add(LedgerException.Code.FEE_TOO_LOW);
+            }
+        }
+
+        List<TransactionResult> results = ledger.processTransactions(batch);
+        for (Transaction transaction : batch) {
+            try {
+                reference.processTransaction(transaction);
+            } catch (LedgerException e) {
+                // Rejected by both ledgers, as checked below
+            }
+        }
+
+        check("one result per transaction", results.size() == batch.size());
+        boolean codes = true, ids = true, rejectedAbsent = true, acceptedInBlock = true;
+        for (int i = 0; i < results.size(); i++) {
+            TransactionResult result = results.get(i);
+            String id = batch.get(i).getTransactionId();
+            ids &= result.getTransactionId().equals(id);
+            codes &= result.isAccepted() == (expected.get(i) == null) &&
+                    (result.isAccepted() || result.getCode() == expected.get(i));
+            if (!result.isAccepted() && expected.get(i) != LedgerException.Code.DUPLICATE_TRANSACTION) {
+                rejectedAbsent &= !ledger.containsTransaction(id);
+            }
+            if (result.isAccepted() && result.getBlockNumber() <= ledger.getBlocks()) {
+                acceptedInBlock &= ledger.getInclusionProof(id).getBlockNumber() == result.getBlockNumber();
+            }
+        }
+        check("results in submission order", ids);
+        check("results report the expected outcome and rejection code", codes);
+        check("rejected transactions not in the ledger", rejectedAbsent);
+        check("accepted transactions in the block their result names", acceptedInBlock);
+        check("batch seals the same chain as single submissions", ledger.getBlocks() == reference.getBlocks() &&
+                ledger.getBlock(ledger.getBlocks()).getHash().equals(
+                        reference.getBlock(reference.getBlocks()).getHash()));
+        boolean balances = true;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            balances &= ledger.getAccountBalance("account" + i) == reference.getAccountBalance("account" + i);
+        }
+        check("batch leaves the same balances as single submissions", balances);
+        validate(ledger);
+        ledger.close();
+        reference.close();
+    }
+
+    private static void sealing() throws InterruptedException, ExecutionException, TimeoutException {
+        Ledger ledger = new Ledger("sealing", "sealing test", "sealing");
+        ledger.createAccount("payer");
+        ledger.createAccount("receiver");
+        ledger.processTransaction(new Transaction("fund", 1000000, FEE, "funding", Ledger.MASTER, "payer"));
+
+        // The candidate block keeps the policy it was created with
+        ledger.setSealingPolicy(new SealingPolicy(25, 0, 0));
+        ledger.processTransactions(transfers("n", Ledger.TRANSACTIONS_PER_BLOCK - 1));
+        List<Transaction> transactions = transfers("c", 25);
+        ledger.processTransactions(transactions);
+        Block first = ledger.whenSealed("fund").join();
+        Block counted = ledger.whenSealed(transactions.get(0).getTransactionId()).join();
+        check("policy applies from the next block", first.getSummary().getTransactionCount() ==
+                Ledger.TRANSACTIONS_PER_BLOCK && first.getSealingPolicy().equals(SealingPolicy.DEFAULT));
+        check("block sealed at the transaction count", counted.getBlockNumber() == first.getBlockNumber() + 1 &&
+                counted.getSummary().getTransactionCount() == 25);
+
+        // Equal-size transactions, so the number that reaches the byte limit is known
+        ledger.setSealingPolicy(new SealingPolicy(1000, MAX_BYTES, 0));
+        fill(ledger, "p");
+        int size = Encoder.sizeOf(transfers("b", 1).get(0));
+        transactions = transfers("b", 3 * MAX_BYTES / size);
+        ledger.processTransactions(transactions);
+        Block sized = ledger.whenSealed(transactions.get(0).getTransactionId()).join();
+        check("block sealed at the byte size", sized.getSummary().getTransactionCount() ==
+                (MAX_BYTES + size - 1) / size && sized.getByteSize() >= MAX_BYTES &&
+                sized.getByteSize() - size < MAX_BYTES);
+
+        ledger.setSealingPolicy(new SealingPolicy(1000, 0, MAX_MILLIS));
+        fill(ledger, "q");
+        transactions = transfers("m", 1);
+        long start = System.nanoTime();
+        ledger.processTransactions(transactions);
+        Block timed = ledger.whenSealed(transactions.get(0).getTransactionId()).get(5, TimeUnit.SECONDS);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        check("block sealed by the time limit (" + elapsedMillis + " ms)", timed.getSummary()
+                .getTransactionCount() == 1 && elapsedMillis >= MAX_MILLIS);
+
+        ledger.setSealingPolicy(new SealingPolicy(LARGE_BLOCK, 0, 0));
+        // Sealed by the time limit of the policy it was created with
+        transactions = transfers("x", 1);
+        ledger.processTransactions(transactions);
+        ledger.whenSealed(transactions.get(0).getTransactionId()).get(5, TimeUnit.SECONDS);
+        transactions = transfers("l", LARGE_BLOCK);
+        ledger.processTransactions(transactions);
+        String last = transactions.get(LARGE_BLOCK - 1).getTransactionId();
+        Block large = ledger.whenSealed(last).get(5, TimeUnit.SECONDS);
+        check("large block holds " + LARGE_BLOCK + " transactions", large.getSummary().getTransactionCount() ==
+                LARGE_BLOCK);
+        check("large block proves its last transaction",
+                MerkleProof.verify(ledger.getInclusionProof(last), ledger.getTransaction(last), ledger.getSeed()));
+        validate(ledger);
+        ledger.close();
+    }
+
+    private static void packed() throws IOException, ReflectiveOperationException {
+        Ledger ledger = new Ledger("packed", "packed test", "packed");
+        ledger.createAccount("payer");
+        ledger.createAccount("receiver");
+        ledger.processTransaction(new Transaction("fund", 1000000, FEE, "funding", Ledger.MASTER, "payer"));
+        for (int i = 0; i < 2 * Ledger.TRANSACTIONS_PER_BLOCK; i++) {
+            // Notes of varied length, including none
+            ledger.processTransaction(new Transaction("t" + i, 1 + i, FEE + i % 3, i % 4 == 0 ? null : "note" + i,
+                    i % 2 == 0 ? "payer" : Ledger.MASTER, "receiver"));
+        }
+        Block block = ledger.getBlock(2);
+        check("sealed block packed", block.getPackedByteSize() > 0);
+
+        boolean views = true;
+        int viewed = 0;
+        for (int i = 0; i < 2 * Ledger.TRANSACTIONS_PER_BLOCK; i++) {
+            TransactionView view = ledger.getTransaction("t" + i);
+            if (view == null) {
+                continue;
+            }
+            views &= !(view instanceof Transaction) && same(view, view.copy()) &&
+                    Encoder.sizeOf(view) == Encoder.sizeOf(view.copy()) &&
+                    Arrays.equals(Digester.hash(view), Digester.hash(view.copy()));
+            viewed++;
+        }
+        check("views of " + viewed + " packed transactions read, encode and hash like copies", views && viewed > 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(block);
+        }
+        Block restored;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            restored = (Block) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        Field field = Block.class.getDeclaredField("transactionList");
+        field.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        List<TransactionView> original = (List<TransactionView>) field.get(block);
+        @SuppressWarnings("unchecked")
+        List<TransactionView> read = (List<TransactionView>) field.get(restored);
+        boolean transactions = original.size() == read.size() && !read.isEmpty();
+        for (int i = 0; transactions && i < read.size(); i++) {
+            transactions = same(original.get(i), read.get(i));
+        }
+        check("serialized block reads back with its transactions", transactions);
+        check("serialized block reads back unpacked", restored.getPackedByteSize() == 0);
+        check("serialized block hashes the same", restored.getHash().equals(block.getHash()) &&
+                restored.hashBlock(ledger.getSeed()).equals(block.getHash()));
+        validate(ledger);
+        ledger.close();
+    }
+
+    /**
+     * Returns true if two transactions have the same fields.
+     */
+    private static boolean same(TransactionView a, TransactionView b) {
+        return a.getTransactionId().equals(b.getTransactionId()) && a.getAmount() == b.getAmount() &&
+                a.getFee() == b.getFee() && Objects.equals(a.getNote(), b.getNote()) &&
+                a.getPayerAddress().equals(b.getPayerAddress()) &&
+                a.getReceiverAddress().equals(b.getReceiverAddress());
+    }
+
+    /**
+     * Submits transfers one at a time until the candidate block is sealed.
+     */
+    private static void fill(Ledger ledger, String prefix) {
+        int blocks = ledger.getBlocks();
+        for (int i = 0; ledger.getBlocks() == blocks; i++) {
+            ledger.processTransaction(new Transaction(String.format("%s%06d", prefix, i), 1, FEE, "transfer",
+                    "payer", "receiver"));
+        }
+    }
+
+    /**
+     * Returns transfers from the payer to the receiver with IDs of the same length, so their encoded sizes are
+     * equal.
+     */
+    private static List<Transaction> transfers(String prefix, int count) {
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            transactions.add(new Transaction(String.format("%s%06d", prefix, i), 1, FEE, "transfer", "payer",
+                    "receiver"));
+        }
+        return transactions;
+    }
+
+    private static void validate(Ledger ledger) {
+        try {
+            ledger.validateAll();
+            check("ledger validates", true);
+        } catch (LedgerException e) {
+            check(e.getMessage(), false);
+        }
+    }
+
+    private static void check(String description, boolean condition) {
+        System.out.println((condition ? "ok: " : "FAILED: ") + description);
+        passed &= condition;
+    }
+}
@@ -0,0 +1,144 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Account;
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.LedgerView;
+import com.cscie97.ledger.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test driver for concurrent transaction processing.
+ * Many threads submit random transfers between a small set of accounts, so that payers are contended and many
+ * transfers would overdraw their payer. Meanwhile a reader thread checks that every published ledger view is
+ * consistent: its balances sum to the master account's starting balance. Afterwards the blockchain is validated
+ * and every committed account balance is checked to be non-negative. Optional parameters: thread count,
+ * transactions per thread, and "async" to seal blocks on the ledger's background sealer.
+ */
+public class ConcurrencyTestDriver {
+    private static final int ACCOUNTS = 32;
+    private static final int STARTING_BALANCE = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int transactionsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        boolean async = args.length > 2 && args[2].equals("async");
+
+        Ledger ledger = new Ledger("stress", "concurrency stress test", "stress");
+        ledger.setAsyncSealing(async);
+        // The ledger looks accounts up by address, so this stands in for the master account
+        Account master = new Account(Ledger.MASTER, 0);
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(ledger.createAccount("account" + i));
+            ledger.processTransaction(new Transaction("start" + i, STARTING_BALANCE, 10, "starting balance",
+                    master, accounts.get(i)));
+        }
+
+        // The funding transactions above are reported separately from the workers' accepted transactions
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger overdrafts = new AtomicInteger();
+        AtomicInteger views = new AtomicInteger();
+        AtomicInteger tornViews = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        Thread reader = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Balances read through one view must always add up, whatever the writers are doing
+                LedgerView view = ledger.getView();
+                if (view.getBlockNumber() == 0) {
+                    continue;
+                }
+                long sum = 0;
+                for (Account account : view.getAccountBalances().values()) {
+                    sum += account.getBalance();
+                }
+                if (sum != Ledger.MASTER_STARTING_BALANCE) {
+                    tornViews.incrementAndGet();
+                }
+                views.incrementAndGet();
+            }
+        });
+        reader.start();
+        for (int t = 0; t < threads; t++) {
+            int threadNumber = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(threadNumber);
+                for (int i = 0; i < transactionsPerThread; i++) {
+                    Account payer, receiver;
+                    int amount;
+                    if (i % 50 == 0) {
+                        // Top up a random account from the master account
+                        payer = master;
+                        receiver = accounts.get(random.nextInt(ACCOUNTS));
+                        amount = STARTING_BALANCE;
+                    } else {
+                        payer = accounts.get(random.nextInt(ACCOUNTS));
+                        receiver = accounts.get(random.nextInt(ACCOUNTS));
+                        amount = 1 + random.nextInt(400);
+                    }
+                    try {
+                        ledger.processTransaction(new Transaction(threadNumber + ":" + i, amount, 10, "stress",
+                                payer, receiver));
+                        accepted.incrementAndGet();
+                    } catch (LedgerException e) {
+                        if (e.getReason().equals("Payer balance too low.")) {
+                            overdrafts.incrementAndGet();
+                        } else {
+                            System.out.println(e.getMessage());
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        reader.interrupt();
+        reader.join();
+        ledger.awaitSealing();
+
+        boolean passed = failures.get() == 0 && tornViews.get() == 0;
+        try {
+            ledger.validateAll();
+        } catch (LedgerException e) {
+            System.out.println(e.getMessage());
+            passed = false;
+        }
+        for (Map.Entry<String, Account> entry : ledger.getAccountBalances().entrySet()) {
+            if (entry.getValue().getBalance() < 0) {
+                System.out.println("Negative balance: " + entry.getKey() + " = " + entry.getValue().getBalance());
+                passed = false;
+            }
+        }
+        int committed = ledger.getBlocks() * Ledger.TRANSACTIONS_PER_BLOCK;
+        int processed = ACCOUNTS + accepted.get();
+        if (committed > processed || processed - committed >= Ledger.TRANSACTIONS_PER_BLOCK) {
+            System.out.println("Processed " + processed + " transactions but committed " + committed);
+            passed = false;
+        }
+
+        System.out.println("Threads: " + threads + ", transactions submitted: " + threads * transactionsPerThread +
+                (async ? ", asynchronous sealing" : ""));
+        System.out.println("Funding transactions: " + ACCOUNTS + ", accepted: " + accepted.get() +
+                ", rejected (overdraft): " + overdrafts.get());
+        System.out.println("Blocks committed: " + ledger.getBlocks());
+        System.out.println("Views read: " + views.get() + ", inconsistent: " + tornViews.get());
+        System.out.printf("Elapsed: %.1f ms%n", elapsed / 1e6);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.Mempool;
+import com.cscie97.ledger.Transaction;
+import com.cscie97.ledger.TransactionResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Test driver for the mempool. Checks that pending transactions are fed to the ledger highest fee first and in
+ * arrival order among equal fees, that a full pool evicts its lowest-fee transaction or rejects a new one that pays
+ * less, that a transaction whose payer cannot afford it is held back and accepted once a later transaction funds
+ * the payer, that an unfunded transaction is retried MAX_DEFERRALS times with a delay between retries before it is
+ * rejected, and that a closed pool rejects new transactions.
+ * Transactions are submitted while holding the pool's monitor, so the feeder cannot take any of them until all
+ * have been submitted.
+ */
+public class MempoolTestDriver {
+    private static final int FEE = Ledger.MIN_TRANSACTION_FEE;
+
+    private static boolean passed = true;
+    private static int nextId;
+
+    public static void main(String[] args) {
+        Ledger ledger = new Ledger("mempool", "mempool test", "mempool");
+        ledger.createAccount("payer");
+        ledger.createAccount("receiver");
+        ledger.createAccount("poor");
+        ledger.processTransaction(new Transaction("fund", 10000, FEE, "funding", Ledger.MASTER, "payer"));
+
+        ordering(ledger);
+        capacity(ledger);
+        deferral(ledger);
+        ledger.close();
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void ordering(Ledger ledger) {
+        Mempool mempool = new Mempool(ledger, 100, 1);
+        List<Integer> fees = List.of(FEE, FEE + 20, FEE + 10, FEE + 20, FEE);
+        List<String> submitted = new ArrayList<>();
+        List<String> processed = new ArrayList<>();
+        synchronized (mempool) {
+            for (int fee : fees) {
+                Transaction transaction = transfer("payer", fee);
+                submitted.add(transaction.getTransactionId());
+                // The feeder completes the results one at a time, in the order it hands them to the ledger
+                mempool.submit(transaction).thenAccept(result -> processed.add(result.getTransactionId()));
+            }
+        }
+        mempool.close();
+        List<String> expected = List.of(submitted.get(1), submitted.get(3), submitted.get(2), submitted.get(0),
+                submitted.get(4));
+        check("highest fee first, then arrival order " + processed, processed.equals(expected));
+        check("all accepted", mempool.getAccepted() == fees.size() && mempool.getRejected() == 0);
+    }
+
+    private static void capacity(Ledger ledger) {
+        Mempool mempool = new Mempool(ledger, 3, 1);
+        List<CompletableFuture<TransactionResult>> results = new ArrayList<>();
+        int size;
+        synchronized (mempool) {
+            for (int extraFee = 10; extraFee <= 40; extraFee += 10) {
+                results.add(mempool.submit(transfer("payer", FEE + extraFee)));
+            }
+            // Pays less than every pending transaction
+            results.add(mempool.submit(transfer("payer", FEE + 5)));
+            size = mempool.size();
+        }
+        mempool.close();
+        check("pool stays within its capacity", size == 3);
+        check("lowest-fee pending transaction evicted",
+                results.get(0).join().getCode() == LedgerException.Code.MEMPOOL_FULL);
+        check("new transaction paying less than the pool rejected",
+                results.get(4).join().getCode() == LedgerException.Code.MEMPOOL_FULL);
+        check("eviction counted once", mempool.getEvicted() == 1 && mempool.getRejected() == 2);
+        check("remaining transactions accepted", results.get(1).join().isAccepted() &&
+                results.get(2).join().isAccepted() && results.get(3).join().isAccepted());
+    }
+
+    private static void deferral(Ledger ledger) {
+        // The unfunded transaction is tried first; it must be held back until the funding has been processed,
+        // rather than retried ahead of it
+        Mempool mempool = new Mempool(ledger, 100, 1);
+        CompletableFuture<TransactionResult> unfunded, funding;
+        synchronized (mempool) {
+            unfunded = mempool.submit(transfer("poor", FEE + 10));
+            funding = mempool.submit(new Transaction("t" + nextId++, 500, FEE, "funding", "payer", "poor"));
+        }
+        check("funding accepted", funding.join().isAccepted());
+        check("deferred transaction accepted once its payer is funded", unfunded.join().isAccepted());
+        check("deferred once", mempool.getDeferred() == 1);
+        mempool.close();
+
+        // With no funding, the transaction is retried MAX_DEFERRALS times, each after the retry delay
+        mempool = new Mempool(ledger, 100, 1);
+        long start = System.nanoTime();
+        TransactionResult result = mempool.submit(new Transaction("t" + nextId++, 100000, FEE, "overdraft", "poor",
+                "receiver")).join();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        check("unfunded transaction rejected", !result.isAccepted() &&
+                result.getCode() == LedgerException.Code.INSUFFICIENT_BALANCE);
+        check("unfunded transaction deferred " + Mempool.MAX_DEFERRALS + " times",
+                mempool.getDeferred() == Mempool.MAX_DEFERRALS);
+        check("retries held back for the retry delay (" + elapsedMillis + " ms)",
+                elapsedMillis >= Mempool.MAX_DEFERRALS * Mempool.RETRY_DELAY_MILLIS);
+        mempool.close();
+
+        TransactionResult closed = mempool.submit(transfer("payer", FEE)).join();
+        check("closed pool rejects transactions", !closed.isAccepted() &&
+                closed.getCode() == LedgerException.Code.MEMPOOL_CLOSED);
+    }
+
+    private static Transaction transfer(String payer, int fee) {
+        return new Transaction("t" + nextId++, 1, fee, "transfer", payer, "receiver");
+    }
+
+    private static void check(String description, boolean condition) {
+        System.out.println((condition ? "ok: " : "FAILED: ") + description);
+        passed &= condition;
+    }
+}
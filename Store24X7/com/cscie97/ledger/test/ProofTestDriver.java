@@ -0,0 +1,184 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.BalanceProof;
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.MerkleProof;
+import com.cscie97.ledger.SealingPolicy;
+import com.cscie97.ledger.Transaction;
+import com.cscie97.ledger.TransactionView;
+
+import java.lang.reflect.Field;
+
+/**
+ * Test driver for the proofs a ledger gives to clients. Checks that the inclusion proof of every transaction in
+ * the sealed blocks verifies against its block's hash, including blocks with an odd number of transactions, and
+ * that a proof does not verify for a transaction whose fields were altered, for another transaction, under
+ * another seed, or once a sibling hash on its path has been altered. Proofs of transactions that are not in a
+ * sealed block cannot be built.
+ * The balance proof of every account of a ledger with enough accounts for a multi-level state trie must verify,
+ * and a balance proof must not verify under another seed, with an altered balance, with another account's balance
+ * in its leaf altered, or with a hash on its path altered. A proof from an earlier block still verifies, but names
+ * that block rather than the newest one.
+ * Altered proofs are made by changing the proofs' private arrays through reflection, since a proof cannot be
+ * built from arbitrary fields.
+ */
+public class ProofTestDriver {
+    private static final int ACCOUNTS = 6;
+    // The first block holds the funding and four transfers, and the next ones seven transfers each, so the last
+    // two transfers stay in the candidate block
+    private static final int TRANSACTIONS = 62;
+    private static final int FEE = Ledger.MIN_TRANSACTION_FEE;
+    // Enough accounts for two inner levels of 32-way trie nodes above the leaves
+    private static final int STATE_ACCOUNTS = 1100;
+
+    private static boolean passed = true;
+
+    public static void main(String[] args) throws ReflectiveOperationException {
+        Ledger ledger = new Ledger("proof", "proof test", "proof");
+        for (int i = 0; i < ACCOUNTS; i++) {
+            ledger.createAccount("account" + i);
+            ledger.processTransaction(new Transaction("f" + i, 1000, FEE, "funding", Ledger.MASTER, "account" + i));
+        }
+        // Blocks after the first hold an odd number of transactions, so some nodes are carried up unpaired
+        ledger.setSealingPolicy(new SealingPolicy(7, 0, 0));
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            ledger.processTransaction(new Transaction("t" + i, 1 + i % 5, FEE, "transfer " + i,
+                    "account" + i % ACCOUNTS, "account" + (i + 1) % ACCOUNTS));
+        }
+
+        inclusion(ledger);
+        ledger.close();
+        balance();
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void inclusion(Ledger ledger) throws ReflectiveOperationException {
+        boolean verified = true, hashes = true;
+        int proved = 0;
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            String id = "t" + i;
+            if (ledger.getTransaction(id) == null) {
+                // Still in the candidate block
+                continue;
+            }
+            MerkleProof proof = ledger.getInclusionProof(id);
+            verified &= MerkleProof.verify(proof, ledger.getTransaction(id), ledger.getSeed());
+            hashes &= proof.getBlockHash().equals(ledger.getBlock(proof.getBlockNumber()).getHash());
+            proved++;
+        }
+        check("inclusion proofs of " + proved + " transactions verify", verified && proved > 0);
+        check("inclusion proofs name their block's hash", hashes);
+
+        TransactionView transaction = ledger.getTransaction("t8");
+        MerkleProof proof = ledger.getInclusionProof("t8");
+        check("proof has a sibling path", proof.getPathLength() > 0);
+        check("altered amount does not verify", !MerkleProof.verify(proof, new Transaction("t8",
+                transaction.getAmount() + 1, transaction.getFee(), transaction.getNote(),
+                transaction.getPayerAddress(), transaction.getReceiverAddress()), ledger.getSeed()));
+        check("altered receiver does not verify", !MerkleProof.verify(proof, new Transaction("t8",
+                transaction.getAmount(), transaction.getFee(), transaction.getNote(),
+                transaction.getPayerAddress(), transaction.getPayerAddress()), ledger.getSeed()));
+        check("another transaction does not verify",
+                !MerkleProof.verify(proof, ledger.getTransaction("t9"), ledger.getSeed()));
+        Transaction renamed = new Transaction("t9", transaction.getAmount(), transaction.getFee(),
+                transaction.getNote(), transaction.getPayerAddress(), transaction.getReceiverAddress());
+        check("another transaction ID does not verify",
+                !MerkleProof.verify(ledger.getInclusionProof("t9"), renamed, ledger.getSeed()));
+        check("another seed does not verify", !MerkleProof.verify(proof, transaction, "other"));
+
+        byte[][] siblings = (byte[][]) field(MerkleProof.class, "siblings").get(proof);
+        siblings[siblings.length - 1][0] ^= 1;
+        check("altered sibling hash does not verify", !MerkleProof.verify(proof, transaction, ledger.getSeed()));
+        proof = ledger.getInclusionProof("t8");
+        boolean[] siblingOnLeft = (boolean[]) field(MerkleProof.class, "siblingOnLeft").get(proof);
+        siblingOnLeft[0] = !siblingOnLeft[0];
+        check("sibling on the wrong side does not verify", !MerkleProof.verify(proof, transaction,
+                ledger.getSeed()));
+
+        try {
+            ledger.getInclusionProof("t" + (TRANSACTIONS - 1));
+            check("no proof of a transaction in the candidate block", false);
+        } catch (LedgerException e) {
+            check("no proof of a transaction in the candidate block", true);
+        }
+        try {
+            ledger.getInclusionProof("missing");
+            check("no proof of an unknown transaction", false);
+        } catch (LedgerException e) {
+            check("no proof of an unknown transaction", true);
+        }
+    }
+
+    private static void balance() throws ReflectiveOperationException {
+        Ledger ledger = new Ledger("balance", "balance proof test", "balance");
+        for (int i = 0; i < STATE_ACCOUNTS; i++) {
+            ledger.createAccount("account" + i);
+            ledger.processTransaction(new Transaction("f" + i, 1 + i, FEE, "funding", Ledger.MASTER, "account" + i));
+        }
+        String newest = ledger.getBlock(ledger.getBlocks()).getHash();
+        boolean verified = true, balances = true, hashes = true;
+        for (int i = 0; i < STATE_ACCOUNTS; i += 7) {
+            BalanceProof proof = ledger.getAccountBalanceProof("account" + i);
+            verified &= BalanceProof.verify(proof, ledger.getSeed());
+            balances &= proof.getBalance() == ledger.getAccountBalance("account" + i);
+            hashes &= proof.getBlockHash().equals(newest);
+        }
+        BalanceProof master = ledger.getAccountBalanceProof(Ledger.MASTER);
+        check("balance proofs verify", verified && BalanceProof.verify(master, ledger.getSeed()));
+        check("balance proofs carry the account's balance", balances);
+        check("balance proofs name the newest block", hashes);
+
+        BalanceProof proof = ledger.getAccountBalanceProof("account1000");
+        check("balance proof has a multi-level path", proof.getPathLength() >= 2 && proof.getLeafSize() > 1);
+        check("another seed does not verify", !BalanceProof.verify(proof, "other"));
+        field(BalanceProof.class, "balance").setLong(proof, proof.getBalance() + 1);
+        check("altered balance does not verify", !BalanceProof.verify(proof, ledger.getSeed()));
+        proof = ledger.getAccountBalanceProof("account1000");
+        String[] leafAddresses = (String[]) field(BalanceProof.class, "leafAddresses").get(proof);
+        long[] leafBalances = (long[]) field(BalanceProof.class, "leafBalances").get(proof);
+        leafBalances[leafAddresses[0].equals(proof.getAddress()) ? 1 : 0]++;
+        check("altered neighbour balance does not verify", !BalanceProof.verify(proof, ledger.getSeed()));
+        proof = ledger.getAccountBalanceProof("account1000");
+        byte[][][] levels = (byte[][][]) field(BalanceProof.class, "levels").get(proof);
+        byte[][] top = levels[levels.length - 1];
+        for (int i = 0; i < top.length; i++) {
+            if (top[i] != null) {
+                top[i] = top[i].clone();
+                top[i][0] ^= 1;
+                break;
+            }
+        }
+        check("altered path hash does not verify", !BalanceProof.verify(proof, ledger.getSeed()));
+
+        BalanceProof earlier = ledger.getAccountBalanceProof("account0");
+        for (int i = 0; i < Ledger.TRANSACTIONS_PER_BLOCK; i++) {
+            ledger.processTransaction(new Transaction("p" + i, 1, FEE, "payment", Ledger.MASTER, "account0"));
+        }
+        BalanceProof later = ledger.getAccountBalanceProof("account0");
+        check("proof from an earlier block verifies but names that block", BalanceProof.verify(earlier,
+                ledger.getSeed()) && !earlier.getBlockHash().equals(later.getBlockHash()) &&
+                earlier.getBalance() != later.getBalance());
+        try {
+            ledger.getAccountBalanceProof("nobody");
+            check("no proof of an unknown account", false);
+        } catch (LedgerException e) {
+            check("no proof of an unknown account", true);
+        }
+        ledger.close();
+    }
+
+    private static Field field(Class<?> type, String name) throws NoSuchFieldException {
+        Field field = type.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    private static void check(String description, boolean condition) {
+        System.out.println((condition ? "ok: " : "FAILED: ") + description);
+        passed &= condition;
+    }
+}
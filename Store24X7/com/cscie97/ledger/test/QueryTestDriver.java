@@ -0,0 +1,201 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.BlockSummary;
+import com.cscie97.ledger.HistoryPage;
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Transaction;
+import com.cscie97.ledger.TransactionView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test driver for the queries a ledger answers from its indexes. Pages through an account's history with a page
+ * size that does not divide the block size, so pages end and resume inside blocks, and checks that the pages
+ * together list exactly the account's transactions in the sealed blocks, in order, that every page but the last
+ * is full, and that a history starting from a later block leaves out the earlier blocks. The expected results
+ * are computed from the transactions submitted, which are accepted in submission order.
+ * Block range summaries are checked against totals computed from the submitted transactions for every range of
+ * sealed blocks, including ranges reaching past either end of the chain, and time window summaries against the
+ * blocks sealed in each window.
+ */
+public class QueryTestDriver {
+    private static final int ACCOUNTS = 7;
+    private static final int TRANSACTIONS = 300;
+    private static final int FEE = Ledger.MIN_TRANSACTION_FEE;
+
+    private static boolean passed = true;
+
+    public static void main(String[] args) {
+        Ledger ledger = new Ledger("query", "query test", "query");
+        List<Transaction> submitted = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            ledger.createAccount("account" + i);
+            submitted.add(new Transaction("f" + i, 1000, FEE, "funding", Ledger.MASTER, "account" + i));
+        }
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            // Account pairs vary, so an account's transactions fall in uneven slots of each block
+            submitted.add(new Transaction("t" + i, 1 + i % 9, FEE + i % 4, "transfer", "account" + i % ACCOUNTS,
+                    "account" + (i * 3 + 1) % ACCOUNTS));
+        }
+        for (Transaction transaction : submitted) {
+            ledger.processTransaction(transaction);
+        }
+
+        history(ledger, submitted);
+        summaries(ledger, submitted);
+        ledger.close();
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void history(Ledger ledger, List<Transaction> submitted) {
+        String address = "account2";
+        int limit = 3;
+        List<String> expected = expectedHistory(ledger, submitted, address, 1);
+        List<String> paged = new ArrayList<>();
+        boolean fullPages = true, crossesBlocks = false, resumesInBlock = false;
+        int fromBlock = 1, fromSlot = 0, pages = 0;
+        while (fromBlock > 0 && pages <= expected.size()) {
+            HistoryPage page = ledger.getAccountHistory(address, fromBlock, fromSlot, limit);
+            pages++;
+            List<TransactionView> transactions = page.getTransactions();
+            for (TransactionView transaction : transactions) {
+                paged.add(transaction.getTransactionId());
+            }
+            if (page.getNextBlock() > 0) {
+                fullPages &= transactions.size() == limit;
+                resumesInBlock |= page.getNextSlot() > 0;
+            }
+            if (!transactions.isEmpty()) {
+                crossesBlocks |= blockOf(ledger, transactions.get(0)) !=
+                        blockOf(ledger, transactions.get(transactions.size() - 1));
+            }
+            fromBlock = page.getNextBlock();
+            fromSlot = page.getNextSlot();
+        }
+        check("pages list the account's transactions in order (" + paged.size() + " of " + expected.size() + ")",
+                paged.equals(expected) && !expected.isEmpty());
+        check("every page but the last is full", fullPages);
+        check("a page spans a block boundary", crossesBlocks);
+        check("a page resumes inside a block", resumesInBlock);
+
+        int middle = ledger.getBlocks() / 2;
+        List<String> later = ids(ledger.getAccountHistory(address, middle, expected.size()));
+        check("history from block " + middle + " leaves out the earlier blocks",
+                later.equals(expectedHistory(ledger, submitted, address, middle)));
+        HistoryPage all = ledger.getAccountHistory(address, 1, expected.size() + 1);
+        check("a page larger than the history is the last page", ids(all).equals(expected) &&
+                all.getNextBlock() == 0);
+        check("an unknown account has no history",
+                ledger.getAccountHistory("nobody", 1, limit).getTransactions().isEmpty());
+    }
+
+    private static void summaries(Ledger ledger, List<Transaction> submitted) {
+        int blocks = ledger.getBlocks();
+        long[] counts = new long[blocks + 1], amounts = new long[blocks + 1], fees = new long[blocks + 1];
+        int[] mins = new int[blocks + 1], maxes = new int[blocks + 1];
+        for (int block = 1; block <= blocks; block++) {
+            mins[block] = Integer.MAX_VALUE;
+            maxes[block] = Integer.MIN_VALUE;
+        }
+        for (Transaction transaction : submitted) {
+            TransactionView sealed = ledger.getTransaction(transaction.getTransactionId());
+            if (sealed == null) {
+                continue;
+            }
+            int block = blockOf(ledger, sealed);
+            counts[block]++;
+            amounts[block] += transaction.getAmount();
+            fees[block] += transaction.getFee();
+            mins[block] = Math.min(mins[block], transaction.getAmount());
+            maxes[block] = Math.max(maxes[block], transaction.getAmount());
+        }
+
+        boolean ranges = true;
+        for (int from = 0; from <= blocks + 1; from++) {
+            for (int to = from; to <= blocks + 2; to++) {
+                BlockSummary summary = ledger.summarizeBlocks(from, to);
+                int first = Math.max(from, 1), last = Math.min(to, blocks);
+                if (first > last) {
+                    ranges &= summary == null;
+                    continue;
+                }
+                long count = 0, amount = 0, fee = 0;
+                int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+                for (int block = first; block <= last; block++) {
+                    count += counts[block];
+                    amount += amounts[block];
+                    fee += fees[block];
+                    min = Math.min(min, mins[block]);
+                    max = Math.max(max, maxes[block]);
+                }
+                ranges &= summary != null && summary.getFromBlock() == first && summary.getToBlock() == last &&
+                        summary.getTransactionCount() == count && summary.getTotalAmount() == amount &&
+                        summary.getTotalFees() == fee && summary.getMinAmount() == min &&
+                        summary.getMaxAmount() == max;
+            }
+        }
+        check("summaries of every block range match the transactions", ranges);
+        check("reversed range has no summary", ledger.summarizeBlocks(blocks, 1) == null);
+
+        long[] sealedAt = new long[blocks + 1];
+        for (int block = 1; block <= blocks; block++) {
+            sealedAt[block] = ledger.getBlock(block).getSummary().getLastSealedAt();
+        }
+        boolean windows = true;
+        for (int from = 1; from <= blocks; from += 3) {
+            for (int to = from; to <= blocks; to += 5) {
+                BlockSummary summary = ledger.summarizeTime(sealedAt[from], sealedAt[to] + 1);
+                long count = 0;
+                for (int block = 1; block <= blocks; block++) {
+                    if (sealedAt[block] >= sealedAt[from] && sealedAt[block] <= sealedAt[to]) {
+                        count += counts[block];
+                    }
+                }
+                windows &= summary != null && summary.getTransactionCount() == count &&
+                        summary.getFirstSealedAt() >= sealedAt[from] && summary.getLastSealedAt() <= sealedAt[to];
+            }
+        }
+        check("summaries of time windows match the blocks sealed in them", windows);
+        check("window before the first block has no summary",
+                ledger.summarizeTime(0, ledger.getBlock(1).getSummary().getLastSealedAt()) == null);
+    }
+
+    /**
+     * Returns the IDs of the submitted transactions that the account paid or received, in sealed blocks from the
+     * given block number on.
+     */
+    private static List<String> expectedHistory(Ledger ledger, List<Transaction> submitted, String address,
+                                                int fromBlock) {
+        List<String> expected = new ArrayList<>();
+        for (Transaction transaction : submitted) {
+            TransactionView sealed = ledger.getTransaction(transaction.getTransactionId());
+            if (sealed != null && blockOf(ledger, sealed) >= fromBlock &&
+                    (address.equals(transaction.getPayerAddress()) ||
+                    address.equals(transaction.getReceiverAddress()))) {
+                expected.add(transaction.getTransactionId());
+            }
+        }
+        return expected;
+    }
+
+    private static int blockOf(Ledger ledger, TransactionView transaction) {
+        return ledger.getInclusionProof(transaction.getTransactionId()).getBlockNumber();
+    }
+
+    private static List<String> ids(HistoryPage page) {
+        List<String> ids = new ArrayList<>();
+        for (TransactionView transaction : page.getTransactions()) {
+            ids.add(transaction.getTransactionId());
+        }
+        return ids;
+    }
+
+    private static void check(String description, boolean condition) {
+        System.out.println((condition ? "ok: " : "FAILED: ") + description);
+        passed &= condition;
+    }
+}
@@ -0,0 +1,144 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.LedgerClient;
+import com.cscie97.ledger.LedgerRegistry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Test driver for the ledger registry's names. Checks that a name cannot be registered twice, whether by creating
+ * or opening a ledger and even by threads racing for it, and that a refused registration leaves the ledger
+ * already registered under the name untouched. A journal directory cannot be opened by two registered ledgers,
+ * and a journal cannot be opened under a name other than that of the ledger it holds. A closed ledger's name and
+ * directory can be registered again.
+ */
+public class RegistryTestDriver {
+    private static final int FEE = Ledger.MIN_TRANSACTION_FEE;
+    private static final int THREADS = 8;
+
+    private static boolean passed = true;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("ledger-registry");
+        try (LedgerRegistry registry = new LedgerRegistry()) {
+            created(registry);
+            opened(registry, directory);
+            race(registry);
+            unknown(registry);
+        } finally {
+            delete(directory);
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void created(LedgerRegistry registry) {
+        LedgerClient east = registry.create("east", "east region", "east");
+        east.createAccount("customer");
+        east.transfer("e1", Ledger.MASTER, "customer", 100, FEE, "funding");
+        Ledger ledger = registry.getLedger("east");
+        refused("second ledger named east", () -> registry.create("east", "duplicate", "other"));
+        check("refused registration leaves the registered ledger", registry.getLedger("east") == ledger &&
+                registry.getClient("east").containsTransaction("e1"));
+
+        registry.close("east");
+        check("closed ledger unregistered", !registry.contains("east"));
+        registry.create("east", "east region", "east");
+        check("name of a closed ledger reused", !registry.getClient("east").containsTransaction("e1"));
+    }
+
+    private static void opened(LedgerRegistry registry, Path directory) {
+        LedgerClient west = registry.open(directory, "west", "west region", "west");
+        west.createAccount("customer");
+        west.transfer("w1", Ledger.MASTER, "customer", 100, FEE, "funding");
+        Ledger ledger = registry.getLedger("west");
+        refused("journal opened twice under its name", () -> registry.open(directory, "west", "west region",
+                "west"));
+        refused("journal opened again under another name", () -> registry.open(directory, "north", "north region",
+                "north"));
+        refused("in-memory ledger created under a durable ledger's name", () -> registry.create("west", "duplicate",
+                "other"));
+        check("refused registrations leave the registered ledgers", registry.getLedger("west") == ledger &&
+                !registry.contains("north") && registry.getNames().equals(Set.of("east", "west")));
+        west.transfer("w2", Ledger.MASTER, "customer", 100, FEE, "funding");
+
+        registry.close("west");
+        refused("journal opened under a name other than its ledger's", () -> registry.open(directory, "north",
+                "north region", "north"));
+        check("mismatched journal not registered", !registry.contains("north") && !registry.contains("west"));
+        west = registry.open(directory, "west", "west region", "west");
+        check("closed journal reopened under its name", west.containsTransaction("w1") &&
+                west.containsTransaction("w2"));
+        registry.close("west");
+    }
+
+    private static void race(LedgerRegistry registry) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger registered = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    registry.create("race", "race " + thread, "race");
+                    registered.incrementAndGet();
+                } catch (LedgerException e) {
+                    refused.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        check("one of " + THREADS + " racing registrations wins", registered.get() == 1 &&
+                refused.get() == THREADS - 1);
+    }
+
+    private static void unknown(LedgerRegistry registry) {
+        refused("client of an unknown ledger", () -> registry.getClient("missing"));
+        refused("task for an unknown ledger", () -> registry.submit("missing", client -> null));
+        refused("close of an unknown ledger", () -> registry.close("missing"));
+    }
+
+    /**
+     * Checks that an action is refused with a LedgerException.
+     */
+    private static void refused(String description, Runnable action) {
+        try {
+            action.run();
+            check(description + " refused", false);
+        } catch (LedgerException e) {
+            check(description + " refused", true);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static void check(String description, boolean condition) {
+        System.out.println((condition ? "ok: " : "FAILED: ") + description);
+        passed &= condition;
+    }
+}
@@ -0,0 +1,139 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.SealingPolicy;
+import com.cscie97.ledger.ShardedLedger;
+import com.cscie97.ledger.Transaction;
+
+/**
+ * Test driver for cross-shard transfers of a sharded ledger. Checks that a transfer moves the amount between
+ * shards, that a transfer to an unknown receiver is rejected before the payer is debited, that client transaction
+ * IDs with the suffixes reserved for a transfer's credit and refund steps are rejected, that a transfer whose
+ * credit step fails refunds the payer, and that a transfer whose refund fails as well fails with an exception
+ * reporting the amount held by the payer shard's master account. Every shard validates after each case.
+ */
+public class ShardedLedgerTestDriver {
+    private static final int SHARDS = 4;
+    private static final int TOP_UP = 100;
+    private static final int FEE = Ledger.MIN_TRANSACTION_FEE;
+
+    private static boolean passed = true;
+
+    public static void main(String[] args) {
+        ShardedLedger ledger = new ShardedLedger("sharded", "sharded ledger test", "sharded", SHARDS);
+        // Seal every transaction after the first blocks, so balances can be read right after it
+        ledger.setSealingPolicy(new SealingPolicy(1, 0, 0));
+        // Find two accounts on different shards
+        String payer = "payer", receiver = "receiver";
+        for (int i = 0; ledger.shardOf(receiver) == ledger.shardOf(payer); i++) {
+            receiver = "receiver" + i;
+        }
+        ledger.createAccount(payer);
+        ledger.createAccount(receiver);
+        // The first block of each shard keeps the default policy; fill it with top-ups
+        for (int i = 0; i < Ledger.TRANSACTIONS_PER_BLOCK; i++) {
+            ledger.processTransaction(new Transaction("fund-payer-" + i, TOP_UP, FEE, "funding", Ledger.MASTER,
+                    payer));
+            ledger.processTransaction(new Transaction("fund-receiver-" + i, TOP_UP, FEE, "funding", Ledger.MASTER,
+                    receiver));
+        }
+        long expected = TOP_UP * Ledger.TRANSACTIONS_PER_BLOCK;
+        long received = expected;
+
+        ledger.processTransaction(new Transaction("x1", 100, FEE, "transfer", payer, receiver));
+        expected -= 100 + FEE;
+        check("cross-shard transfer debits the payer", ledger.getAccountBalance(payer) == expected);
+        check("cross-shard transfer credits the receiver", ledger.getAccountBalance(receiver) == received + 100);
+        validate(ledger);
+
+        // A receiver that does not exist on its shard is rejected before the payer is debited
+        String unknown = "unknown";
+        for (int i = 0; ledger.shardOf(unknown) == ledger.shardOf(payer); i++) {
+            unknown = "unknown" + i;
+        }
+        try {
+            ledger.processTransaction(new Transaction("x0", 100, FEE, "transfer", payer, unknown));
+            check("transfer to an unknown receiver rejected", false);
+        } catch (LedgerException e) {
+            check("transfer to an unknown receiver rejected", e.getCode() == LedgerException.Code.INVALID_ACCOUNT);
+        }
+        check("transfer to an unknown receiver leaves the payer unchanged",
+                ledger.getAccountBalance(payer) == expected && !ledger.getShard(ledger.shardOf(payer))
+                .containsTransaction("x0"));
+
+        // The IDs of a transfer's steps cannot be taken by client transactions beforehand
+        for (String suffix : new String[] {ShardedLedger.CREDIT_SUFFIX, ShardedLedger.REFUND_SUFFIX}) {
+            try {
+                ledger.processTransaction(new Transaction("x2" + suffix, 1, FEE, "reserved", payer, receiver));
+                check("transaction ID ending in " + suffix + " rejected", false);
+            } catch (LedgerException e) {
+                check("transaction ID ending in " + suffix + " rejected",
+                        e.getCode() == LedgerException.Code.RESERVED_TRANSACTION_ID);
+            }
+        }
+        check("rejected transactions leave the payer unchanged", ledger.getAccountBalance(payer) == expected);
+        ledger.processTransaction(new Transaction("x2", 100, FEE, "transfer", payer, receiver));
+        expected -= 100 + FEE;
+        check("transfer after reserved IDs debits the payer", ledger.getAccountBalance(payer) == expected);
+        check("transfer after reserved IDs credits the receiver", ledger.getAccountBalance(receiver) == received + 200);
+        validate(ledger);
+
+        // A shard accessed directly can still hold a step's ID; the credit step then fails and the payer is
+        // refunded the amount, but not the fee
+        Ledger payerShard = ledger.getShard(ledger.shardOf(payer));
+        Ledger receiverShard = ledger.getShard(ledger.shardOf(receiver));
+        receiverShard.processTransaction(new Transaction("x3" + ShardedLedger.CREDIT_SUFFIX, 1, FEE, "direct",
+                Ledger.MASTER, receiver));
+        try {
+            ledger.processTransaction(new Transaction("x3", 100, FEE, "transfer", payer, receiver));
+            check("transfer with a failed credit step rejected", false);
+        } catch (LedgerException e) {
+            check("transfer with a failed credit step rejected",
+                    e.getCode() == LedgerException.Code.DUPLICATE_TRANSACTION);
+        }
+        expected -= FEE;
+        check("transfer with a failed credit step refunded", ledger.getAccountBalance(payer) == expected);
+        check("transfer with a failed credit step credits nothing",
+                ledger.getAccountBalance(receiver) == received + 201);
+        validate(ledger);
+
+        // If the refund fails too, the transfer fails loudly and reports the stranded amount
+        receiverShard.processTransaction(new Transaction("x4" + ShardedLedger.CREDIT_SUFFIX, 1, FEE, "direct",
+                Ledger.MASTER, receiver));
+        payerShard.processTransaction(new Transaction("x4" + ShardedLedger.REFUND_SUFFIX, 1, FEE, "direct",
+                Ledger.MASTER, payer));
+        expected += 1;
+        try {
+            ledger.processTransaction(new Transaction("x4", 100, FEE, "transfer", payer, receiver));
+            check("transfer with a failed refund rejected", false);
+        } catch (LedgerException e) {
+            check("transfer with a failed refund reports the stranded amount",
+                    e.getCode() == LedgerException.Code.TRANSFER_NOT_REFUNDED &&
+                    e.getReason().contains("100 is held") && e.getSuppressed().length == 2);
+        }
+        expected -= 100 + FEE;
+        check("transfer with a failed refund debits the payer", ledger.getAccountBalance(payer) == expected);
+        validate(ledger);
+
+        ledger.close();
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void validate(ShardedLedger ledger) {
+        try {
+            ledger.validateAll();
+            check("every shard validates", true);
+        } catch (LedgerException e) {
+            check(e.getMessage(), false);
+        }
+    }
+
+    private static void check(String description, boolean condition) {
+        System.out.println((condition ? "ok: " : "FAILED: ") + description);
+        passed &= condition;
+    }
+}
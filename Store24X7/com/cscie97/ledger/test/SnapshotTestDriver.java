@@ -0,0 +1,160 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.Transaction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Test driver for snapshots of a durable ledger. Writes a journal with periodic snapshots to a temporary directory
+ * and checks that snapshots do not grow with the chain, that only the newest snapshots are kept, and that a
+ * restored ledger has the same balances and chain, still rejects the IDs of transactions from before its snapshot,
+ * and reports those transactions and their blocks as unavailable. The ledger is then restored once more after
+ * the newest snapshot is deleted, from the one before it. Finally, a ledger recovered from its journal alone is
+ * snapshot and reopened, which must resume the journal after the snapshot's block rather than replay it whole.
+ */
+public class SnapshotTestDriver {
+    private static final int ACCOUNTS = 20;
+    private static final int SNAPSHOT_INTERVAL = 5;
+    private static final int TRANSACTIONS = 400;
+
+    private static boolean passed = true;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("ledger-snapshot");
+        try {
+            run(directory);
+        } finally {
+            delete(directory);
+        }
+        directory = Files.createTempDirectory("ledger-snapshot");
+        try {
+            snapshotAfterRecovery(directory);
+        } finally {
+            delete(directory);
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void run(Path directory) throws IOException {
+        Ledger ledger = Ledger.open(directory, "snapshot", "snapshot test", "snapshot");
+        ledger.setSnapshotInterval(SNAPSHOT_INTERVAL);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            ledger.createAccount("account" + i);
+            ledger.processTransaction(new Transaction("f" + i, 1000, 10, "funding", Ledger.MASTER, "account" + i));
+        }
+        List<Long> sizes = new ArrayList<>();
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            ledger.processTransaction(new Transaction("t" + i, 1 + i % 7, 10, "transfer", "account" + i % ACCOUNTS,
+                    "account" + (i + 1) % ACCOUNTS));
+            if (ledger.getBlocks() % SNAPSHOT_INTERVAL == 0 && (i + 1) % Ledger.TRANSACTIONS_PER_BLOCK == 0) {
+                sizes.add(Files.size(files(directory, "snapshot-").get(0)));
+            }
+        }
+        int blocks = ledger.getBlocks();
+        String hash = ledger.getBlock(blocks).getHash();
+        long balance = ledger.getAccountBalance("account7");
+        ledger.close();
+
+        check("snapshot size does not grow with the chain " + sizes, sizes.stream().distinct().count() == 1);
+        check("two snapshots kept", files(directory, "snapshot-").size() == 2);
+        check("index images pruned with their snapshots", files(directory, "index-").size() == 2);
+
+        restore(directory, blocks, hash, balance);
+        // Without the newest snapshot, the previous one is restored and more of the journal is replayed
+        Files.delete(files(directory, "snapshot-").get(0));
+        restore(directory, blocks, hash, balance);
+    }
+
+    /**
+     * Opens a ledger recovered by replaying its journal, snapshots it, adds more transactions and opens it again
+     * from the snapshot. The snapshot's journal position must be that of its block's last record, not the start of
+     * the journal, or the transactions before it would be replayed again.
+     */
+    private static void snapshotAfterRecovery(Path directory) throws IOException {
+        Ledger ledger = Ledger.open(directory, "snapshot", "snapshot test", "snapshot");
+        for (int i = 0; i < ACCOUNTS; i++) {
+            ledger.createAccount("account" + i);
+            ledger.processTransaction(new Transaction("f" + i, 1000, 10, "funding", Ledger.MASTER, "account" + i));
+        }
+        for (int i = 0; i < TRANSACTIONS / 2; i++) {
+            ledger.processTransaction(new Transaction("t" + i, 1 + i % 7, 10, "transfer", "account" + i % ACCOUNTS,
+                    "account" + (i + 1) % ACCOUNTS));
+        }
+        ledger.close();
+
+        ledger = Ledger.open(directory, "snapshot", "snapshot test", "snapshot");
+        check("recovered without a snapshot", ledger.getBlock(1) != null);
+        ledger.snapshot();
+        for (int i = TRANSACTIONS / 2; i < TRANSACTIONS; i++) {
+            ledger.processTransaction(new Transaction("t" + i, 1 + i % 7, 10, "transfer", "account" + i % ACCOUNTS,
+                    "account" + (i + 1) % ACCOUNTS));
+        }
+        int blocks = ledger.getBlocks();
+        String hash = ledger.getBlock(blocks).getHash();
+        long balance = ledger.getAccountBalance("account7");
+        ledger.close();
+        check("snapshot written after recovery", files(directory, "snapshot-").size() == 1);
+
+        restore(directory, blocks, hash, balance);
+    }
+
+    private static void restore(Path directory, int blocks, String hash, long balance) {
+        Ledger ledger = Ledger.open(directory, "snapshot", "snapshot test", "snapshot");
+        check("restored chain length", ledger.getBlocks() == blocks);
+        check("restored block hash", ledger.getBlock(blocks) != null && ledger.getBlock(blocks).getHash().equals(hash));
+        check("restored balance", ledger.getAccountBalance("account7") == balance);
+        // Blocks and transactions up to the snapshot are not held by a restored ledger, but their IDs are in use
+        check("pre-snapshot block unavailable", ledger.getBlock(1) == null);
+        check("pre-snapshot transaction unavailable", ledger.getTransaction("f0") == null);
+        check("pre-snapshot transaction ID in use", ledger.containsTransaction("f0"));
+        check("pre-snapshot block not sealed again", ledger.whenSealed("f0").join() == null);
+        try {
+            ledger.processTransaction(new Transaction("f0", 1, 10, "duplicate", Ledger.MASTER, "account0"));
+            check("duplicate of a pre-snapshot transaction rejected", false);
+        } catch (LedgerException e) {
+            check("duplicate of a pre-snapshot transaction rejected", e.getReason().contains("already exists"));
+        }
+        check("transaction after the snapshot available",
+                ledger.getTransaction("t" + (TRANSACTIONS - 1)) != null);
+        try {
+            ledger.validateAll();
+        } catch (LedgerException e) {
+            check(e.getMessage(), false);
+        }
+        ledger.close();
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Lists the files in the directory with the given prefix, newest first.
+     */
+    private static List<Path> files(Path directory, String prefix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(path -> path.getFileName().toString().startsWith(prefix))
+                    .sorted(Comparator.reverseOrder()).forEach(files::add);
+        }
+        return files;
+    }
+
+    private static void check(String description, boolean condition) {
+        System.out.println((condition ? "ok: " : "FAILED: ") + description);
+        passed &= condition;
+    }
+}
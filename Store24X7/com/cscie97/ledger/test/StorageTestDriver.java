@@ -0,0 +1,200 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.BlockStore;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.MerkleProof;
+import com.cscie97.ledger.Transaction;
+import com.cscie97.ledger.TransactionView;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Test driver for the durable storage of a ledger. Writes a journal to a temporary directory while an in-memory
+ * ledger processes the same transactions, and checks that a ledger recovered from the journal has the same chain
+ * and balances, still holds the transactions of its candidate block, and rejects the IDs of transactions it
+ * replayed. The journal is then torn by appending a partial record, as a crash in the middle of a write would
+ * leave it; recovery must discard the partial record and the recovered ledger must keep appending to the journal.
+ * Every ledger validates and must end with the in-memory ledger's chain.
+ * A ledger with a block archive keeps only its newest blocks on the heap; its archived blocks, their transactions
+ * and their inclusion proofs must read back as the in-memory ledger's, the first read of an archived block must
+ * miss the cache and the next one hit it, and a block pushed out of the bounded cache must be read again.
+ */
+public class StorageTestDriver {
+    private static final int ACCOUNTS = 10;
+    // Leaves the last block of each run partly filled
+    private static final int TRANSACTIONS = 95;
+    private static final int FEE = Ledger.MIN_TRANSACTION_FEE;
+    private static final int HOT_BLOCKS = 3;
+    private static final int CACHE_SIZE = 4;
+
+    private static boolean passed = true;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("ledger-storage");
+        try {
+            journal(directory);
+        } finally {
+            delete(directory);
+        }
+        directory = Files.createTempDirectory("ledger-archive");
+        try {
+            archive(directory);
+        } finally {
+            delete(directory);
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void journal(Path directory) throws IOException {
+        Ledger reference = new Ledger("storage", "storage test", "storage");
+        Ledger ledger = Ledger.open(directory, "storage", "storage test", "storage");
+        for (Ledger each : List.of(reference, ledger)) {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                each.createAccount("account" + i);
+                each.processTransaction(new Transaction("f" + i, 1000, FEE, "funding", Ledger.MASTER,
+                        "account" + i));
+            }
+            transfer(each, 0, TRANSACTIONS);
+        }
+        ledger.close();
+
+        ledger = Ledger.open(directory, "storage", "storage test", "storage");
+        compare("recovered", ledger, reference);
+        check("candidate block transaction recovered", ledger.containsTransaction("t" + (TRANSACTIONS - 1)));
+        try {
+            ledger.processTransaction(new Transaction("t0", 1, FEE, "duplicate", "account0", "account1"));
+            check("duplicate of a replayed transaction rejected", false);
+        } catch (LedgerException e) {
+            check("duplicate of a replayed transaction rejected",
+                    e.getCode() == LedgerException.Code.DUPLICATE_TRANSACTION);
+        }
+        // Seals the recovered candidate block, whose transactions came from the journal
+        transfer(ledger, TRANSACTIONS, 2 * TRANSACTIONS);
+        transfer(reference, TRANSACTIONS, 2 * TRANSACTIONS);
+        compare("recovered ledger continues the chain", ledger, reference);
+        ledger.close();
+
+        // A partial record: a length prefix promising more bytes than follow it
+        List<Path> segments = files(directory, "journal-");
+        Path last = segments.get(segments.size() - 1);
+        long size = Files.size(last);
+        Files.write(last, new byte[] {0, 0, 0, 64, 1, 2, 3}, StandardOpenOption.APPEND);
+        ledger = Ledger.open(directory, "storage", "storage test", "storage");
+        check("torn record discarded", Files.size(last) == size);
+        compare("recovered after a torn write", ledger, reference);
+        transfer(ledger, 2 * TRANSACTIONS, 3 * TRANSACTIONS);
+        transfer(reference, 2 * TRANSACTIONS, 3 * TRANSACTIONS);
+        ledger.close();
+        ledger = Ledger.open(directory, "storage", "storage test", "storage");
+        compare("journal appended after a torn write", ledger, reference);
+        ledger.close();
+        reference.close();
+    }
+
+    private static void archive(Path directory) {
+        Ledger reference = new Ledger("storage", "storage test", "storage");
+        Ledger ledger = new Ledger("storage", "storage test", "storage");
+        ledger.setBlockArchive(directory, HOT_BLOCKS, CACHE_SIZE);
+        for (Ledger each : List.of(reference, ledger)) {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                each.createAccount("account" + i);
+                each.processTransaction(new Transaction("f" + i, 1000, FEE, "funding", Ledger.MASTER,
+                        "account" + i));
+            }
+            transfer(each, 0, 3 * TRANSACTIONS);
+        }
+        BlockStore store = ledger.getBlockStore();
+        int blocks = ledger.getBlocks();
+        check("only the newest blocks kept on the heap", store.getHotBlocks() <= HOT_BLOCKS + 1 &&
+                store.getArchivedBlocks() >= blocks - HOT_BLOCKS - 1);
+
+        boolean hashes = true;
+        for (int i = 1; i <= blocks; i++) {
+            hashes &= ledger.getBlock(i) != null && ledger.getBlock(i).getHash().equals(
+                    reference.getBlock(i).getHash());
+        }
+        check("archived blocks read back with their hashes", hashes);
+        TransactionView archived = ledger.getTransaction("t0");
+        TransactionView expected = reference.getTransaction("t0");
+        check("archived transaction read back", archived != null && archived.getAmount() == expected.getAmount() &&
+                archived.getReceiverAddress().equals(expected.getReceiverAddress()));
+        check("inclusion proof of an archived transaction verifies",
+                MerkleProof.verify(ledger.getInclusionProof("t0"), archived, ledger.getSeed()));
+
+        // The last CACHE_SIZE archived blocks read above are cached; the first ones were pushed out again
+        int cached = blocks - HOT_BLOCKS - 1;
+        long hits = store.getCacheHits(), misses = store.getCacheMisses();
+        ledger.getBlock(cached);
+        check("cached block served from the cache", store.getCacheHits() == hits + 1 &&
+                store.getCacheMisses() == misses);
+        ledger.getBlock(1);
+        check("block pushed out of the cache read again", store.getCacheMisses() == misses + 1);
+        compare("archived", ledger, reference);
+        ledger.close();
+        reference.close();
+    }
+
+    /**
+     * Processes transfers between the accounts, with transaction IDs t[from] to t[to - 1].
+     */
+    private static void transfer(Ledger ledger, int from, int to) {
+        for (int i = from; i < to; i++) {
+            ledger.processTransaction(new Transaction("t" + i, 1 + i % 7, FEE, "transfer", "account" + i % ACCOUNTS,
+                    "account" + (i + 1) % ACCOUNTS));
+        }
+    }
+
+    /**
+     * Checks that a ledger has the chain and balances of the reference ledger, and validates it.
+     */
+    private static void compare(String description, Ledger ledger, Ledger reference) {
+        int blocks = reference.getBlocks();
+        check(description + ": chain length", ledger.getBlocks() == blocks);
+        check(description + ": newest block hash", ledger.getBlock(blocks) != null &&
+                ledger.getBlock(blocks).getHash().equals(reference.getBlock(blocks).getHash()));
+        boolean balances = ledger.getAccountBalance(Ledger.MASTER) == reference.getAccountBalance(Ledger.MASTER);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            balances &= ledger.getAccountBalance("account" + i) == reference.getAccountBalance("account" + i);
+        }
+        check(description + ": balances", balances);
+        try {
+            ledger.validateAll();
+            check(description + ": validates", true);
+        } catch (LedgerException e) {
+            check(description + ": " + e.getMessage(), false);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Lists the files in the directory with the given prefix, oldest first.
+     */
+    private static List<Path> files(Path directory, String prefix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(path -> path.getFileName().toString().startsWith(prefix)).sorted().forEach(files::add);
+        }
+        return files;
+    }
+
+    private static void check(String description, boolean condition) {
+        System.out.println((condition ? "ok: " : "FAILED: ") + description);
+        passed &= condition;
+    }
+}
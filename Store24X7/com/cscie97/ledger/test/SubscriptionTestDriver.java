@@ -0,0 +1,208 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.BlockListener;
+import com.cscie97.ledger.BlockNotice;
+import com.cscie97.ledger.BlockSubscription;
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.Transaction;
+import com.cscie97.ledger.TransactionView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Test driver for block subscriptions. Checks that a subscription starting from a past block is delivered the
+ * stored blocks from that block on and then the new ones, in chain order and without gaps, with each notice
+ * matching its block and listing the accounts the block changed; that a subscription whose listener is stalled
+ * overflows its queue without holding up sealing, and still delivers every block once the listener resumes; that
+ * a listener that throws does not end its subscription; and that invalid subscriptions are refused.
+ */
+public class SubscriptionTestDriver {
+    private static final int ACCOUNTS = 4;
+    private static final int FEE = Ledger.MIN_TRANSACTION_FEE;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static boolean passed = true;
+    private static int nextId;
+
+    public static void main(String[] args) throws InterruptedException {
+        Ledger ledger = new Ledger("subscription", "subscription test", "subscription");
+        for (int i = 0; i < ACCOUNTS; i++) {
+            ledger.createAccount("account" + i);
+            ledger.processTransaction(new Transaction("f" + i, 1000, FEE, "funding", Ledger.MASTER, "account" + i));
+        }
+        transfer(ledger, 10 * Ledger.TRANSACTIONS_PER_BLOCK);
+
+        fromPastBlock(ledger);
+        overflow(ledger);
+        failingListener(ledger);
+        invalid(ledger);
+        ledger.close();
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void fromPastBlock(Ledger ledger) throws InterruptedException {
+        Recorder recorder = new Recorder();
+        int from = 3;
+        BlockSubscription subscription = ledger.subscribe(recorder, from, 100);
+        transfer(ledger, 3 * Ledger.TRANSACTIONS_PER_BLOCK);
+        int last = ledger.getBlocks();
+        check("past and new blocks delivered", awaitCursor(subscription, last + 1));
+        subscription.close();
+        check("delivered in chain order from block " + from, recorder.blockNumbers().equals(range(from, last)));
+
+        boolean hashes = true, changed = true;
+        for (BlockNotice notice : recorder.notices()) {
+            hashes &= notice.getHash().equals(ledger.getBlock(notice.getBlockNumber()).getHash()) &&
+                    notice.getPreviousHash().equals(ledger.getBlock(notice.getBlockNumber() - 1).getHash());
+            changed &= notice.getChangedBalances().containsKey(Ledger.MASTER);
+            for (TransactionView transaction : notice.getTransactions()) {
+                changed &= notice.getChangedBalances().containsKey(transaction.getPayerAddress()) &&
+                        notice.getChangedBalances().containsKey(transaction.getReceiverAddress());
+            }
+        }
+        check("notices match their blocks", hashes);
+        check("notices list the accounts their block changed", changed);
+        BlockNotice newest = recorder.notices().get(recorder.notices().size() - 1);
+        check("changed balances as of the block", newest.getChangedBalances().get("account0") ==
+                ledger.getAccountBalance("account0"));
+        check("nothing skipped or failed", subscription.getSkipped() == 0 && subscription.getFailed() == 0);
+    }
+
+    private static void overflow(Ledger ledger) throws InterruptedException {
+        CountDownLatch resume = new CountDownLatch(1);
+        Recorder recorder = new Recorder() {
+            @Override
+            public void blockSealed(BlockNotice notice) {
+                super.blockSealed(notice);
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        int first = ledger.getBlocks() + 1;
+        BlockSubscription subscription = ledger.subscribe(recorder, 0, 2);
+        long start = System.nanoTime();
+        transfer(ledger, 20 * Ledger.TRANSACTIONS_PER_BLOCK);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        int last = ledger.getBlocks();
+        check("stalled listener does not hold up sealing (" + elapsedMillis + " ms)", elapsedMillis <
+                TIMEOUT_MILLIS && last == first + 19);
+        check("full queue overflowed", subscription.getOverflowed() > 0);
+        resume.countDown();
+        check("every block delivered after the listener resumes", awaitCursor(subscription, last + 1));
+        subscription.close();
+        check("overflowed blocks delivered in chain order", recorder.blockNumbers().equals(range(first, last)));
+        check("nothing skipped", subscription.getSkipped() == 0);
+    }
+
+    private static void failingListener(Ledger ledger) throws InterruptedException {
+        Recorder recorder = new Recorder() {
+            @Override
+            public void blockSealed(BlockNotice notice) {
+                super.blockSealed(notice);
+                if (notice.getBlockNumber() % 2 == 0) {
+                    throw new IllegalStateException("listener failure");
+                }
+            }
+        };
+        int first = ledger.getBlocks() + 1;
+        BlockSubscription subscription = ledger.subscribe(recorder);
+        transfer(ledger, 4 * Ledger.TRANSACTIONS_PER_BLOCK);
+        int last = ledger.getBlocks();
+        boolean delivered = awaitCursor(subscription, last + 1);
+        // Closing waits for the notification in progress
+        subscription.close();
+        check("subscription continues after its listener throws", delivered &&
+                recorder.blockNumbers().equals(range(first, last)));
+        check("listener failures counted", subscription.getFailed() == 2 && subscription.getDelivered() == 2);
+    }
+
+    private static void invalid(Ledger ledger) {
+        try {
+            ledger.subscribe(new Recorder(), -1, 10).close();
+            check("negative start block refused", false);
+        } catch (LedgerException e) {
+            check("negative start block refused", true);
+        }
+        try {
+            ledger.subscribe(new Recorder(), 0, 0).close();
+            check("empty queue refused", false);
+        } catch (LedgerException e) {
+            check("empty queue refused", true);
+        }
+    }
+
+    /**
+     * Waits for a subscription's cursor to reach a block number, and returns whether it did before the timeout.
+     */
+    private static boolean awaitCursor(BlockSubscription subscription, int blockNumber) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (subscription.getCursor() < blockNumber) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private static void transfer(Ledger ledger, int count) {
+        for (int i = 0; i < count; i++, nextId++) {
+            ledger.processTransaction(new Transaction("t" + nextId, 1 + nextId % 5, FEE, "transfer",
+                    "account" + nextId % ACCOUNTS, "account" + (nextId + 1) % ACCOUNTS));
+        }
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> range = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    private static void check(String description, boolean condition) {
+        System.out.println((condition ? "ok: " : "FAILED: ") + description);
+        passed &= condition;
+    }
+
+    /**
+     * Records the notices delivered to it, and fails the test if any blocks are skipped.
+     */
+    private static class Recorder implements BlockListener {
+        private final List<BlockNotice> notices = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void blockSealed(BlockNotice notice) {
+            notices.add(notice);
+        }
+
+        @Override
+        public void blocksSkipped(int fromBlock, int toBlock) {
+            check("blocks " + fromBlock + " to " + toBlock + " skipped", false);
+        }
+
+        List<BlockNotice> notices() {
+            synchronized (notices) {
+                return new ArrayList<>(notices);
+            }
+        }
+
+        List<Integer> blockNumbers() {
+            List<Integer> blockNumbers = new ArrayList<>();
+            for (BlockNotice notice : notices()) {
+                blockNumbers.add(notice.getBlockNumber());
+            }
+            return blockNumbers;
+        }
+    }
+}
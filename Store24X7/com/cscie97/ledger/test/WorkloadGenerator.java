@@ -0,0 +1,269 @@
+package com.cscie97.ledger.test;
+
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.ShardedLedger;
+import com.cscie97.ledger.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Deterministic synthetic workload for a Ledger. Creates a number of funded accounts and streams a number of
+ * transfers between them. Payers and receivers are drawn from Zipf distributions over the accounts, so a few
+ * accounts are busy and most are quiet; an exponent of 0 draws them uniformly. Amounts are uniform, and fees are
+ * fixed, uniform or exponentially distributed above the minimum fee. A given fraction of the transfers is made
+ * invalid on purpose: an overdraft, a fee below the minimum, an unknown receiver or a reused transaction ID.
+ * The generator tracks every account's balance, so all other transfers are valid when submitted in order by one
+ * thread: a payer that cannot afford its transfer is topped up from the master account first. The stream depends
+ * only on the seed and the settings, so a run can be reproduced exactly.
+ */
+public class WorkloadGenerator implements Iterator<Transaction> {
+    public enum FeeDistribution { FIXED, UNIFORM, EXPONENTIAL }
+
+    private static final String NOTE = "workload";
+
+    private final Random random;
+    private final int accounts;
+    private final long transactions;
+    private final String[] addresses;
+    private final long[] balances;
+    // Busy accounts both pay and receive: ranks drawn from the Zipf distributions map to accounts through the same
+    // shuffled order
+    private final int[] accountOfRank;
+    private double[] payerCdf;
+    private double[] receiverCdf;
+    private int maxAmount = 1000;
+    private FeeDistribution feeDistribution = FeeDistribution.FIXED;
+    private int meanExtraFee = 0;
+    private double failureRatio = 0;
+    private final long funding;
+    private long masterBalance = Ledger.MASTER_STARTING_BALANCE;
+
+    private long generated;
+    private long invalid;
+    private long topUps;
+    private String lastValidId;
+
+    /**
+     * Creates a generator.
+     * @param seed          The seed of the workload; the same seed and settings give the same transactions.
+     * @param accounts      The number of accounts to create; at least 2.
+     * @param transactions  The number of transactions to stream, including top-ups.
+     */
+    public WorkloadGenerator(long seed, int accounts, long transactions) {
+        if (accounts < 2) {
+            throw new IllegalArgumentException("A workload needs at least two accounts.");
+        }
+        this.random = new Random(seed);
+        this.accounts = accounts;
+        this.transactions = transactions;
+        this.addresses = new String[accounts];
+        this.balances = new long[accounts];
+        this.accountOfRank = new int[accounts];
+        for (int i = 0; i < accounts; i++) {
+            addresses[i] = "account-" + i;
+            accountOfRank[i] = i;
+        }
+        for (int i = accounts - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = accountOfRank[i];
+            accountOfRank[i] = accountOfRank[j];
+            accountOfRank[j] = swap;
+        }
+        // Fund the accounts with half of the master account's balance; fees flow back to the master account
+        this.funding = Math.min(1_000_000, Ledger.MASTER_STARTING_BALANCE / 2 / accounts);
+        setSkew(1.0, 1.0);
+    }
+
+    /**
+     * Sets the Zipf exponents of the payer and receiver distributions. Account k of the busiest accounts is drawn
+     * with probability proportional to 1 / k^exponent; an exponent of 0 draws all accounts equally.
+     */
+    public void setSkew(double payerExponent, double receiverExponent) {
+        payerCdf = zipf(accounts, payerExponent);
+        receiverCdf = payerExponent == receiverExponent ? payerCdf : zipf(accounts, receiverExponent);
+    }
+
+    /**
+     * Sets the largest transfer amount; amounts are drawn uniformly from 1 to the largest amount.
+     */
+    public void setMaxAmount(int maxAmount) {
+        this.maxAmount = Math.max(1, maxAmount);
+    }
+
+    /**
+     * Sets the distribution of fees above the minimum transaction fee.
+     * @param distribution  FIXED pays the minimum fee plus the mean; UNIFORM adds up to twice the mean;
+     *                      EXPONENTIAL adds an exponentially distributed extra fee with the given mean.
+     * @param meanExtraFee  The mean of the fee above the minimum.
+     */
+    public void setFees(FeeDistribution distribution, int meanExtraFee) {
+        this.feeDistribution = distribution;
+        this.meanExtraFee = Math.max(0, meanExtraFee);
+    }
+
+    /**
+     * Sets the fraction of transfers made invalid on purpose, from 0 to 1.
+     */
+    public void setFailureRatio(double failureRatio) {
+        this.failureRatio = Math.min(Math.max(failureRatio, 0), 1);
+    }
+
+    /**
+     * Creates the workload's accounts in a ledger and funds each of them from the master account.
+     * @param ledger    The ledger, which must not have the accounts yet.
+     */
+    public void setUp(Ledger ledger) {
+        setUp(ledger::createAccount, ledger::processTransactions);
+    }
+
+    /**
+     * Creates the workload's accounts in a sharded ledger and funds each of them from its shard's master account.
+     * @param ledger    The sharded ledger, which must not have the accounts yet.
+     */
+    public void setUp(ShardedLedger ledger) {
+        setUp(ledger::createAccount, batch -> batch.forEach(ledger::processTransaction));
+    }
+
+    /**
+     * Creates the accounts and submits their funding transactions in batches.
+     * Helper function to setUp().
+     */
+    private void setUp(Consumer<String> createAccount, Consumer<List<Transaction>> process) {
+        List<Transaction> batch = new ArrayList<>();
+        for (int i = 0; i < accounts; i++) {
+            createAccount.accept(addresses[i]);
+            batch.add(new Transaction("fund-" + i, (int) funding, Ledger.MIN_TRANSACTION_FEE, NOTE, Ledger.MASTER,
+                    addresses[i]));
+            balances[i] = funding;
+            masterBalance -= funding;
+            if (batch.size() == 1000 || i == accounts - 1) {
+                process.accept(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return generated < transactions;
+    }
+
+    /**
+     * Returns the next transaction of the stream.
+     */
+    @Override
+    public Transaction next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String id = "w" + generated++;
+        int payer = draw(payerCdf);
+        int receiver = draw(receiverCdf);
+        while (receiver == payer) {
+            receiver = draw(receiverCdf);
+        }
+        int amount = 1 + random.nextInt(maxAmount);
+        int fee = Ledger.MIN_TRANSACTION_FEE + extraFee();
+
+        if (random.nextDouble() < failureRatio) {
+            invalid++;
+            switch (random.nextInt(lastValidId == null ? 3 : 4)) {
+                case 0:
+                    // Overdraft
+                    return new Transaction(id, (int) Math.min(Integer.MAX_VALUE, balances[payer] + 1), fee, NOTE,
+                            addresses[payer], addresses[receiver]);
+                case 1:
+                    return new Transaction(id, amount, Ledger.MIN_TRANSACTION_FEE - 1, NOTE, addresses[payer],
+                            addresses[receiver]);
+                case 2:
+                    return new Transaction(id, amount, fee, NOTE, addresses[payer], "unknown-" + receiver);
+                default:
+                    return new Transaction(lastValidId, amount, fee, NOTE, addresses[payer], addresses[receiver]);
+            }
+        }
+
+        if (balances[payer] < (long) amount + fee) {
+            // Top the payer up instead; the transfer is not attempted
+            if (masterBalance < funding + Ledger.MIN_TRANSACTION_FEE) {
+                throw new IllegalStateException("The master account cannot fund the workload; use fewer accounts " +
+                        "or less skew.");
+            }
+            topUps++;
+            masterBalance -= funding;
+            balances[payer] += funding;
+            lastValidId = id;
+            return new Transaction(id, (int) funding, Ledger.MIN_TRANSACTION_FEE, NOTE, Ledger.MASTER,
+                    addresses[payer]);
+        }
+        balances[payer] -= (long) amount + fee;
+        balances[receiver] += amount;
+        masterBalance += fee;
+        lastValidId = id;
+        return new Transaction(id, amount, fee, NOTE, addresses[payer], addresses[receiver]);
+    }
+
+    /**
+     * Returns the number of transactions generated so far.
+     */
+    public long getGenerated() {
+        return generated;
+    }
+
+    /**
+     * Returns the number of transactions generated so far that were made invalid on purpose, which the ledger
+     * should reject.
+     */
+    public long getInvalid() {
+        return invalid;
+    }
+
+    /**
+     * Returns the number of top-ups from the master account generated so far.
+     */
+    public long getTopUps() {
+        return topUps;
+    }
+
+    private int extraFee() {
+        switch (feeDistribution) {
+            case UNIFORM:
+                return random.nextInt(2 * meanExtraFee + 1);
+            case EXPONENTIAL:
+                long extra = Math.round(-meanExtraFee * Math.log(1 - random.nextDouble()));
+                return (int) Math.min(100L * meanExtraFee, extra);
+            default:
+                return meanExtraFee;
+        }
+    }
+
+    /**
+     * Draws an account from a Zipf distribution.
+     */
+    private int draw(double[] cdf) {
+        int rank = Arrays.binarySearch(cdf, random.nextDouble());
+        rank = rank < 0 ? -rank - 1 : rank;
+        return accountOfRank[Math.min(rank, accounts - 1)];
+    }
+
+    /**
+     * Returns the cumulative distribution of a Zipf distribution over the given number of ranks.
+     */
+    private static double[] zipf(int ranks, double exponent) {
+        double[] cdf = new double[ranks];
+        double sum = 0;
+        for (int k = 0; k < ranks; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < ranks; k++) {
+            cdf[k] /= sum;
+        }
+        return cdf;
+    }
+}
@@ -1,5 +1,6 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.model.CommandProcessor;
 import com.cscie97.store.model.Event;
 
@@ -7,7 +8,7 @@ import com.cscie97.store.model.Event;
  * Sends a robot to assist a customer in carrying their goods from the store to their car.
  */
 public class AssistCustomerCommand extends Command {
-    public AssistCustomerCommand(Event event, CommandProcessor storeModel, com.cscie97.ledger.CommandProcessor ledger, String controllerTokenId) {
+    public AssistCustomerCommand(Event event, CommandProcessor storeModel, LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
     }
 
@@ -1,5 +1,6 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.model.*;
 
 /**
@@ -14,7 +15,7 @@ public class BasketEventCommand extends Command {
     int itemCount;
 
     public BasketEventCommand(Event event, CommandProcessor storeModel,
-                              com.cscie97.ledger.CommandProcessor ledger, String controllerTokenId) {
+                              LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
         this.customerId = event.getCustomerId();
         this.productId = event.getProductId();
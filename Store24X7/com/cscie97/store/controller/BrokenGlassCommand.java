@@ -1,5 +1,6 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.model.CommandProcessor;
 import com.cscie97.store.model.Event;
 
@@ -15,7 +16,7 @@ public class BrokenGlassCommand extends Command {
      * @param ledger     The ledger's command processor.
      */
     public BrokenGlassCommand(Event event, CommandProcessor storeModel,
-                              com.cscie97.ledger.CommandProcessor ledger, String controllerTokenId) {
+                              LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
     }
 
@@ -1,5 +1,7 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.model.CommandProcessor;
 import com.cscie97.store.model.Event;
 
@@ -9,7 +11,7 @@ import com.cscie97.store.model.Event;
  */
 public class CheckBalanceCommand extends Command {
     public CheckBalanceCommand(Event event, CommandProcessor storeModel,
-                               com.cscie97.ledger.CommandProcessor ledger, String controllerTokenId) {
+                               LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
     }
 
@@ -19,9 +21,14 @@ public class CheckBalanceCommand extends Command {
         String basketId = storeModel.processCommand("get-customer-basket " + customerId, controllerTokenId);
         int basketCost = Integer.parseInt(storeModel.processCommand("get-basket-cost " + basketId,controllerTokenId));
 
-        // Query customer balance
-        int balance = ledger.processCommand(String.format("get-account-balance %s",
-                event.getAccountAddress()), 1);
+        // Query customer balance; an account the ledger cannot find is treated as empty
+        long balance = 0;
+        try {
+            balance = ledger.balance(event.getAccountAddress());
+        } catch (LedgerException e) {
+            System.out.println("***ERROR*** \n" + e.getAction());
+            System.out.println(e.getReason() + "\n***********");
+        }
 
         // Construct response message
         String moreOrLess = (basketCost > balance) ? "more" : "less";
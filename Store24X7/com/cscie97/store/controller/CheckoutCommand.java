@@ -1,5 +1,7 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.authentication.*;
 import com.cscie97.store.model.CommandProcessor;
 import com.cscie97.store.model.Event;
@@ -10,7 +12,7 @@ import com.cscie97.store.model.Event;
  */
 public class CheckoutCommand extends Command {
     public CheckoutCommand(Event event, CommandProcessor storeModel,
-                           com.cscie97.ledger.CommandProcessor ledger, String controllerTokenId) {
+                           LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
     }
 
@@ -36,12 +38,14 @@ public class CheckoutCommand extends Command {
         String transactionId = event.getAccountAddress() + basketId + basketCost;
         String note = String.format("Thank you for shopping at %s!", event.getStoreId());
 
-        // Create transaction
-        String transaction = String.format("process-transaction %s amount %s fee %s note %s payer %s receiver %s",
-                transactionId, basketCost, "10", note, event.getAccountAddress(), "Store24X7");
-
         // Submit transaction to blockchain
-        ledger.processCommand(transaction, 1);
+        try {
+            ledger.transfer(transactionId, event.getAccountAddress(), "Store24X7", Integer.parseInt(basketCost), 10,
+                    note);
+        } catch (LedgerException e) {
+            System.out.println("***ERROR*** \n" + e.getAction());
+            System.out.println(e.getReason() + "\n***********");
+        }
 
         // Open turnstile
         storeModel.processCommand(String.format("create-command %s message open", event.getDeviceId()), controllerTokenId);
@@ -1,5 +1,6 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.model.Event;
 
 /**
@@ -9,11 +10,11 @@ public abstract class Command {
     String controllerTokenId;
     Event event;
     com.cscie97.store.model.CommandProcessor storeModel;
-    com.cscie97.ledger.CommandProcessor ledger;
+    LedgerClient ledger;
 
     public Command(Event event,
                    com.cscie97.store.model.CommandProcessor storeModel,
-                   com.cscie97.ledger.CommandProcessor ledger,
+                   LedgerClient ledger,
                    String controllerTokenId) {
         this.event = event;
         this.storeModel = storeModel;
@@ -1,6 +1,6 @@
 package com.cscie97.store.controller;
 
-import com.cscie97.ledger.CommandProcessor;
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.model.Event;
 
 /**
@@ -8,7 +8,7 @@ import com.cscie97.store.model.Event;
  */
 public class CustomerSeenCommand extends Command {
     public CustomerSeenCommand(Event event, com.cscie97.store.model.CommandProcessor storeModel,
-                               CommandProcessor ledger, String controllerTokenId) {
+                               LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
     }
 
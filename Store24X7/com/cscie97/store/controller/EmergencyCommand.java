@@ -1,5 +1,6 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.model.CommandProcessor;
 import com.cscie97.store.model.Event;
 
@@ -11,7 +12,7 @@ public class EmergencyCommand extends Command {
     String[] turnstiles;
     String[] speakers;
     String[] robots;
-    public EmergencyCommand(Event event, CommandProcessor storeModel, com.cscie97.ledger.CommandProcessor ledger, String controllerTokenId) {
+    public EmergencyCommand(Event event, CommandProcessor storeModel, LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
     }
 
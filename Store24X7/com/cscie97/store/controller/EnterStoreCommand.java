@@ -1,5 +1,7 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.authentication.*;
 import com.cscie97.store.model.CommandProcessor;
 import com.cscie97.store.model.Event;
@@ -14,7 +16,7 @@ public class EnterStoreCommand extends Command {
     String aisleId;
 
     public EnterStoreCommand(Event event, CommandProcessor storeModel,
-                             com.cscie97.ledger.CommandProcessor ledger, String controllerTokenId) {
+                             LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
         this.customerId = event.getCustomerId();
         this.customerName = event.getFirstName();
@@ -39,7 +41,13 @@ public class EnterStoreCommand extends Command {
             storeModel.processCommand(String.format("create-command %s message announce(%s)", event.getDeviceId(), alert), controllerTokenId);
             return;
         }
-        int balance = ledger.processCommand(String.format("get-account-balance %s", custAccountAddress), 1);
+        long balance = 0;
+        try {
+            balance = ledger.balance(custAccountAddress);
+        } catch (LedgerException e) {
+            System.out.println("***ERROR*** \n" + e.getAction());
+            System.out.println(e.getReason() + "\n***********");
+        }
         // Check for positive account balance
         if (balance < 0) {
             String alert = "Entry denied; account balance negative.";
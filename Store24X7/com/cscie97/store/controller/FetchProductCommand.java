@@ -1,5 +1,6 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.authentication.AuthToken;
 import com.cscie97.store.authentication.AuthenticationException;
 import com.cscie97.store.authentication.AuthenticationService;
@@ -18,7 +19,7 @@ public class FetchProductCommand extends Command {
     String shelfId;
     String userVoicePrint;
     int count;
-    public FetchProductCommand(Event event, CommandProcessor storeModel, com.cscie97.ledger.CommandProcessor ledger,
+    public FetchProductCommand(Event event, CommandProcessor storeModel, LedgerClient ledger,
                                String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
         this.customerId = event.getCustomerId();
@@ -1,5 +1,6 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.authentication.AuthToken;
 import com.cscie97.store.authentication.AuthenticationException;
 import com.cscie97.store.authentication.AuthenticationService;
@@ -11,7 +12,7 @@ import com.cscie97.store.model.Event;
  * Command issued in response to a voice command from a customer indicated that they want help locating someone.
  */
 public class MissingPersonCommand extends Command {
-    public MissingPersonCommand(Event event, CommandProcessor storeModel, com.cscie97.ledger.CommandProcessor ledger, String controllerTokenId) {
+    public MissingPersonCommand(Event event, CommandProcessor storeModel, LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
     }
 
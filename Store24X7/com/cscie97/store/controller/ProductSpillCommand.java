@@ -1,5 +1,6 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.model.CommandProcessor;
 import com.cscie97.store.model.Event;
 
@@ -8,7 +9,7 @@ import com.cscie97.store.model.Event;
  */
 public class ProductSpillCommand extends Command {
     public ProductSpillCommand(Event event, CommandProcessor storeModel,
-                               com.cscie97.ledger.CommandProcessor ledger, String controllerTokenId) {
+                               LedgerClient ledger, String controllerTokenId) {
         super(event, storeModel, ledger, controllerTokenId);
     }
 
@@ -1,5 +1,6 @@
 package com.cscie97.store.controller;
 
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.authentication.AuthToken;
 import com.cscie97.store.model.CommandProcessor;
 import com.cscie97.store.model.Event;
@@ -17,7 +18,7 @@ import java.util.Map;
 public class StoreObserver implements Observer {
     private static StoreObserver storeObserver = null;
     CommandProcessor SMSCommandProcessor;
-    com.cscie97.ledger.CommandProcessor ledgerCommandProcessor;
+    LedgerClient ledgerClient;
     private AuthToken authToken;
     // Create a map of event types matched with the name of the command subclass that should respond
     Map<String, String> eventResponse = new HashMap<String, String>() {{
@@ -53,8 +54,8 @@ public class StoreObserver implements Observer {
         this.SMSCommandProcessor = SMSCommandProcessor;
     }
 
-    public void setLedgerCommandProcessor(com.cscie97.ledger.CommandProcessor ledgerCommandProcessor) {
-        this.ledgerCommandProcessor = ledgerCommandProcessor;
+    public void setLedgerClient(LedgerClient ledgerClient) {
+        this.ledgerClient = ledgerClient;
     }
 
     public Command createCommand(Event event) throws CommandCreationException {
@@ -65,8 +66,8 @@ public class StoreObserver implements Observer {
             commandTypeString = eventResponse.get(event.getCommandClass());
             Class<?> commandType = Class.forName(commandTypeString);
             Constructor<?> constructor = commandType.getConstructor(Event.class, CommandProcessor.class,
-                    com.cscie97.ledger.CommandProcessor.class, String.class);
-            command = (Command) constructor.newInstance(event, SMSCommandProcessor, ledgerCommandProcessor, authToken.getId());
+                    LedgerClient.class, String.class);
+            command = (Command) constructor.newInstance(event, SMSCommandProcessor, ledgerClient, authToken.getId());
         } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException |
                  InvocationTargetException | NullPointerException e) {
             // Handle any exceptions that might occur during class instantiation
@@ -1,5 +1,7 @@
 package com.cscie97.store.model;
 
+import com.cscie97.ledger.Ledger.LedgerException;
+import com.cscie97.ledger.LedgerClient;
 import com.cscie97.store.authentication.AccessDeniedException;
 import com.cscie97.store.authentication.AuthenticationService;
 import com.cscie97.store.observer.Observer;
@@ -26,7 +28,7 @@ public class StoreModelService implements Subject {
     private Map<String, Appliance> applianceMap = new HashMap<>();
     private SimpleEventFactory factory = new SimpleEventFactory();
     private List<Observer> observers = new ArrayList<>();
-    private com.cscie97.ledger.CommandProcessor ledgerCP;
+    private LedgerClient ledger;
 
 
     // private constructor to avoid client applications using the constructor
@@ -350,10 +352,13 @@ public class StoreModelService implements Subject {
         customerMap.put(customerId, customer);
 
         // Create a blockchain account for the customer and give them a starting balance
-        ledgerCP.processCommand("create-account " + accountAddress, 0);
-        String transactionId = accountAddress + ":T1";
-        String transaction = String.format("process-transaction %s amount 1000 fee 10 note \"starting balance\" payer master receiver %s", transactionId, accountAddress);
-        ledgerCP.processCommand(transaction, 0);
+        try {
+            ledger.createAccount(accountAddress);
+            ledger.transfer(accountAddress + ":T1", "master", accountAddress, 1000, 10, "starting balance");
+        } catch (LedgerException e) {
+            System.out.println("***ERROR*** \n" + e.getAction());
+            System.out.println(e.getReason() + "\n***********");
+        }
 
         // Create an Authentication Service User object for the customer
         authService.createUser(customerId, firstName + " " + lastName);
@@ -840,21 +845,19 @@ public class StoreModelService implements Subject {
     }
 
     /**
-     * Stores a pointer to the Ledger Service Command Processor for use in creating customer accounts
+     * Stores a pointer to the Ledger Service client for use in creating customer accounts
      *
-     * @param ledgerCP A pointer to the ledger CommandProcessor
+     * @param ledger A pointer to the LedgerClient
      */
-    public void setLedgerAPI(com.cscie97.ledger.CommandProcessor ledgerCP) {
-        this.ledgerCP = ledgerCP;
+    public void setLedgerAPI(LedgerClient ledger) {
+        this.ledger = ledger;
     }
 
     /**
-     * Creates a new Ledger instance. This method is called once when the system is started.
+     * Creates the blockchain account for the store 24 service. This method is called once when the system is started.
      */
-    public void createLedger() {
-        // Create the blockchain ledger and an account for the store 24 service
-        ledgerCP.processCommand("create-ledger new description \"store 24 ledger\" seed 24X7", 0);
-        ledgerCP.processCommand("create-account Store24X7", 0);
+    public void createStoreAccount() {
+        ledger.createAccount("Store24X7");
     }
 
     /**
@@ -1,5 +1,8 @@
 package com.cscie97.store.test;
 
+import com.cscie97.ledger.Ledger;
+import com.cscie97.ledger.LedgerClient;
+import com.cscie97.ledger.LocalLedgerClient;
 import com.cscie97.store.authentication.AuthToken;
 import com.cscie97.store.authentication.AuthenticationException;
 import com.cscie97.store.authentication.AuthenticationService;
@@ -42,20 +45,22 @@ public class TestDriver {
 
         // Create command processor instances
         CommandProcessor SMScommandProcessor = new CommandProcessor();
-        com.cscie97.ledger.CommandProcessor ledgerCP = new com.cscie97.ledger.CommandProcessor();
+
+        // Create the blockchain ledger and a client for it
+        LedgerClient ledgerClient = new LocalLedgerClient(new Ledger("new", "store 24 ledger", "24X7"));
 
         // Create StoreObserver instance and set pointers
         StoreObserver storeObserver = StoreObserver.getInstance();
         storeObserver.setSMSCommandProcessor(SMScommandProcessor);
-        storeObserver.setLedgerCommandProcessor(ledgerCP);
+        storeObserver.setLedgerClient(ledgerClient);
         storeObserver.setAuthToken(authToken);
 
         // Add storeObserver to storeModelService observers
         storeModelService.registerObserver(storeObserver);
 
-        // Hand SMS the ledger API and create a new ledger
-        storeModelService.setLedgerAPI(ledgerCP);
-        storeModelService.createLedger();
+        // Hand SMS the ledger API and create the store's account
+        storeModelService.setLedgerAPI(ledgerClient);
+        storeModelService.createStoreAccount();
 
         // Create a new file object to separate file path inputs from command inputs.
         File file = new File(input);